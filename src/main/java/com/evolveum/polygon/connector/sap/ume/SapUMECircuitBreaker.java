@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Circuit breaker of one SPML endpoint, shared by all connector instances (and so all pooled connections) with the same
+// URL, user and circuit breaker settings. After failureThreshold consecutive transport failures (I/O errors, timeouts,
+// HTTP 502/503/504) requests fail fast for openTime milliseconds, then one trial request is let through and its result
+// closes or opens the circuit again. SPML errors returned by a running server are not failures of the endpoint.
+// With a zero threshold the breaker is disabled and not shared.
+
+public class SapUMECircuitBreaker {
+
+    private static final Log LOG = Log.getLog(SapUMECircuitBreaker.class);
+    private static final ConcurrentMap<String, SapUMECircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final String url;
+    private final int failureThreshold;
+    private final long openTime;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    SapUMECircuitBreaker(String url, int failureThreshold, long openTime) {
+        this.url = url;
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    public static SapUMECircuitBreaker forConfiguration(SapUMEConfiguration configuration) {
+        String url = String.valueOf(configuration.getURL());
+        int failureThreshold = configuration.getCircuitBreakerThreshold() == null ? 0 : configuration.getCircuitBreakerThreshold();
+        long openTime = configuration.getCircuitBreakerOpenTime() == null ? 0 : configuration.getCircuitBreakerOpenTime();
+        if (failureThreshold <= 0) {
+            return new SapUMECircuitBreaker(url, 0, openTime);
+        }
+        String key = url + "\n" + configuration.getUser() + "\n" + failureThreshold + "\n" + openTime;
+        return BREAKERS.computeIfAbsent(key, k -> new SapUMECircuitBreaker(url, failureThreshold, openTime));
+    }
+
+    public synchronized void beforeRequest() {
+        if (failureThreshold <= 0 || state == State.CLOSED) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        // a trial request which did not report its result in time is replaced by a new one
+        if (now - openedAt >= openTime) {
+            LOG.info("Circuit breaker for {0} half open, sending trial request", url);
+            state = State.HALF_OPEN;
+            openedAt = now;
+            return;
+        }
+        throw new ConnectorIOException("SPML endpoint " + url + " is unavailable, circuit breaker is open after " + failures + " failures");
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOG.info("Circuit breaker for {0} closed", url);
+        }
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        if (failureThreshold > 0 && (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold))) {
+            LOG.warn("Circuit breaker for {0} opened for {1} ms after {2} failures", url, openTime, failures);
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return state == State.OPEN;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Adaptive limit of SPML requests waiting for the response of one endpoint, shared by all connector instances with the same URL.
+// The limit grows by one per limit of successful requests (additive increase) and is halved (multiplicative decrease)
+// when a request fails on the transport, gets HTTP 429/502/503/504 or its response takes longer than latencyThreshold.
+// Only requests sent after the last decrease can decrease the limit again, so one overload halves it only once.
+// Requests over the limit wait in a FIFO queue, they are rejected when the queue is full or the wait takes too long.
+// acquire waits in the caller thread, acquireAsync returns a future completed when the request may be sent.
+
+public class SapUMEConcurrencyLimiter {
+
+    private static final Log LOG = Log.getLog(SapUMEConcurrencyLimiter.class);
+    private static final ConcurrentMap<String, SapUMEConcurrencyLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private static final double INITIAL_LIMIT = 4;
+    private static final double MIN_LIMIT = 1;
+    private static final double DECREASE_RATIO = 0.5;
+
+    private final String url;
+    private final ReentrantLock lock = new ReentrantLock();
+    // the waiting requests of acquire and acquireAsync in one FIFO queue
+    private final Deque<CompletableFuture<Long>> waiters = new ArrayDeque<>();
+
+    private volatile int maxLimit;
+    private volatile long latencyThreshold;
+    private volatile int queueSize;
+    private volatile long queueTimeout;
+
+    private double limit;
+    private int inFlight;
+    private long lastDecrease;
+
+    private SapUMEConcurrencyLimiter(String url, int maxLimit) {
+        this.url = url;
+        this.limit = Math.min(INITIAL_LIMIT, maxLimit);
+        this.lastDecrease = System.nanoTime();
+    }
+
+    // limiter of the endpoint, the settings of the last initialized configuration are used
+    public static SapUMEConcurrencyLimiter forEndpoint(String url, int maxLimit, long latencyThreshold, int queueSize, long queueTimeout) {
+        SapUMEConcurrencyLimiter limiter = LIMITERS.computeIfAbsent(url, key -> new SapUMEConcurrencyLimiter(key, maxLimit));
+        limiter.maxLimit = maxLimit;
+        limiter.latencyThreshold = latencyThreshold;
+        limiter.queueSize = queueSize;
+        limiter.queueTimeout = queueTimeout;
+        return limiter;
+    }
+
+    // returns the start time of the request to be passed to release, waits in the caller thread
+    public long acquire() throws InterruptedException {
+        CompletableFuture<Long> waiter;
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && inFlight < getIntLimit()) {
+                inFlight++;
+                return System.nanoTime();
+            }
+            if (waiters.size() >= queueSize) {
+                throw createOverloadedException();
+            }
+            waiter = new CompletableFuture<>();
+            waiters.addLast(waiter);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            return queueTimeout > 0 ? waiter.get(queueTimeout, TimeUnit.MILLISECONDS) : waiter.get();
+        } catch (TimeoutException exception) {
+            if (withdraw(waiter)) {
+                throw createTimeoutException();
+            }
+            // granted in the meantime
+            return waiter.join();
+        } catch (InterruptedException exception) {
+            if (!withdraw(waiter)) {
+                giveBack();
+            }
+            throw exception;
+        } catch (ExecutionException exception) {
+            // the waiters of acquire are never completed exceptionally
+            throw new ConnectorIOException(exception.getCause());
+        }
+    }
+
+    // like acquire without blocking, for the threads of the HTTP client and of the retries, the future completes with
+    // the start time in the thread releasing a request or fails when the request is rejected or waits too long
+    public CompletableFuture<Long> acquireAsync() {
+        CompletableFuture<Long> waiter;
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && inFlight < getIntLimit()) {
+                inFlight++;
+                return CompletableFuture.completedFuture(System.nanoTime());
+            }
+            if (waiters.size() >= queueSize) {
+                return CompletableFuture.failedFuture(createOverloadedException());
+            }
+            waiter = new CompletableFuture<>();
+            waiters.addLast(waiter);
+        } finally {
+            lock.unlock();
+        }
+        long timeout = queueTimeout;
+        if (timeout > 0) {
+            CompletableFuture.delayedExecutor(timeout, TimeUnit.MILLISECONDS).execute(() -> {
+                if (withdraw(waiter)) {
+                    waiter.completeExceptionally(createTimeoutException());
+                }
+            });
+        }
+        return waiter;
+    }
+
+    public void release(long start, boolean dropped) {
+        long now = System.nanoTime();
+        List<CompletableFuture<Long>> granted;
+        lock.lock();
+        try {
+            inFlight--;
+            int oldLimit = getIntLimit();
+            boolean slow = latencyThreshold > 0 && TimeUnit.NANOSECONDS.toMillis(now - start) > latencyThreshold;
+            if (dropped || slow) {
+                if (start - lastDecrease > 0) {
+                    limit = Math.max(MIN_LIMIT, limit * DECREASE_RATIO);
+                    lastDecrease = now;
+                }
+            } else if (inFlight + 1 >= limit * DECREASE_RATIO) {
+                // the limit grows only when it is really used
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            if (getIntLimit() != oldLimit) {
+                LOG.ok("Concurrency limit of {0} changed from {1} to {2}, {3} requests queued", url, oldLimit, getIntLimit(),
+                        waiters.size());
+            }
+            granted = grant();
+        } finally {
+            lock.unlock();
+        }
+        complete(granted);
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return getIntLimit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // removes the waiter from the queue, false when it was granted already
+    private boolean withdraw(CompletableFuture<Long> waiter) {
+        lock.lock();
+        try {
+            return waiters.remove(waiter);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // returns a granted request that will not be sent
+    private void giveBack() {
+        List<CompletableFuture<Long>> granted;
+        lock.lock();
+        try {
+            inFlight--;
+            granted = grant();
+        } finally {
+            lock.unlock();
+        }
+        complete(granted);
+    }
+
+    // takes the waiters allowed to run by the lock holder, they are completed after unlock, so the requests chained on them
+    // are not sent under the lock
+    private List<CompletableFuture<Long>> grant() {
+        List<CompletableFuture<Long>> granted = new ArrayList<>();
+        while (!waiters.isEmpty() && inFlight < getIntLimit()) {
+            inFlight++;
+            granted.add(waiters.removeFirst());
+        }
+        return granted;
+    }
+
+    private static void complete(List<CompletableFuture<Long>> granted) {
+        for (CompletableFuture<Long> waiter : granted) {
+            waiter.complete(System.nanoTime());
+        }
+    }
+
+    private ConnectorIOException createOverloadedException() {
+        return new ConnectorIOException("SPML endpoint " + url + " is overloaded, " + waiters.size() + " requests already waiting for "
+                + inFlight + " running requests");
+    }
+
+    private OperationTimeoutException createTimeoutException() {
+        return new OperationTimeoutException("Request to SPML endpoint " + url + " was waiting for " + queueTimeout
+                + " ms, limit " + getLimit() + " running requests");
+    }
+
+    private int getIntLimit() {
+        return Math.max(1, (int) limit);
+    }
+}
@@ -56,10 +56,110 @@ public class SapUMEConfiguration extends AbstractConfiguration {
     // Sets a specified timeout value, in milliseconds, to be used when opening a communications link to the resource referenced by this URLConnection. If the timeout expires before the connection can be established, a java.net.SocketTimeoutException is raised.
     // A timeout of zero is interpreted as an infinite timeout.
     private Integer connectTimeout = Integer.valueOf(0);
-    // Sets the read timeout to a specified timeout, in milliseconds. A non-zero value specifies the timeout when reading from Input stream when a connection is established to a resource. If the timeout expires before there is data available for read, a java.net.SocketTimeoutException is raised.
+    // Sets the read timeout to a specified timeout, in milliseconds. A non-zero value specifies the timeout for waiting for the response once the request was sent. If the timeout expires before the response arrives, a java.net.http.HttpTimeoutException is raised.
     // A timeout of zero is interpreted as an infinite timeout.
     private Integer readTimeout = Integer.valueOf(0);
 
+    // Maximum number of HTTP connections kept open to the SPML service by one connector instance.
+    private Integer maxConnections = Integer.valueOf(4);
+    // Pooled HTTP connections not used for this time, in milliseconds, are closed and opened again on the next request.
+    // A timeout of zero means the connections are never evicted by the connector.
+    private Integer connectionIdleTimeout = Integer.valueOf(30000);
+    // Asks the server for gzip or deflate compressed responses, they are decompressed while they are read.
+    private Boolean compressResponses = Boolean.FALSE;
+    // Keeps the session cookie (JSESSIONID) and the logon ticket (MYSAPSSO2) issued by the server and sends them instead
+    // of the Basic credentials, the credentials are sent again when the server answers 401.
+    private Boolean reuseSession = Boolean.FALSE;
+
+    // Number of retries of idempotent requests (search, schema) failed with an I/O error, a timeout or HTTP 429/502/503/504.
+    // The wait before a retry doubles from retryInitialBackoff up to retryMaxBackoff milliseconds, with random jitter,
+    // a Retry-After header of the server is honored.
+    private Integer maxRetries = Integer.valueOf(0);
+    private Integer retryInitialBackoff = Integer.valueOf(500);
+    private Integer retryMaxBackoff = Integer.valueOf(30000);
+    // After this number of consecutive transport failures the SPML endpoint is considered down and all requests to it
+    // fail immediately for circuitBreakerOpenTime milliseconds. Zero disables the circuit breaker.
+    private Integer circuitBreakerThreshold = Integer.valueOf(0);
+    private Integer circuitBreakerOpenTime = Integer.valueOf(30000);
+
+    // Adaptive limit of requests waiting for the response of the SPML endpoint, shared by all connector instances with the same URL.
+    // The limit grows up to concurrencyMaxLimit while the server answers fast and is halved on errors or responses slower
+    // than concurrencyLatencyThreshold milliseconds. Requests over the limit wait (at most concurrencyQueueTimeout milliseconds,
+    // zero means no timeout), when concurrencyQueueSize requests already wait the next ones fail immediately.
+    private Boolean adaptiveConcurrency = Boolean.FALSE;
+    private Integer concurrencyMaxLimit = Integer.valueOf(32);
+    private Integer concurrencyLatencyThreshold = Integer.valueOf(10000);
+    private Integer concurrencyQueueSize = Integer.valueOf(100);
+    private Integer concurrencyQueueTimeout = Integer.valueOf(60000);
+
+    // Sends the requests of one operation which depend on each other (e.g. modification and password change) in one SPML batch request.
+    private Boolean useBatchRequests = Boolean.FALSE;
+
+    // Keeps the last wireCaptureSize SPML exchanges (at most wireCaptureMaxBytes bytes) in memory and logs them when a request fails,
+    // with jmxMetrics they can be dumped by the SapUMEWireCapture MBean. Passwords are not captured. Zero disables the capture.
+    private Integer wireCaptureSize = Integer.valueOf(0);
+    private Integer wireCaptureMaxBytes = Integer.valueOf(1024 * 1024);
+
+    // Registers a JMX MBean with latency, size and error statistics of the SPML requests for every operation type.
+    private Boolean jmxMetrics = Boolean.FALSE;
+
+    // Operations taking longer than slowOperationThreshold milliseconds are logged with the time spent in their phases, zero disables the log.
+    private Integer slowOperationThreshold = Integer.valueOf(0);
+
+    // Full search (query without filter) sends one request per character of fullSearchStringPattern instead of one request with all of them,
+    // fullSearchParallelism requests run at the same time and their results are merged.
+    private Boolean partitionedFullSearch = Boolean.FALSE;
+    private Integer fullSearchParallelism = Integer.valueOf(4);
+
+    // Entry counts and times of the partitions of the full search are stored in partitionStatisticsFile, so the next search starts
+    // with a plan which splits the large prefixes. Prefixes with more than partitionSplitThreshold entries or slower than partitionSplitTime
+    // milliseconds are split into longer ones, zero disables the limit.
+    private String partitionStatisticsFile = "";
+    private Integer partitionSplitThreshold = Integer.valueOf(10000);
+    private Integer partitionSplitTime = Integer.valueOf(60000);
+
+    // Paged searches (page size requested by the caller) cut the pages out of the full search partitions sorted by name,
+    // with this option the partition following a page is requested while the page is processed. Partitions not returned
+    // completely are cached for the next page, at most pageCacheMaxBytes (estimated) bytes of them. A larger partition (a filtered
+    // search is one partition) is searched again for every page, only the entries up to the end of the page are kept in memory.
+    private Boolean pagePrefetch = Boolean.FALSE;
+    private Integer pageCacheMaxBytes = Integer.valueOf(32 * 1024 * 1024);
+
+    // Search results are mapped to ConnectorObjects by this number of threads while the response is read, they are passed to the handler
+    // in the original order. The threads are shared by the connector instances with the same URL and user. Zero maps them in the thread
+    // of the caller.
+    private Integer mappingThreads = Integer.valueOf(0);
+
+    // Queries with sort keys are sorted by the connector, up to sortBufferSize entries in memory, larger results in sorted runs
+    // written to sortTempDirectory (the default temporary directory when empty) and merged.
+    private Integer sortBufferSize = Integer.valueOf(10000);
+    private String sortTempDirectory = "";
+
+    // The latest sync token is the last modification time found on the server, the objects modified since the current time of
+    // the connector host minus syncClockSkew milliseconds are searched for it. Without such objects it is that time.
+    private Integer syncClockSkew = Integer.valueOf(60000);
+
+    // Concurrent lookups of single objects by identifier or name arriving within lookupBatchWindow milliseconds are sent as one
+    // search with up to lookupBatchSize values, zero disables the batching. A lookup is sent at once when no other lookup is running.
+    private Integer lookupBatchWindow = Integer.valueOf(0);
+    private Integer lookupBatchSize = Integer.valueOf(50);
+
+    // Found objects are kept in a cache shared by the connector instances of the configuration for accountCacheTimeout, groupCacheTimeout
+    // or roleCacheTimeout milliseconds and lookups by identifier are answered from it, zero disables the cache for the object class.
+    // The cache holds at most objectCacheSize objects and objectCacheMaxBytes (estimated) bytes, writes through the connector
+    // remove the object from it. Configurations with the same URL and user share one cache with the timeouts and limits of the
+    // first of them, other values are logged as a warning.
+    private Integer accountCacheTimeout = Integer.valueOf(0);
+    private Integer groupCacheTimeout = Integer.valueOf(0);
+    private Integer roleCacheTimeout = Integer.valueOf(0);
+    private Integer objectCacheSize = Integer.valueOf(10000);
+    private Integer objectCacheMaxBytes = Integer.valueOf(16 * 1024 * 1024);
+
+    // Lookups by identifier or name which found nothing (or updates and deletes of a missing object) are remembered for
+    // negativeCacheTimeout milliseconds and answered without a request, creates and renames through the connector forget them.
+    // At most objectCacheSize lookups are remembered, zero disables it.
+    private Integer negativeCacheTimeout = Integer.valueOf(0);
+
     private String enableValidFromTime = "";
     private String enableValidToTime = "9999-12-31 00:00:00";
     private String disableValidFromTime = "";
@@ -78,6 +178,64 @@ public class SapUMEConfiguration extends AbstractConfiguration {
             throw new ConfigurationException("LogonNameInitialSubstring is empty");
         } else if (dummyPassword == null || dummyPassword.equals(new GuardedString("".toCharArray()))) {
             throw new ConfigurationException("DummyPassword is empty");
+        } else if (maxConnections != null && maxConnections < 1) {
+            throw new ConfigurationException("MaxConnections must be at least 1");
+        } else if (connectionIdleTimeout != null && connectionIdleTimeout < 0) {
+            throw new ConfigurationException("ConnectionIdleTimeout must not be negative");
+        } else if (maxRetries != null && maxRetries < 0) {
+            throw new ConfigurationException("MaxRetries must not be negative");
+        } else if (retryInitialBackoff != null && retryInitialBackoff < 0) {
+            throw new ConfigurationException("RetryInitialBackoff must not be negative");
+        } else if (retryMaxBackoff != null && retryInitialBackoff != null && retryMaxBackoff < retryInitialBackoff) {
+            throw new ConfigurationException("RetryMaxBackoff must not be lower than RetryInitialBackoff");
+        } else if (circuitBreakerThreshold != null && circuitBreakerThreshold < 0) {
+            throw new ConfigurationException("CircuitBreakerThreshold must not be negative");
+        } else if (circuitBreakerOpenTime != null && circuitBreakerOpenTime < 0) {
+            throw new ConfigurationException("CircuitBreakerOpenTime must not be negative");
+        } else if (concurrencyMaxLimit != null && concurrencyMaxLimit < 1) {
+            throw new ConfigurationException("ConcurrencyMaxLimit must be at least 1");
+        } else if (concurrencyLatencyThreshold != null && concurrencyLatencyThreshold < 0) {
+            throw new ConfigurationException("ConcurrencyLatencyThreshold must not be negative");
+        } else if (concurrencyQueueSize != null && concurrencyQueueSize < 0) {
+            throw new ConfigurationException("ConcurrencyQueueSize must not be negative");
+        } else if (concurrencyQueueTimeout != null && concurrencyQueueTimeout < 0) {
+            throw new ConfigurationException("ConcurrencyQueueTimeout must not be negative");
+        } else if (wireCaptureSize != null && wireCaptureSize < 0) {
+            throw new ConfigurationException("WireCaptureSize must not be negative");
+        } else if (wireCaptureMaxBytes != null && wireCaptureMaxBytes < 0) {
+            throw new ConfigurationException("WireCaptureMaxBytes must not be negative");
+        } else if (slowOperationThreshold != null && slowOperationThreshold < 0) {
+            throw new ConfigurationException("SlowOperationThreshold must not be negative");
+        } else if (fullSearchParallelism != null && fullSearchParallelism < 1) {
+            throw new ConfigurationException("FullSearchParallelism must be at least 1");
+        } else if (partitionSplitThreshold != null && partitionSplitThreshold < 0) {
+            throw new ConfigurationException("PartitionSplitThreshold must not be negative");
+        } else if (partitionSplitTime != null && partitionSplitTime < 0) {
+            throw new ConfigurationException("PartitionSplitTime must not be negative");
+        } else if (pageCacheMaxBytes != null && pageCacheMaxBytes < 0) {
+            throw new ConfigurationException("PageCacheMaxBytes must not be negative");
+        } else if (mappingThreads != null && mappingThreads < 0) {
+            throw new ConfigurationException("MappingThreads must not be negative");
+        } else if (sortBufferSize != null && sortBufferSize < 1) {
+            throw new ConfigurationException("SortBufferSize must be at least 1");
+        } else if (syncClockSkew != null && syncClockSkew < 0) {
+            throw new ConfigurationException("SyncClockSkew must not be negative");
+        } else if (lookupBatchWindow != null && lookupBatchWindow < 0) {
+            throw new ConfigurationException("LookupBatchWindow must not be negative");
+        } else if (lookupBatchSize != null && lookupBatchSize < 1) {
+            throw new ConfigurationException("LookupBatchSize must be at least 1");
+        } else if (accountCacheTimeout != null && accountCacheTimeout < 0) {
+            throw new ConfigurationException("AccountCacheTimeout must not be negative");
+        } else if (groupCacheTimeout != null && groupCacheTimeout < 0) {
+            throw new ConfigurationException("GroupCacheTimeout must not be negative");
+        } else if (roleCacheTimeout != null && roleCacheTimeout < 0) {
+            throw new ConfigurationException("RoleCacheTimeout must not be negative");
+        } else if (objectCacheSize != null && objectCacheSize < 1) {
+            throw new ConfigurationException("ObjectCacheSize must be at least 1");
+        } else if (objectCacheMaxBytes != null && objectCacheMaxBytes < 1) {
+            throw new ConfigurationException("ObjectCacheMaxBytes must be at least 1");
+        } else if (negativeCacheTimeout != null && negativeCacheTimeout < 0) {
+            throw new ConfigurationException("NegativeCacheTimeout must not be negative");
         }
         LOG.info("Validate finished");
     }
@@ -226,6 +384,348 @@ public class SapUMEConfiguration extends AbstractConfiguration {
         this.disableValidToTime = disableValidToTime;
     }
 
+    @ConfigurationProperty(order = 17, displayMessageKey = "sap.ume.config.maxConnections", helpMessageKey = "sap.ume.config.maxConnections.help")
+    public Integer getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(Integer maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    @ConfigurationProperty(order = 18, displayMessageKey = "sap.ume.config.connectionIdleTimeout", helpMessageKey = "sap.ume.config.connectionIdleTimeout.help")
+    public Integer getConnectionIdleTimeout() {
+        return connectionIdleTimeout;
+    }
+
+    public void setConnectionIdleTimeout(Integer connectionIdleTimeout) {
+        this.connectionIdleTimeout = connectionIdleTimeout;
+    }
+
+    @ConfigurationProperty(order = 19, displayMessageKey = "sap.ume.config.compressResponses", helpMessageKey = "sap.ume.config.compressResponses.help")
+    public Boolean getCompressResponses() {
+        return compressResponses;
+    }
+
+    public void setCompressResponses(Boolean compressResponses) {
+        this.compressResponses = compressResponses;
+    }
+
+    @ConfigurationProperty(order = 20, displayMessageKey = "sap.ume.config.reuseSession", helpMessageKey = "sap.ume.config.reuseSession.help")
+    public Boolean getReuseSession() {
+        return reuseSession;
+    }
+
+    public void setReuseSession(Boolean reuseSession) {
+        this.reuseSession = reuseSession;
+    }
+
+    @ConfigurationProperty(order = 21, displayMessageKey = "sap.ume.config.maxRetries", helpMessageKey = "sap.ume.config.maxRetries.help")
+    public Integer getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(Integer maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    @ConfigurationProperty(order = 22, displayMessageKey = "sap.ume.config.retryInitialBackoff", helpMessageKey = "sap.ume.config.retryInitialBackoff.help")
+    public Integer getRetryInitialBackoff() {
+        return retryInitialBackoff;
+    }
+
+    public void setRetryInitialBackoff(Integer retryInitialBackoff) {
+        this.retryInitialBackoff = retryInitialBackoff;
+    }
+
+    @ConfigurationProperty(order = 23, displayMessageKey = "sap.ume.config.retryMaxBackoff", helpMessageKey = "sap.ume.config.retryMaxBackoff.help")
+    public Integer getRetryMaxBackoff() {
+        return retryMaxBackoff;
+    }
+
+    public void setRetryMaxBackoff(Integer retryMaxBackoff) {
+        this.retryMaxBackoff = retryMaxBackoff;
+    }
+
+    @ConfigurationProperty(order = 24, displayMessageKey = "sap.ume.config.circuitBreakerThreshold", helpMessageKey = "sap.ume.config.circuitBreakerThreshold.help")
+    public Integer getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    public void setCircuitBreakerThreshold(Integer circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    @ConfigurationProperty(order = 25, displayMessageKey = "sap.ume.config.circuitBreakerOpenTime", helpMessageKey = "sap.ume.config.circuitBreakerOpenTime.help")
+    public Integer getCircuitBreakerOpenTime() {
+        return circuitBreakerOpenTime;
+    }
+
+    public void setCircuitBreakerOpenTime(Integer circuitBreakerOpenTime) {
+        this.circuitBreakerOpenTime = circuitBreakerOpenTime;
+    }
+
+    @ConfigurationProperty(order = 26, displayMessageKey = "sap.ume.config.adaptiveConcurrency", helpMessageKey = "sap.ume.config.adaptiveConcurrency.help")
+    public Boolean getAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    public void setAdaptiveConcurrency(Boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    @ConfigurationProperty(order = 27, displayMessageKey = "sap.ume.config.concurrencyMaxLimit", helpMessageKey = "sap.ume.config.concurrencyMaxLimit.help")
+    public Integer getConcurrencyMaxLimit() {
+        return concurrencyMaxLimit;
+    }
+
+    public void setConcurrencyMaxLimit(Integer concurrencyMaxLimit) {
+        this.concurrencyMaxLimit = concurrencyMaxLimit;
+    }
+
+    @ConfigurationProperty(order = 28, displayMessageKey = "sap.ume.config.concurrencyLatencyThreshold", helpMessageKey = "sap.ume.config.concurrencyLatencyThreshold.help")
+    public Integer getConcurrencyLatencyThreshold() {
+        return concurrencyLatencyThreshold;
+    }
+
+    public void setConcurrencyLatencyThreshold(Integer concurrencyLatencyThreshold) {
+        this.concurrencyLatencyThreshold = concurrencyLatencyThreshold;
+    }
+
+    @ConfigurationProperty(order = 29, displayMessageKey = "sap.ume.config.concurrencyQueueSize", helpMessageKey = "sap.ume.config.concurrencyQueueSize.help")
+    public Integer getConcurrencyQueueSize() {
+        return concurrencyQueueSize;
+    }
+
+    public void setConcurrencyQueueSize(Integer concurrencyQueueSize) {
+        this.concurrencyQueueSize = concurrencyQueueSize;
+    }
+
+    @ConfigurationProperty(order = 30, displayMessageKey = "sap.ume.config.concurrencyQueueTimeout", helpMessageKey = "sap.ume.config.concurrencyQueueTimeout.help")
+    public Integer getConcurrencyQueueTimeout() {
+        return concurrencyQueueTimeout;
+    }
+
+    public void setConcurrencyQueueTimeout(Integer concurrencyQueueTimeout) {
+        this.concurrencyQueueTimeout = concurrencyQueueTimeout;
+    }
+
+    @ConfigurationProperty(order = 31, displayMessageKey = "sap.ume.config.useBatchRequests", helpMessageKey = "sap.ume.config.useBatchRequests.help")
+    public Boolean getUseBatchRequests() {
+        return useBatchRequests;
+    }
+
+    public void setUseBatchRequests(Boolean useBatchRequests) {
+        this.useBatchRequests = useBatchRequests;
+    }
+
+    @ConfigurationProperty(order = 32, displayMessageKey = "sap.ume.config.wireCaptureSize", helpMessageKey = "sap.ume.config.wireCaptureSize.help")
+    public Integer getWireCaptureSize() {
+        return wireCaptureSize;
+    }
+
+    public void setWireCaptureSize(Integer wireCaptureSize) {
+        this.wireCaptureSize = wireCaptureSize;
+    }
+
+    @ConfigurationProperty(order = 33, displayMessageKey = "sap.ume.config.wireCaptureMaxBytes", helpMessageKey = "sap.ume.config.wireCaptureMaxBytes.help")
+    public Integer getWireCaptureMaxBytes() {
+        return wireCaptureMaxBytes;
+    }
+
+    public void setWireCaptureMaxBytes(Integer wireCaptureMaxBytes) {
+        this.wireCaptureMaxBytes = wireCaptureMaxBytes;
+    }
+
+    @ConfigurationProperty(order = 34, displayMessageKey = "sap.ume.config.jmxMetrics", helpMessageKey = "sap.ume.config.jmxMetrics.help")
+    public Boolean getJmxMetrics() {
+        return jmxMetrics;
+    }
+
+    public void setJmxMetrics(Boolean jmxMetrics) {
+        this.jmxMetrics = jmxMetrics;
+    }
+
+    @ConfigurationProperty(order = 35, displayMessageKey = "sap.ume.config.slowOperationThreshold", helpMessageKey = "sap.ume.config.slowOperationThreshold.help")
+    public Integer getSlowOperationThreshold() {
+        return slowOperationThreshold;
+    }
+
+    public void setSlowOperationThreshold(Integer slowOperationThreshold) {
+        this.slowOperationThreshold = slowOperationThreshold;
+    }
+
+    @ConfigurationProperty(order = 36, displayMessageKey = "sap.ume.config.partitionedFullSearch", helpMessageKey = "sap.ume.config.partitionedFullSearch.help")
+    public Boolean getPartitionedFullSearch() {
+        return partitionedFullSearch;
+    }
+
+    public void setPartitionedFullSearch(Boolean partitionedFullSearch) {
+        this.partitionedFullSearch = partitionedFullSearch;
+    }
+
+    @ConfigurationProperty(order = 37, displayMessageKey = "sap.ume.config.fullSearchParallelism", helpMessageKey = "sap.ume.config.fullSearchParallelism.help")
+    public Integer getFullSearchParallelism() {
+        return fullSearchParallelism;
+    }
+
+    public void setFullSearchParallelism(Integer fullSearchParallelism) {
+        this.fullSearchParallelism = fullSearchParallelism;
+    }
+
+    @ConfigurationProperty(order = 38, displayMessageKey = "sap.ume.config.partitionStatisticsFile", helpMessageKey = "sap.ume.config.partitionStatisticsFile.help")
+    public String getPartitionStatisticsFile() {
+        return partitionStatisticsFile;
+    }
+
+    public void setPartitionStatisticsFile(String partitionStatisticsFile) {
+        this.partitionStatisticsFile = partitionStatisticsFile;
+    }
+
+    @ConfigurationProperty(order = 39, displayMessageKey = "sap.ume.config.partitionSplitThreshold", helpMessageKey = "sap.ume.config.partitionSplitThreshold.help")
+    public Integer getPartitionSplitThreshold() {
+        return partitionSplitThreshold;
+    }
+
+    public void setPartitionSplitThreshold(Integer partitionSplitThreshold) {
+        this.partitionSplitThreshold = partitionSplitThreshold;
+    }
+
+    @ConfigurationProperty(order = 40, displayMessageKey = "sap.ume.config.partitionSplitTime", helpMessageKey = "sap.ume.config.partitionSplitTime.help")
+    public Integer getPartitionSplitTime() {
+        return partitionSplitTime;
+    }
+
+    public void setPartitionSplitTime(Integer partitionSplitTime) {
+        this.partitionSplitTime = partitionSplitTime;
+    }
+
+    @ConfigurationProperty(order = 41, displayMessageKey = "sap.ume.config.pagePrefetch", helpMessageKey = "sap.ume.config.pagePrefetch.help")
+    public Boolean getPagePrefetch() {
+        return pagePrefetch;
+    }
+
+    public void setPagePrefetch(Boolean pagePrefetch) {
+        this.pagePrefetch = pagePrefetch;
+    }
+
+    @ConfigurationProperty(order = 53, displayMessageKey = "sap.ume.config.pageCacheMaxBytes", helpMessageKey = "sap.ume.config.pageCacheMaxBytes.help")
+    public Integer getPageCacheMaxBytes() {
+        return pageCacheMaxBytes;
+    }
+
+    public void setPageCacheMaxBytes(Integer pageCacheMaxBytes) {
+        this.pageCacheMaxBytes = pageCacheMaxBytes;
+    }
+
+    @ConfigurationProperty(order = 42, displayMessageKey = "sap.ume.config.mappingThreads", helpMessageKey = "sap.ume.config.mappingThreads.help")
+    public Integer getMappingThreads() {
+        return mappingThreads;
+    }
+
+    public void setMappingThreads(Integer mappingThreads) {
+        this.mappingThreads = mappingThreads;
+    }
+
+    @ConfigurationProperty(order = 43, displayMessageKey = "sap.ume.config.sortBufferSize", helpMessageKey = "sap.ume.config.sortBufferSize.help")
+    public Integer getSortBufferSize() {
+        return sortBufferSize;
+    }
+
+    public void setSortBufferSize(Integer sortBufferSize) {
+        this.sortBufferSize = sortBufferSize;
+    }
+
+    @ConfigurationProperty(order = 44, displayMessageKey = "sap.ume.config.sortTempDirectory", helpMessageKey = "sap.ume.config.sortTempDirectory.help")
+    public String getSortTempDirectory() {
+        return sortTempDirectory;
+    }
+
+    public void setSortTempDirectory(String sortTempDirectory) {
+        this.sortTempDirectory = sortTempDirectory;
+    }
+
+    @ConfigurationProperty(order = 54, displayMessageKey = "sap.ume.config.syncClockSkew", helpMessageKey = "sap.ume.config.syncClockSkew.help")
+    public Integer getSyncClockSkew() {
+        return syncClockSkew;
+    }
+
+    public void setSyncClockSkew(Integer syncClockSkew) {
+        this.syncClockSkew = syncClockSkew;
+    }
+
+    @ConfigurationProperty(order = 45, displayMessageKey = "sap.ume.config.lookupBatchWindow", helpMessageKey = "sap.ume.config.lookupBatchWindow.help")
+    public Integer getLookupBatchWindow() {
+        return lookupBatchWindow;
+    }
+
+    public void setLookupBatchWindow(Integer lookupBatchWindow) {
+        this.lookupBatchWindow = lookupBatchWindow;
+    }
+
+    @ConfigurationProperty(order = 46, displayMessageKey = "sap.ume.config.lookupBatchSize", helpMessageKey = "sap.ume.config.lookupBatchSize.help")
+    public Integer getLookupBatchSize() {
+        return lookupBatchSize;
+    }
+
+    public void setLookupBatchSize(Integer lookupBatchSize) {
+        this.lookupBatchSize = lookupBatchSize;
+    }
+
+    @ConfigurationProperty(order = 47, displayMessageKey = "sap.ume.config.accountCacheTimeout", helpMessageKey = "sap.ume.config.accountCacheTimeout.help")
+    public Integer getAccountCacheTimeout() {
+        return accountCacheTimeout;
+    }
+
+    public void setAccountCacheTimeout(Integer accountCacheTimeout) {
+        this.accountCacheTimeout = accountCacheTimeout;
+    }
+
+    @ConfigurationProperty(order = 48, displayMessageKey = "sap.ume.config.groupCacheTimeout", helpMessageKey = "sap.ume.config.groupCacheTimeout.help")
+    public Integer getGroupCacheTimeout() {
+        return groupCacheTimeout;
+    }
+
+    public void setGroupCacheTimeout(Integer groupCacheTimeout) {
+        this.groupCacheTimeout = groupCacheTimeout;
+    }
+
+    @ConfigurationProperty(order = 49, displayMessageKey = "sap.ume.config.roleCacheTimeout", helpMessageKey = "sap.ume.config.roleCacheTimeout.help")
+    public Integer getRoleCacheTimeout() {
+        return roleCacheTimeout;
+    }
+
+    public void setRoleCacheTimeout(Integer roleCacheTimeout) {
+        this.roleCacheTimeout = roleCacheTimeout;
+    }
+
+    @ConfigurationProperty(order = 50, displayMessageKey = "sap.ume.config.objectCacheSize", helpMessageKey = "sap.ume.config.objectCacheSize.help")
+    public Integer getObjectCacheSize() {
+        return objectCacheSize;
+    }
+
+    public void setObjectCacheSize(Integer objectCacheSize) {
+        this.objectCacheSize = objectCacheSize;
+    }
+
+    @ConfigurationProperty(order = 51, displayMessageKey = "sap.ume.config.objectCacheMaxBytes", helpMessageKey = "sap.ume.config.objectCacheMaxBytes.help")
+    public Integer getObjectCacheMaxBytes() {
+        return objectCacheMaxBytes;
+    }
+
+    public void setObjectCacheMaxBytes(Integer objectCacheMaxBytes) {
+        this.objectCacheMaxBytes = objectCacheMaxBytes;
+    }
+
+    @ConfigurationProperty(order = 52, displayMessageKey = "sap.ume.config.negativeCacheTimeout", helpMessageKey = "sap.ume.config.negativeCacheTimeout.help")
+    public Integer getNegativeCacheTimeout() {
+        return negativeCacheTimeout;
+    }
+
+    public void setNegativeCacheTimeout(Integer negativeCacheTimeout) {
+        this.negativeCacheTimeout = negativeCacheTimeout;
+    }
+
     private String printPassword(GuardedString pwd) {
         if (pwd == null) {
             return "<null>";
@@ -255,6 +755,44 @@ public class SapUMEConfiguration extends AbstractConfiguration {
                 ", enableValidToTime='" + enableValidToTime + '\'' +
                 ", disableValidFromTime='" + disableValidFromTime + '\'' +
                 ", disableValidToTime='" + disableValidToTime + '\'' +
+                ", maxConnections='" + maxConnections + '\'' +
+                ", connectionIdleTimeout='" + connectionIdleTimeout + '\'' +
+                ", compressResponses='" + compressResponses + '\'' +
+                ", reuseSession='" + reuseSession + '\'' +
+                ", maxRetries='" + maxRetries + '\'' +
+                ", retryInitialBackoff='" + retryInitialBackoff + '\'' +
+                ", retryMaxBackoff='" + retryMaxBackoff + '\'' +
+                ", circuitBreakerThreshold='" + circuitBreakerThreshold + '\'' +
+                ", circuitBreakerOpenTime='" + circuitBreakerOpenTime + '\'' +
+                ", adaptiveConcurrency='" + adaptiveConcurrency + '\'' +
+                ", concurrencyMaxLimit='" + concurrencyMaxLimit + '\'' +
+                ", concurrencyLatencyThreshold='" + concurrencyLatencyThreshold + '\'' +
+                ", concurrencyQueueSize='" + concurrencyQueueSize + '\'' +
+                ", concurrencyQueueTimeout='" + concurrencyQueueTimeout + '\'' +
+                ", useBatchRequests='" + useBatchRequests + '\'' +
+                ", wireCaptureSize='" + wireCaptureSize + '\'' +
+                ", wireCaptureMaxBytes='" + wireCaptureMaxBytes + '\'' +
+                ", jmxMetrics='" + jmxMetrics + '\'' +
+                ", slowOperationThreshold='" + slowOperationThreshold + '\'' +
+                ", partitionedFullSearch='" + partitionedFullSearch + '\'' +
+                ", fullSearchParallelism='" + fullSearchParallelism + '\'' +
+                ", partitionStatisticsFile='" + partitionStatisticsFile + '\'' +
+                ", partitionSplitThreshold='" + partitionSplitThreshold + '\'' +
+                ", partitionSplitTime='" + partitionSplitTime + '\'' +
+                ", pagePrefetch='" + pagePrefetch + '\'' +
+                ", pageCacheMaxBytes='" + pageCacheMaxBytes + '\'' +
+                ", mappingThreads='" + mappingThreads + '\'' +
+                ", sortBufferSize='" + sortBufferSize + '\'' +
+                ", sortTempDirectory='" + sortTempDirectory + '\'' +
+                ", syncClockSkew='" + syncClockSkew + '\'' +
+                ", lookupBatchWindow='" + lookupBatchWindow + '\'' +
+                ", lookupBatchSize='" + lookupBatchSize + '\'' +
+                ", accountCacheTimeout='" + accountCacheTimeout + '\'' +
+                ", groupCacheTimeout='" + groupCacheTimeout + '\'' +
+                ", roleCacheTimeout='" + roleCacheTimeout + '\'' +
+                ", objectCacheSize='" + objectCacheSize + '\'' +
+                ", objectCacheMaxBytes='" + objectCacheMaxBytes + '\'' +
+                ", negativeCacheTimeout='" + negativeCacheTimeout + '\'' +
                 '}';
     }
 }
\ No newline at end of file
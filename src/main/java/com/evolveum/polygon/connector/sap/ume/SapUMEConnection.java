@@ -21,152 +21,589 @@ import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.common.security.SecurityUtil;
 import org.identityconnectors.framework.common.exceptions.*;
-import org.identityconnectors.framework.common.objects.OperationalAttributes;
 import org.openspml.message.*;
 import org.openspml.util.SpmlException;
 
 import java.io.*;
 import java.net.*;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Base64;
-import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.xml.stream.XMLStreamException;
 
 import static org.identityconnectors.common.StringUtil.isBlank;
 
 public class SapUMEConnection {
 
     private static final Log LOG = Log.getLog(SapUMEConnection.class);
-    private static final String HIDDEN_PASSWORD = "********";
 
     private SapUMEConfiguration configuration;
+    private SapUMEHttpTransport transport;
+    private String authorization;
+    private SapUMECircuitBreaker circuitBreaker;
+    private SapUMEConcurrencyLimiter concurrencyLimiter;
+    private SapUMEWireCapture wireCapture;
+    private SapUMEMetrics metrics;
+    private SapUMEObjectCache objectCache;
+    private SapUMEExecutors executors;
+    private SapUMEPageCache pageCache;
 
     public SapUMEConnection(SapUMEConfiguration configuration) {
         this.configuration = configuration;
+        this.transport = new SapUMEHttpTransport(configuration);
+        this.circuitBreaker = SapUMECircuitBreaker.forConfiguration(configuration);
+        if (Boolean.TRUE.equals(configuration.getAdaptiveConcurrency())) {
+            this.concurrencyLimiter = SapUMEConcurrencyLimiter.forEndpoint(String.valueOf(configuration.getURL()),
+                    defaultIfNull(configuration.getConcurrencyMaxLimit(), 32), defaultIfNull(configuration.getConcurrencyLatencyThreshold(), 0),
+                    defaultIfNull(configuration.getConcurrencyQueueSize(), 0), defaultIfNull(configuration.getConcurrencyQueueTimeout(), 0));
+        }
+        this.wireCapture = SapUMEWireCapture.acquire(configuration);
+        if (Boolean.TRUE.equals(configuration.getJmxMetrics())) {
+            this.metrics = SapUMEMetrics.acquire(configuration);
+        }
+        this.objectCache = SapUMEObjectCache.acquire(configuration);
+        this.executors = SapUMEExecutors.acquire(configuration);
+        this.pageCache = SapUMEPageCache.acquire(configuration);
+    }
+
+    private static int defaultIfNull(Integer value, int defaultValue) {
+        return value == null ? defaultValue : value;
+    }
+
+    // limiter of the endpoint, null when adaptive concurrency is not enabled
+    public SapUMEConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    // object cache of the configuration, null when no object class is cached
+    public SapUMEObjectCache getObjectCache() {
+        return objectCache;
+    }
+
+    // worker threads shared by the connector instances of the configuration
+    public SapUMEExecutors getExecutors() {
+        return executors;
+    }
+
+    // partitions of paged searches shared by the connector instances of the configuration
+    public SapUMEPageCache getPageCache() {
+        return pageCache;
     }
 
     public void dispose() {
         LOG.info("Dispose start");
+        if (this.transport != null) {
+            this.transport.close();
+            this.transport = null;
+        }
+        if (this.metrics != null) {
+            this.metrics.release();
+            this.metrics = null;
+        }
+        if (this.objectCache != null) {
+            this.objectCache.release();
+            this.objectCache = null;
+        }
+        if (this.executors != null) {
+            this.executors.release();
+            this.executors = null;
+        }
+        if (this.pageCache != null) {
+            this.pageCache.release();
+            this.pageCache = null;
+        }
+        if (this.wireCapture != null) {
+            this.wireCapture.release();
+            this.wireCapture = null;
+        }
         this.configuration = null;
+        this.authorization = null;
         LOG.info("Dispose finished");
     }
 
     public SpmlResponse connect(SpmlRequest spmlRequest, String logOperation) {
-        LOG.info("Connect start");
+        return execute(spmlRequest, logOperation, null, null);
+    }
 
-        logRequest(spmlRequest, logOperation);
-        String request = spmlRequest.toXml();
-        String response = "";
-        SpmlResponse spmlResponse = null;
+    // search with streamed response, every entry is passed to the handler as soon as it was read, the time spent
+    // in the phases of the request is added to the trace of the operation
+    public SearchResponse search(SearchRequest searchRequest, String logOperation, SapUMESearchResultHandler handler, SapUMEOperationTrace trace) {
+        return (SearchResponse) execute(searchRequest, logOperation, handler, trace);
+    }
 
-        StringBuffer sb = new StringBuffer();
-        sb.append("<?xml version='1.0' encoding='UTF-8'?> \n");
-        sb.append("<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"> \n");
-        sb.append("<SOAP-ENV:Header/> \n");
-        sb.append("<SOAP-ENV:Body> \n");
-        sb.append(request).append("</SOAP-ENV:Body> \n");
-        sb.append("</SOAP-ENV:Envelope> \n");
-        String sSOAPRequest = sb.toString();
+    // sends the requests in one SPML batch, the server processes them in order and stops at the first failed one,
+    // its error is thrown as the same ConnId exception as connect would throw for the request alone
+    public List<SpmlResponse> batch(List<? extends SpmlRequest> spmlRequests, String logOperation) {
+        BatchRequest batchRequest = new BatchRequest();
+        batchRequest.setParallel(false);
+        batchRequest.setOnErrorResume(false);
+        for (SpmlRequest spmlRequest : spmlRequests) {
+            batchRequest.addRequest(spmlRequest);
+        }
+        BatchResponse batchResponse = (BatchResponse) connect(batchRequest, logOperation);
+        List<SpmlResponse> responses = batchResponse.getResponses();
+        if (responses == null || responses.size() != spmlRequests.size()) {
+            throw new ConnectorException("SPML batch response contains " + (responses == null ? 0 : responses.size())
+                    + " responses for " + spmlRequests.size() + " requests");
+        }
+        return responses;
+    }
 
-        HttpURLConnection httpURLConnection = null;
+    // non-blocking counterpart of connect, no thread waits for the server, the response is buffered and parsed
+    // when it was received completely, the future fails with the same ConnId exceptions as connect throws
+    public CompletableFuture<SpmlResponse> connectAsync(SpmlRequest spmlRequest, String logOperation) {
+        LOG.info("Connect async start");
 
+        logRequest(spmlRequest, logOperation);
+        SapUMESpmlWriter.RequestBuffer requestBuffer = null;
+        SapUMEWireCapture.Exchange capture = this.wireCapture != null ? this.wireCapture.begin(spmlRequest, logOperation) : null;
+        RequestStats stats = createStats(spmlRequest, logOperation, null);
+        CompletableFuture<SpmlResponse> future;
         try {
-            String ur1 = this.configuration.getURL();
-            final String user = this.configuration.getUser();
-            final GuardedString password = this.configuration.getPassword();
+            URI uri = getURI();
+            requestBuffer = SapUMESpmlWriter.borrowBuffer();
+            SapUMESpmlWriter.writeSoapRequest(spmlRequest, requestBuffer);
+            stats.serialized(requestBuffer.size());
+            future = exchange(uri, requestBuffer, isIdempotent(spmlRequest), false, this.transport::sendBufferedAsync,
+                    ByteArrayInputStream::new, stats)
+                    .thenApply(httpResponse -> {
+                        stats.responseBytes = httpResponse.body().length;
+                        // the decoded body is captured, like in execute
+                        try (InputStream in = this.transport.openBody(httpResponse, new ByteArrayInputStream(httpResponse.body()))) {
+                            SpmlResponse spmlResponse = readResponse(spmlRequest, capture != null ? capture.tee(in) : in, null,
+                                    logOperation, stats);
+                            stats.parsed();
+                            return checkResponse(spmlResponse, logOperation);
+                        } catch (Exception exception) {
+                            throw mapException(exception);
+                        }
+                    });
+        } catch (Exception exception) {
+            future = CompletableFuture.failedFuture(exception);
+        }
 
-            if (isBlank(ur1)) {
-                throw new InvalidCredentialException("URL must not be empty");
+        SapUMESpmlWriter.RequestBuffer usedBuffer = requestBuffer;
+        return future.handle((spmlResponse, throwable) -> {
+            if (usedBuffer != null) {
+                SapUMESpmlWriter.returnBuffer(usedBuffer);
             }
+            if (throwable != null) {
+                RuntimeException connectorException = mapException(throwable);
+                endCapture(capture, connectorException);
+                stats.end(connectorException);
+                throw connectorException;
+            }
+            endCapture(capture, null);
+            stats.end(null);
+            LOG.info("Connect async finished");
+            return spmlResponse;
+        });
+    }
+
+    // the search result entries are streamed to the handler when it is not null, without a trace of the whole
+    // operation the request is logged alone when it is slow
+    private SpmlResponse execute(SpmlRequest spmlRequest, String logOperation, SapUMESearchResultHandler handler, SapUMEOperationTrace trace) {
+        LOG.info("Connect start");
+
+        logRequest(spmlRequest, logOperation);
+        SpmlResponse spmlResponse = null;
+        SapUMESpmlWriter.RequestBuffer requestBuffer = null;
+        CompletableFuture<HttpResponse<InputStream>> exchange = null;
+        SapUMEWireCapture.Exchange capture = this.wireCapture != null ? this.wireCapture.begin(spmlRequest, logOperation) : null;
+        RequestStats stats = createStats(spmlRequest, logOperation, trace);
 
-            if (isBlank(user) || password == null || password.equals(new GuardedString("".toCharArray()))) {
-                throw new InvalidCredentialException("User and Password must not be empty");
+        try {
+            URI uri = getURI();
+            requestBuffer = SapUMESpmlWriter.borrowBuffer();
+            SapUMESpmlWriter.writeSoapRequest(spmlRequest, requestBuffer);
+            stats.serialized(requestBuffer.size());
+
+            exchange = exchange(uri, requestBuffer, isIdempotent(spmlRequest), true, this.transport::sendAsync, in -> in, stats);
+            HttpResponse<InputStream> httpResponse = await(exchange);
+            SapUMEHttpTransport.ResponseInputStream body = this.transport.openBody(httpResponse, httpResponse.body());
+            try (InputStream in = body) {
+                spmlResponse = readResponse(spmlRequest, capture != null ? capture.tee(in) : in, handler, logOperation, stats);
+                if (stats.stopped) {
+                    LOG.ok("Reading of {0} response stopped by the handler after {1} entries", logOperation, stats.resultEntries);
+                    body.abort();
+                }
             }
+            stats.responseBytes = body.getReceivedBytes();
+            stats.parsed();
+            checkResponse(spmlResponse, logOperation);
+            endCapture(capture, null);
+            stats.end(null);
+        } catch (Exception exception) {
+            RuntimeException connectorException = mapException(exception);
+            endCapture(capture, connectorException);
+            stats.end(connectorException);
+            throw connectorException;
+        } finally {
+            // the request body may be read by the client until the exchange completes, also when the wait for it
+            // was interrupted, so the buffer is returned to the pool only after that
+            if (requestBuffer != null) {
+                SapUMESpmlWriter.RequestBuffer usedBuffer = requestBuffer;
+                if (exchange == null || exchange.isDone()) {
+                    SapUMESpmlWriter.returnBuffer(usedBuffer);
+                } else {
+                    exchange.whenComplete((httpResponse, throwable) -> SapUMESpmlWriter.returnBuffer(usedBuffer));
+                }
+            }
+        }
+
+        LOG.info("Connect finished");
+        return spmlResponse;
+    }
+
+    private RequestStats createStats(SpmlRequest spmlRequest, String logOperation, SapUMEOperationTrace trace) {
+        return new RequestStats(spmlRequest, logOperation, this.metrics != null ? this.metrics.forOperation(logOperation) : null,
+                trace, defaultIfNull(this.configuration.getSlowOperationThreshold(), 0));
+    }
+
+    private static void endCapture(SapUMEWireCapture.Exchange capture, RuntimeException exception) {
+        if (capture == null) {
+            return;
+        }
+        capture.end(exception);
+    }
 
-            URL url = new URL(ur1);
-            httpURLConnection = (HttpURLConnection) url.openConnection();
+    private URI getURI() {
+        String ur1 = this.configuration.getURL();
+        final String user = this.configuration.getUser();
+        final GuardedString password = this.configuration.getPassword();
 
-            String basicAuth = "Basic " + new String(Base64.getEncoder().encode((this.configuration.getUser() + ":" + SecurityUtil.decrypt(this.configuration.getPassword())).getBytes()));
-            httpURLConnection.setRequestProperty ("Authorization", basicAuth);
+        if (isBlank(ur1)) {
+            throw new InvalidCredentialException("URL must not be empty");
+        }
 
-            byte[] xmlBytes = sSOAPRequest.getBytes();
-            httpURLConnection.setRequestProperty("Content-Length", String.valueOf(xmlBytes.length));
-            httpURLConnection.setRequestProperty("Content-Type", "text/xml; charset=UTF-8");
-            httpURLConnection.setRequestProperty("SOAPAction", "POST");
-            httpURLConnection.setRequestMethod("POST");
-            httpURLConnection.setDoOutput(true);
-            httpURLConnection.setDoInput(true);
+        if (isBlank(user) || password == null || password.equals(new GuardedString("".toCharArray()))) {
+            throw new InvalidCredentialException("User and Password must not be empty");
+        }
+        return URI.create(ur1);
+    }
 
-            Integer connectTimeout = this.configuration.getConnectTimeout();
-            Integer readTimeout = this.configuration.getReadTimeout();
-            if (connectTimeout == null) {
-                connectTimeout = Integer.valueOf(0);
+    private SpmlResponse readResponse(SpmlRequest spmlRequest, InputStream in, SapUMESearchResultHandler handler, String logOperation,
+                                      RequestStats stats) throws Exception {
+        if (spmlRequest instanceof SchemaRequest) {
+            return SapUMESpmlReader.readWithDom(in);
+        } else if (handler != null) {
+            return SapUMESpmlReader.read(in, searchResult -> {
+                stats.resultEntries++;
+                logSearchResult(searchResult, logOperation);
+                long handlerStart = System.nanoTime();
+                try {
+                    stats.stopped = !handler.handle(searchResult);
+                    return !stats.stopped;
+                } finally {
+                    stats.handlerNanos += System.nanoTime() - handlerStart;
+                }
+            });
+        }
+        SpmlResponse spmlResponse = SapUMESpmlReader.read(in, null);
+        if (spmlResponse instanceof SearchResponse && ((SearchResponse) spmlResponse).getResults() != null) {
+            stats.resultEntries += ((SearchResponse) spmlResponse).getResults().size();
+        }
+        return spmlResponse;
+    }
+
+    private static boolean isIdempotent(SpmlRequest spmlRequest) {
+        return spmlRequest instanceof SearchRequest || spmlRequest instanceof SchemaRequest;
+    }
+
+    // SPML object class of the request, derived from the search base, the added object class or the prefix of the identifier
+    private static String getObjectClass(SpmlRequest spmlRequest) {
+        if (spmlRequest instanceof SearchRequest && ((SearchRequest) spmlRequest).getSearchBase() != null) {
+            return ((SearchRequest) spmlRequest).getSearchBase().getId();
+        } else if (spmlRequest instanceof AddRequest) {
+            return ((AddRequest) spmlRequest).getObjectClass();
+        } else if (spmlRequest instanceof BatchRequest && ((BatchRequest) spmlRequest).getRequests() != null
+                && !((BatchRequest) spmlRequest).getRequests().isEmpty()) {
+            return getObjectClass(((BatchRequest) spmlRequest).getRequests().get(0));
+        } else if (spmlRequest instanceof SchemaRequest) {
+            return null;
+        }
+        String identifier = spmlRequest.getIdentifierString();
+        if (identifier == null) {
+            return null;
+        } else if (identifier.startsWith("USER.")) {
+            return SapUMESchema.OBJECT_SUPUSER;
+        } else if (identifier.startsWith("ROLE.")) {
+            return SapUMESchema.OBJECT_SAPROLE;
+        } else if (identifier.startsWith("GROUP.")) {
+            return SapUMESchema.OBJECT_SAPGROUP;
+        }
+        return null;
+    }
+
+    private SpmlResponse checkResponse(SpmlResponse spmlResponse, String logOperation) throws SpmlException {
+        logResponse(spmlResponse, logOperation);
+
+        // the failure of the batch is reported by the failed request, its error message tells what happened
+        if (spmlResponse instanceof BatchResponse && ((BatchResponse) spmlResponse).getResponses() != null) {
+            List<SpmlResponse> responses = ((BatchResponse) spmlResponse).getResponses();
+            for (int i = 0; i < responses.size(); i++) {
+                SpmlResponse response = responses.get(i);
+                if (response.isFailure()) {
+                    LOG.error("SPML RESPONSE of batch request {0} of {1} is failure: {2}", i + 1, responses.size(), response.getErrorMessage());
+                    throw new SpmlException("Batch request " + (i + 1) + ": " + response.getErrorMessage());
+                }
             }
-            if (readTimeout == null) {
-                readTimeout = Integer.valueOf(0);
+        }
+
+        if (spmlResponse.isFailure()) {
+            LOG.error("SPML RESPONSE is failure: {0}", spmlResponse.getErrorMessage());
+            spmlResponse.throwErrors();
+            throw new ConnectorException(spmlResponse.getErrorMessage());
+        }
+        return spmlResponse;
+    }
+
+    // the same ConnId exception for the failure of synchronous and asynchronous requests
+    private static RuntimeException mapException(Throwable throwable) {
+        while ((throwable instanceof CompletionException || throwable instanceof ExecutionException) && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        if (throwable instanceof ConnectorException) {
+            return (ConnectorException) throwable;
+        } else if (isTimeout(throwable)) {
+            return new OperationTimeoutException(throwable);
+        } else if (throwable instanceof IOException) {
+            return new ConnectorIOException(throwable);
+        } else if (throwable instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            return new ConnectorIOException(throwable);
+        } else if (throwable instanceof SpmlException) {
+            if (throwable.getMessage().contains("already exists")) {
+                return new AlreadyExistsException(throwable);
+            } else if (throwable.getMessage().contains("is not allowed")) {
+                return new PermissionDeniedException(throwable);
+            } else if (throwable.getMessage().contains("doesn't exist")) {
+                return new UnknownUidException(throwable);
             }
-            httpURLConnection.setConnectTimeout(connectTimeout);
-            httpURLConnection.setReadTimeout(readTimeout);
-
-            OutputStream out = httpURLConnection.getOutputStream();
-            out.write(xmlBytes);
-            out.close();
-            out = null;
-
-            BufferedReader in = new BufferedReader(new InputStreamReader(httpURLConnection.getInputStream()));
-            String inputLine;
-            StringBuffer content = new StringBuffer();
-            while ((inputLine = in.readLine()) != null) {
-                content.append(inputLine);
+        }
+        return new ConnectorException(throwable);
+    }
+
+    // a body read timeout reaches the streaming parser as an XMLStreamException wrapping the SocketTimeoutException
+    private static boolean isTimeout(Throwable throwable) {
+        for (int depth = 0; throwable != null && depth < 8; depth++) {
+            if (throwable instanceof HttpTimeoutException || throwable instanceof SocketTimeoutException) {
+                return true;
             }
+            throwable = throwable instanceof XMLStreamException && ((XMLStreamException) throwable).getNestedException() != null
+                    ? ((XMLStreamException) throwable).getNestedException() : throwable.getCause();
+        }
+        return false;
+    }
+
+    // waits for the response headers, a response arriving after an interrupt is closed so its connection is not lost
+    private static HttpResponse<InputStream> await(CompletableFuture<HttpResponse<InputStream>> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException iException) {
+            future.thenAccept(httpResponse -> closeQuietly(httpResponse.body()));
+            throw iException;
+        } catch (ExecutionException eException) {
+            Throwable cause = eException.getCause();
+            throw cause instanceof Exception ? (Exception) cause : eException;
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
             in.close();
-            in = null;
+        } catch (IOException ioException) {
+            LOG.ok("Response body not closed: {0}", ioException.getMessage());
+        }
+    }
 
-            if (content.length() == 0) {
-                response = null;
+    // sends the request and completes with a successful response with its body not read yet, idempotent requests are
+    // repeated after transport failures, never after any part of the response body was passed to the reader; a blocking
+    // exchange waits for the concurrency limiter in the caller thread, this is the backpressure of the synchronous requests
+    private <T> CompletableFuture<HttpResponse<T>> exchange(URI uri, SapUMESpmlWriter.RequestBuffer requestBuffer, boolean idempotent,
+                                                            boolean blocking, HttpSender<T> sender, BodyOpener<T> bodyOpener,
+                                                            RequestStats stats) {
+        int maxRetries = idempotent && this.configuration.getMaxRetries() != null ? this.configuration.getMaxRetries() : 0;
+        // with a session from a previous response the credentials are not sent, when the session expired
+        // the request is repeated once with them
+        return exchange(uri, requestBuffer, maxRetries, blocking, sender, bodyOpener, stats, this.transport.hasSession(uri), 0);
+    }
+
+    // the asynchronous requests and the repeated ones (sent from the threads of the HTTP client and of the retries) don't
+    // block, they are chained on the acquireAsync of the limiter
+    private <T> CompletableFuture<HttpResponse<T>> exchange(URI uri, SapUMESpmlWriter.RequestBuffer requestBuffer, int maxRetries,
+                                                            boolean blocking, HttpSender<T> sender, BodyOpener<T> bodyOpener,
+                                                            RequestStats stats, boolean withSession, int attempt) {
+        CompletableFuture<Long> acquired;
+        try {
+            this.circuitBreaker.beforeRequest();
+            if (this.concurrencyLimiter == null) {
+                acquired = CompletableFuture.completedFuture(0L);
+            } else if (blocking) {
+                acquired = CompletableFuture.completedFuture(this.concurrencyLimiter.acquire());
             } else {
-                response = content.toString();
+                acquired = this.concurrencyLimiter.acquireAsync();
             }
-            spmlResponse = SpmlResponse.parseResponse(response);
+        } catch (Exception exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+        return acquired.thenCompose(start -> send(uri, requestBuffer, maxRetries, sender, bodyOpener, stats, withSession, attempt, start));
+    }
 
-            httpURLConnection.disconnect();
-            httpURLConnection = null;
+    private <T> CompletableFuture<HttpResponse<T>> send(URI uri, SapUMESpmlWriter.RequestBuffer requestBuffer, int maxRetries,
+                                                        HttpSender<T> sender, BodyOpener<T> bodyOpener, RequestStats stats,
+                                                        boolean withSession, int attempt, long start) {
+        CompletableFuture<HttpResponse<T>> sent;
+        try {
+            stats.sending();
+            sent = sender.send(buildHttpRequest(uri, requestBuffer, !withSession, stats));
+        } catch (RuntimeException exception) {
+            releaseLimiter(start, false);
+            return CompletableFuture.failedFuture(exception);
+        }
 
-            logResponse(spmlResponse, logOperation);
+        return sent.handle((httpResponse, throwable) -> {
+            if (throwable != null) {
+                while (throwable instanceof CompletionException && throwable.getCause() != null) {
+                    throwable = throwable.getCause();
+                }
+                if (!(throwable instanceof IOException)) {
+                    releaseLimiter(start, false);
+                    return CompletableFuture.<HttpResponse<T>>failedFuture(throwable);
+                }
+                this.circuitBreaker.onFailure();
+                releaseLimiter(start, true);
+                if (attempt >= maxRetries) {
+                    return CompletableFuture.<HttpResponse<T>>failedFuture(throwable);
+                }
+                LOG.warn("SPML request failed: {0}, retry {1} of {2}", throwable, attempt + 1, maxRetries);
+                return retry(uri, requestBuffer, maxRetries, sender, bodyOpener, stats, withSession, attempt, -1);
+            }
 
-            if (spmlResponse.isFailure()) {
-                LOG.error("SPML RESPONSE is failure: {0}", spmlResponse.getErrorMessage());
-                spmlResponse.throwErrors();
-                throw new ConnectorException(spmlResponse.getErrorMessage());
+            stats.responseReceived();
+            int responseCode = httpResponse.statusCode();
+            if (responseCode == 502 || responseCode == 503 || responseCode == 504) {
+                this.circuitBreaker.onFailure();
+            } else {
+                this.circuitBreaker.onSuccess();
+            }
+            // the server has finished its work when the response arrives, reading of the body is not limited
+            releaseLimiter(start, isRetryable(responseCode));
+            if (responseCode < 400) {
+                return CompletableFuture.completedFuture(httpResponse);
             }
-        } catch (ProtocolException pException) {
             try {
-                if (httpURLConnection != null) {
-                    int responseCode = httpURLConnection.getResponseCode();
-                    if (responseCode == 401) {
-                        throw new InvalidCredentialException("Connection error " + responseCode + " (" + httpURLConnection.getResponseMessage() + ")", pException);
-                    }
-                }
-            } catch (IOException iOException) {
-                throw new ConnectorIOException(iOException);
+                this.transport.openBody(httpResponse, bodyOpener.open(httpResponse.body())).close();
+            } catch (IOException ioException) {
+                LOG.ok("Response body not closed: {0}", ioException.getMessage());
             }
-            throw new ConnectorIOException(pException);
-        } catch (SocketTimeoutException stException) {
-            throw new OperationTimeoutException(stException);
-        } catch (IOException iOException) {
-            throw new ConnectorIOException(iOException);
-        } catch (SpmlException spmlException) {
-            if (spmlException.getMessage().contains("already exists")) {
-                throw new AlreadyExistsException(spmlException);
-            } else if (spmlException.getMessage().contains("is not allowed")) {
-                throw new PermissionDeniedException(spmlException);
-            } else if (spmlException.getMessage().contains("doesn't exist")) {
-                throw new UnknownUidException(spmlException);
-            } throw new ConnectorException(spmlException);
-        } catch (Exception exception) {
-            throw new ConnectorException(exception);
+            if (responseCode == 401 && withSession) {
+                LOG.ok("Session not accepted by the server, authenticating again");
+                this.transport.clearSession();
+                return exchange(uri, requestBuffer, maxRetries, false, sender, bodyOpener, stats, false, attempt);
+            } else if (responseCode == 401) {
+                return CompletableFuture.<HttpResponse<T>>failedFuture(new InvalidCredentialException("Connection error " + responseCode));
+            } else if (attempt >= maxRetries || !isRetryable(responseCode)) {
+                return CompletableFuture.<HttpResponse<T>>failedFuture(
+                        new ConnectorIOException("Server returned HTTP response code: " + responseCode + " for URL: " + uri));
+            }
+            LOG.warn("Server returned HTTP response code {0}, retry {1} of {2}", responseCode, attempt + 1, maxRetries);
+            return retry(uri, requestBuffer, maxRetries, sender, bodyOpener, stats, withSession, attempt, getRetryAfter(httpResponse));
+        }).thenCompose(Function.identity());
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> retry(URI uri, SapUMESpmlWriter.RequestBuffer requestBuffer, int maxRetries,
+                                                         HttpSender<T> sender, BodyOpener<T> bodyOpener, RequestStats stats,
+                                                         boolean withSession, int attempt, long retryAfter) {
+        Executor delayed = CompletableFuture.delayedExecutor(getBackoff(attempt, retryAfter), TimeUnit.MILLISECONDS);
+        return CompletableFuture.runAsync(() -> {
+        }, delayed).thenCompose(ignored -> exchange(uri, requestBuffer, maxRetries, false, sender, bodyOpener, stats, withSession,
+                attempt + 1));
+    }
+
+    private void releaseLimiter(long start, boolean dropped) {
+        if (this.concurrencyLimiter != null) {
+            this.concurrencyLimiter.release(start, dropped);
         }
+    }
 
-        LOG.info("Connect finished");
-        return spmlResponse;
+    private static boolean isRetryable(int responseCode) {
+        return responseCode == 429 || responseCode == 502 || responseCode == 503 || responseCode == 504;
+    }
+
+    // Retry-After in seconds or as HTTP date, -1 when missing or not readable
+    private static long getRetryAfter(HttpResponse<?> httpResponse) {
+        String retryAfter = httpResponse.headers().firstValue("Retry-After").orElse(null);
+        if (isBlank(retryAfter)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException nfException) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException dtpException) {
+                return -1;
+            }
+        }
+    }
+
+    // exponential backoff with equal jitter, the wait requested by the server takes precedence
+    private long getBackoff(int attempt, long retryAfter) {
+        if (retryAfter >= 0) {
+            return retryAfter;
+        }
+        long initial = this.configuration.getRetryInitialBackoff() == null ? 0 : this.configuration.getRetryInitialBackoff();
+        long max = this.configuration.getRetryMaxBackoff() == null ? initial : this.configuration.getRetryMaxBackoff();
+        long backoff = Math.min(max, initial << Math.min(attempt, 30));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private HttpRequest buildHttpRequest(URI uri, SapUMESpmlWriter.RequestBuffer requestBuffer, boolean withCredentials, RequestStats stats) {
+        HttpRequest.BodyPublisher bodyPublisher = HttpRequest.BodyPublishers.ofByteArray(requestBuffer.array(), 0, requestBuffer.size());
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(uri)
+                .header("Content-Type", "text/xml; charset=UTF-8")
+                .header("SOAPAction", "POST")
+                .POST(new ObservedBodyPublisher(bodyPublisher, stats::written));
+
+        if (withCredentials) {
+            requestBuilder.header("Authorization", getAuthorization());
+        }
+
+        if (Boolean.TRUE.equals(this.configuration.getCompressResponses())) {
+            requestBuilder.header("Accept-Encoding", "gzip, deflate");
+        }
+
+        Integer readTimeout = this.configuration.getReadTimeout();
+        if (readTimeout != null && readTimeout > 0) {
+            requestBuilder.timeout(Duration.ofMillis(readTimeout));
+        }
+        return requestBuilder.build();
+    }
+
+    // the configuration does not change during the life of the connection, so the header is computed only once
+    private synchronized String getAuthorization() {
+        if (this.authorization == null) {
+            String credentials = this.configuration.getUser() + ":" + SecurityUtil.decrypt(this.configuration.getPassword());
+            this.authorization = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes());
+        }
+        return this.authorization;
     }
 
     public void test() {
@@ -186,7 +623,6 @@ public class SapUMEConnection {
     }
 
     public void logRequest(SpmlRequest request, String logOperation) {
-        SpmlRequest logRequest = null;
         String identifier = request.getIdentifierString();
         if (!isBlank(identifier)) {
             identifier = "id=" + identifier + ": ";
@@ -195,16 +631,12 @@ public class SapUMEConnection {
         }
 
         if (configuration.getLogSPMLRequest()) {
-            if (request instanceof ModifyRequest) {
-                logRequest = removePasswordElementFromModifyRequest((ModifyRequest) request);
-            } else if (request instanceof AddRequest) {
-                logRequest = removePasswordElementFromAddRequest((AddRequest) request);
-            } else {
-                logRequest = request;
-            }
-            String log = null;
-            if (logRequest != null) {
-                log = logRequest.toXml();
+            // passwords are hidden while the request is written, the request itself is not copied
+            StringWriter log = new StringWriter();
+            try {
+                SapUMESpmlWriter.writeRedactedRequest(request, log);
+            } catch (IOException ioException) {
+                log.write(String.valueOf(ioException));
             }
             LOG.info("SPML REQUEST: operation={0}: {1}{2}", logOperation, identifier, log);
         }
@@ -220,44 +652,159 @@ public class SapUMEConnection {
         }
     }
 
-    private static ModifyRequest removePasswordElementFromModifyRequest(ModifyRequest modifyRequest) {
-        ModifyRequest newModifyReq = new ModifyRequest();
-        if (!(modifyRequest == null || modifyRequest.getModifications() == null)) {
-            Iterator<Modification> modyfs = modifyRequest.getModifications().iterator();
-            while (modyfs.hasNext()) {
-                Modification modyf = modyfs.next();
-                String modyfName = modyf.getName();
-                Object modyfValue = modyf.getValue();
-                String modyfOperation = modyf.getOperation();
-                if ((modyfName.equals(SapUMESchema.ATTRIBUTE_PASSWORD) || modyfName.equals(SapUMESchema.ATTRIBUTE_OLDPASSWORD) || (modyfName.equals(OperationalAttributes.PASSWORD_NAME)))) {
-                    modyfValue = HIDDEN_PASSWORD;
-                }
-                Modification newModyf = new Modification(modyfName, modyfValue);
-                newModyf.setOperation(modyfOperation);
-                newModifyReq.addModification(newModyf);
+    public void logSearchResult(SearchResult searchResult, String logOperation) {
+        if (configuration.getLogSPMLResponse()) {
+            LOG.info("SPML RESPONSE ENTRY: operation={0}: id={1}: {2}", logOperation, searchResult.getIdentifierString(), searchResult.getAttributeMap());
+        }
+    }
+
+    private interface HttpSender<T> {
+
+        CompletableFuture<HttpResponse<T>> send(HttpRequest request);
+    }
+
+    private interface BodyOpener<T> {
+
+        InputStream open(T body);
+    }
+
+    // sizes, result count and phases of one request, passed to the operation statistics and the operation trace when it ends
+    // and recorded as flight recorder events; the HTTP phases are reported by the threads of the HTTP client
+    private static class RequestStats {
+
+        private final SapUMEMetrics.OperationMetrics operationMetrics;
+        private final String operation;
+        private final String objectClass;
+        private final SapUMEOperationTrace trace;
+        private final boolean ownTrace;
+        private final long slowThreshold;
+        private final long start;
+        private long serializedAt;
+        private long responseAt;
+        private long parsedAt;
+        private long handlerNanos;
+        private final SapUMEJfrEvents.SerializeEvent serializeEvent = new SapUMEJfrEvents.SerializeEvent();
+        private SapUMEJfrEvents.HttpWriteEvent httpWriteEvent;
+        private SapUMEJfrEvents.TimeToFirstByteEvent timeToFirstByteEvent;
+        private SapUMEJfrEvents.ParseEvent parseEvent;
+        private long requestBytes;
+        private long responseBytes;
+        private long resultEntries;
+        // the handler returned false, the rest of the response is not read
+        private boolean stopped;
+
+        RequestStats(SpmlRequest spmlRequest, String operation, SapUMEMetrics.OperationMetrics operationMetrics,
+                     SapUMEOperationTrace trace, long slowThreshold) {
+            this.operationMetrics = operationMetrics;
+            this.operation = operation;
+            this.objectClass = getObjectClass(spmlRequest);
+            this.ownTrace = trace == null && slowThreshold > 0;
+            this.trace = ownTrace ? new SapUMEOperationTrace(operation) : trace;
+            this.slowThreshold = slowThreshold;
+            this.start = operationMetrics != null ? operationMetrics.begin() : System.nanoTime();
+            this.serializeEvent.begin();
+        }
+
+        void serialized(long requestBytes) {
+            this.requestBytes = requestBytes;
+            this.serializedAt = System.nanoTime();
+            SapUMEJfrEvents.commit(serializeEvent, operation, objectClass, 0, requestBytes);
+        }
+
+        // every attempt of the request is a new HTTP write
+        synchronized void sending() {
+            httpWriteEvent = new SapUMEJfrEvents.HttpWriteEvent();
+            httpWriteEvent.begin();
+            timeToFirstByteEvent = null;
+        }
+
+        synchronized void written() {
+            if (httpWriteEvent != null) {
+                SapUMEJfrEvents.commit(httpWriteEvent, operation, objectClass, 0, requestBytes);
+                httpWriteEvent = null;
+            }
+            timeToFirstByteEvent = new SapUMEJfrEvents.TimeToFirstByteEvent();
+            timeToFirstByteEvent.begin();
+        }
+
+        synchronized void responseReceived() {
+            responseAt = System.nanoTime();
+            if (timeToFirstByteEvent != null) {
+                SapUMEJfrEvents.commit(timeToFirstByteEvent, operation, objectClass, 0, 0);
+                timeToFirstByteEvent = null;
+            }
+            parseEvent = new SapUMEJfrEvents.ParseEvent();
+            parseEvent.begin();
+        }
+
+        synchronized void parsed() {
+            parsedAt = System.nanoTime();
+            if (parseEvent != null) {
+                SapUMEJfrEvents.commit(parseEvent, operation, objectClass, resultEntries, responseBytes);
+                parseEvent = null;
+            }
+        }
+
+        synchronized void end(Throwable error) {
+            if (operationMetrics != null) {
+                operationMetrics.end(start, requestBytes, responseBytes, resultEntries, error);
+            }
+            if (trace == null) {
+                return;
+            }
+            // phases not reached because of a failure are left out
+            long serialize = serializedAt > 0 ? serializedAt - start : 0;
+            long network = serializedAt > 0 && responseAt > 0 ? responseAt - serializedAt : 0;
+            long parse = responseAt > 0 && parsedAt > 0 ? Math.max(0, parsedAt - responseAt - handlerNanos) : 0;
+            trace.addRequest(serialize, network, parse, responseBytes, resultEntries);
+            if (ownTrace) {
+                trace.addHandler(handlerNanos);
+                trace.logIfSlow(slowThreshold, "objectClass=" + objectClass + (error != null ? " error=" + error.getClass().getSimpleName() : ""));
             }
-            return newModifyReq;
-        } else {
-            return modifyRequest;
         }
     }
 
-    private static AddRequest removePasswordElementFromAddRequest(AddRequest addRequest) {
-        AddRequest newAddReq = new AddRequest();
-        if (!(addRequest == null || addRequest.getAttributes() == null)) {
-            Iterator adds = addRequest.getAttributes().iterator();
-            while (adds.hasNext()) {
-                org.openspml.message.Attribute add = (org.openspml.message.Attribute) adds.next();
-                String addName = add.getName();
-                Object addValue = add.getValue();
-                if ((addName.equals(SapUMESchema.ATTRIBUTE_PASSWORD) || addName.equals(SapUMESchema.ATTRIBUTE_OLDPASSWORD) || (addName.equals(OperationalAttributes.PASSWORD_NAME)))) {
-                    addValue = HIDDEN_PASSWORD;
+    // reports when the whole request body was handed over to the connection
+    private static class ObservedBodyPublisher implements HttpRequest.BodyPublisher {
+
+        private final HttpRequest.BodyPublisher bodyPublisher;
+        private final Runnable onComplete;
+
+        ObservedBodyPublisher(HttpRequest.BodyPublisher bodyPublisher, Runnable onComplete) {
+            this.bodyPublisher = bodyPublisher;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public long contentLength() {
+            return bodyPublisher.contentLength();
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            bodyPublisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscriber.onSubscribe(subscription);
                 }
-                newAddReq.setAttribute(addName, addValue);
-            }
-            return newAddReq;
-        } else {
-            return addRequest;
+
+                @Override
+                public void onNext(ByteBuffer item) {
+                    subscriber.onNext(item);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    subscriber.onError(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    onComplete.run();
+                    subscriber.onComplete();
+                }
+            });
         }
     }
-}
\ No newline at end of file
+}
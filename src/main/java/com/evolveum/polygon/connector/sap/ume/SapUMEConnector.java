@@ -19,6 +19,7 @@ package com.evolveum.polygon.connector.sap.ume;
 import com.evolveum.polygon.connector.sap.ume.operation.SapUMECreate;
 import com.evolveum.polygon.connector.sap.ume.operation.SapUMEDelete;
 import com.evolveum.polygon.connector.sap.ume.operation.SapUMEQuery;
+import com.evolveum.polygon.connector.sap.ume.operation.SapUMESync;
 import com.evolveum.polygon.connector.sap.ume.operation.SapUMEUpdate;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.exceptions.ConnectionFailedException;
@@ -40,7 +41,7 @@ import java.util.Set;
  */
 
 @ConnectorClass(displayNameKey = "sap-ume.connector.display", configurationClass = SapUMEConfiguration.class)
-public class SapUMEConnector implements Connector, TestOp, SchemaOp, SearchOp<Filter>, UpdateOp, CreateOp, DeleteOp, PoolableConnector {
+public class SapUMEConnector implements Connector, TestOp, SchemaOp, SearchOp<Filter>, UpdateOp, CreateOp, DeleteOp, SyncOp, PoolableConnector {
 
     private static final Log LOG = Log.getLog(SapUMEConnector.class);
 
@@ -122,6 +123,23 @@ public class SapUMEConnector implements Connector, TestOp, SchemaOp, SearchOp<Fi
         delete = null;
     }
 
+    @Override
+    public void sync(ObjectClass objectClass, SyncToken syncToken, SyncResultsHandler syncResultsHandler, OperationOptions operationOptions) {
+        SapUMESync sync = new SapUMESync(this.configuration, this.connection);
+        sync.sync(new SapUMEObjectClass(objectClass), syncToken, syncResultsHandler, operationOptions);
+        sync.dispose();
+        sync = null;
+    }
+
+    @Override
+    public SyncToken getLatestSyncToken(ObjectClass objectClass) {
+        SapUMESync sync = new SapUMESync(this.configuration, this.connection);
+        SyncToken retToken = sync.getLatestSyncToken(new SapUMEObjectClass(objectClass));
+        sync.dispose();
+        sync = null;
+        return retToken;
+    }
+
     @Override
     public void checkAlive() {
         if (this.connection == null) {
@@ -18,8 +18,9 @@ public class SapUMEDateHelper {
 
     private static final Log LOG = Log.getLog(SapUMEDateHelper.class);
 
-    private static final SimpleDateFormat umeFormat = new SimpleDateFormat("yyyyMMddHHmmss'Z'");
-    private static final SimpleDateFormat confFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    // SimpleDateFormat is not thread safe, search results can be mapped in more threads
+    private static final ThreadLocal<SimpleDateFormat> umeFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyyMMddHHmmss'Z'"));
+    private static final ThreadLocal<SimpleDateFormat> confFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"));
 
     public static final String CURRENT_VALID_TIME = "<CURRENT_TIME>";
 
@@ -40,16 +41,16 @@ public class SapUMEDateHelper {
 
     public static String convertDateToUmeString(Date date, SapUMEConfiguration conf) {
         long offset = getOffset(date);
-        return umeFormat.format(new Date(date.getTime()-offset));
+        return umeFormat.get().format(new Date(date.getTime()-offset));
     }
 
     public static Date convertUmeStringToDate(String ume, SapUMEConfiguration conf)  {
         Date date = null;
         try {
             if (ume.length() == 15) {
-                date = umeFormat.parse(ume);
+                date = umeFormat.get().parse(ume);
             } else {
-                String patern = umeFormat.toPattern();
+                String patern = umeFormat.get().toPattern();
                 if (ume.length() > 15) {
                     String add = "";
                     for(int f=0;f<ume.length()-15;f++) {
@@ -78,7 +79,7 @@ public class SapUMEDateHelper {
 
     public static Date convertConfStringToDate(String ume)  {
         try {
-            return confFormat.parse(ume);
+            return confFormat.get().parse(ume);
         } catch (ParseException e) {
             throw new ConnectorException("Error in parsing conf time : value="+ume, e);
         }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.identityconnectors.common.logging.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Worker threads of one connector configuration (URL and user), shared by all its connector instances and shut down
+// when the last of them was disposed. The partitioned full search runs its partitions in a pool of fullSearchParallelism
+// threads, so all searches of the configuration together never run more requests, and the search results of all queries
+// are mapped in a pool of mappingThreads threads. The pools are created when they are used for the first time, idle threads
+// end after a minute.
+
+public class SapUMEExecutors {
+
+    private static final Log LOG = Log.getLog(SapUMEExecutors.class);
+    private static final Map<String, SapUMEExecutors> REGISTRY = new HashMap<>();
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final String key;
+    private final int searchThreads;
+    private final int mappingThreads;
+    // guarded by REGISTRY
+    private int references;
+    private ThreadPoolExecutor searchExecutor;
+    private ThreadPoolExecutor mappingExecutor;
+
+    private SapUMEExecutors(String key, SapUMEConfiguration configuration) {
+        this.key = key;
+        this.searchThreads = Math.max(1, configuration.getFullSearchParallelism() == null ? 1 : configuration.getFullSearchParallelism());
+        this.mappingThreads = Math.max(1, configuration.getMappingThreads() == null ? 1 : configuration.getMappingThreads());
+    }
+
+    // the pool sizes of the first configuration are used
+    public static SapUMEExecutors acquire(SapUMEConfiguration configuration) {
+        String key = configuration.getURL() + "\n" + configuration.getUser();
+        synchronized (REGISTRY) {
+            SapUMEExecutors executors = REGISTRY.computeIfAbsent(key, k -> new SapUMEExecutors(k, configuration));
+            executors.references++;
+            return executors;
+        }
+    }
+
+    // the threads are stopped when the last connector instance of the configuration was disposed
+    public void release() {
+        synchronized (REGISTRY) {
+            if (--references > 0) {
+                return;
+            }
+            REGISTRY.remove(key);
+            if (searchExecutor != null) {
+                searchExecutor.shutdownNow();
+                searchExecutor = null;
+            }
+            if (mappingExecutor != null) {
+                mappingExecutor.shutdownNow();
+                mappingExecutor = null;
+            }
+            LOG.ok("Executors of {0} shut down", key.replace('\n', ' '));
+        }
+    }
+
+    public ExecutorService getSearchExecutor() {
+        synchronized (REGISTRY) {
+            if (references <= 0) {
+                throw new IllegalStateException("Executors already released");
+            }
+            if (searchExecutor == null) {
+                searchExecutor = createExecutor(searchThreads, "sap-ume-search-");
+            }
+            return searchExecutor;
+        }
+    }
+
+    public int getSearchThreads() {
+        return searchThreads;
+    }
+
+    public ExecutorService getMappingExecutor() {
+        synchronized (REGISTRY) {
+            if (references <= 0) {
+                throw new IllegalStateException("Executors already released");
+            }
+            if (mappingExecutor == null) {
+                mappingExecutor = createExecutor(mappingThreads, "sap-ume-map-");
+            }
+            return mappingExecutor;
+        }
+    }
+
+    public int getMappingThreads() {
+        return mappingThreads;
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threads, String namePrefix) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, namePrefix + THREAD_COUNTER.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
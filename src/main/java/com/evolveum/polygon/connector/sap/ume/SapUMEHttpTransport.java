@@ -0,0 +1,564 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.HttpCookie;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Long-lived HTTP transport of one SapUMEConnection. The underlying HttpClient keeps the TCP (and TLS) connections
+// open between SPML calls, the number of parallel exchanges (and so the size of the pool) is bounded by maxConnections
+// and the whole pool is dropped when it was not used for connectionIdleTimeout, so a connection already closed
+// by the server is never reused. Requests are sent asynchronously, a synchronous caller waits only for the response headers
+// and reads the body stream itself, an asynchronous caller gets the whole body when it was received.
+// Compressed response bodies (Content-Encoding gzip or deflate) are decompressed by openBody while they are read,
+// the bytes received and the bytes after decompression are counted for all responses of the transport.
+// With reuseSession the cookies set by the server are kept for the lifetime of the transport, also over pool evictions.
+// The read timeout of the HttpRequest covers only the wait for the response headers, so the body reads are watched too:
+// a read of the streamed body blocked for readTimeout, or a buffered body receiving no data for readTimeout, fails
+// with SocketTimeoutException and the connection is closed, like the read timeout of HttpURLConnection did.
+
+public class SapUMEHttpTransport {
+
+    private static final Log LOG = Log.getLog(SapUMEHttpTransport.class);
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    // unread rest of a response up to this size is skipped on close, so the connection can be reused
+    private static final long MAX_DRAIN_BYTES = 64 * 1024;
+    private static final String COOKIE_SESSION = "JSESSIONID";
+    private static final String COOKIE_LOGON_TICKET = "MYSAPSSO2";
+
+    private final int maxConnections;
+    private final long idleTimeout;
+    private final Duration connectTimeout;
+    private final long readTimeout;
+    private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private final CookieManager cookieManager;
+    private final AtomicLong responseWireBytes = new AtomicLong();
+    private final AtomicLong responseRawBytes = new AtomicLong();
+
+    private HttpClient client;
+    private ExecutorService executor;
+    private ScheduledExecutorService watchdog;
+    private long lastUsed;
+    private boolean closed;
+    private int available;
+
+    public SapUMEHttpTransport(SapUMEConfiguration configuration) {
+        Integer maxConnections = configuration.getMaxConnections();
+        Integer idleTimeout = configuration.getConnectionIdleTimeout();
+        Integer connectTimeout = configuration.getConnectTimeout();
+        Integer readTimeout = configuration.getReadTimeout();
+        this.maxConnections = maxConnections == null || maxConnections < 1 ? 1 : maxConnections;
+        this.idleTimeout = idleTimeout == null ? 0 : idleTimeout;
+        this.connectTimeout = connectTimeout == null || connectTimeout <= 0 ? null : Duration.ofMillis(connectTimeout);
+        this.readTimeout = readTimeout == null || readTimeout <= 0 ? 0 : readTimeout;
+        this.available = this.maxConnections;
+        this.cookieManager = Boolean.TRUE.equals(configuration.getReuseSession()) ? new CookieManager(null, CookiePolicy.ACCEPT_ORIGINAL_SERVER) : null;
+    }
+
+    // the response completes when its headers arrived, the connection is kept until the body stream is closed
+    public CompletableFuture<HttpResponse<InputStream>> sendAsync(HttpRequest request) {
+        AtomicBoolean released = new AtomicBoolean(false);
+        HttpResponse.BodyHandler<InputStream> bodyHandler = responseInfo -> HttpResponse.BodySubscribers.mapping(
+                HttpResponse.BodySubscribers.ofInputStream(), in -> new ReleasingInputStream(in, released, getWatchdog()));
+        return acquire()
+                .thenCompose(permit -> getClient().sendAsync(request, bodyHandler))
+                .whenComplete((response, throwable) -> {
+                    if (throwable != null) {
+                        release(released);
+                    }
+                });
+    }
+
+    // the response completes when the whole body was received, the connection is free again at that moment
+    public CompletableFuture<HttpResponse<byte[]>> sendBufferedAsync(HttpRequest request) {
+        AtomicBoolean released = new AtomicBoolean(false);
+        HttpResponse.BodyHandler<byte[]> bodyHandler = responseInfo -> new IdleTimeoutSubscriber<>(
+                HttpResponse.BodySubscribers.ofByteArray(), getWatchdog());
+        return acquire()
+                .thenCompose(permit -> getClient().sendAsync(request, bodyHandler))
+                .whenComplete((response, throwable) -> release(released));
+    }
+
+    // response body to read, decompressed when the server sent it compressed, closing it returns the connection to the pool
+    public ResponseInputStream openBody(HttpResponse<?> response, InputStream body) throws IOException {
+        CountingInputStream wire = new CountingInputStream(body, responseWireBytes);
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("identity").trim().toLowerCase();
+        try {
+            InputStream decoded;
+            if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+                decoded = new GZIPInputStream(wire, 8192);
+            } else if ("deflate".equals(encoding)) {
+                decoded = openDeflate(wire);
+            } else if ("identity".equals(encoding) || encoding.isEmpty()) {
+                decoded = wire;
+            } else {
+                throw new IOException("Unsupported response Content-Encoding " + encoding);
+            }
+            return new ResponseInputStream(decoded, wire, encoding);
+        } catch (IOException | RuntimeException exception) {
+            wire.close();
+            throw exception;
+        }
+    }
+
+    // true when the server issued a session cookie or logon ticket which is sent with the next request to the uri
+    public boolean hasSession(URI uri) {
+        if (cookieManager == null) {
+            return false;
+        }
+        for (HttpCookie cookie : cookieManager.getCookieStore().get(uri)) {
+            if (COOKIE_SESSION.equalsIgnoreCase(cookie.getName()) || COOKIE_LOGON_TICKET.equalsIgnoreCase(cookie.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void clearSession() {
+        if (cookieManager != null) {
+            cookieManager.getCookieStore().removeAll();
+        }
+    }
+
+    public long getResponseWireBytes() {
+        return responseWireBytes.get();
+    }
+
+    public long getResponseRawBytes() {
+        return responseRawBytes.get();
+    }
+
+    public synchronized void close() {
+        LOG.info("Close start");
+        LOG.info("Received {0} response bytes, {1} bytes before decompression", responseRawBytes.get(), responseWireBytes.get());
+        closed = true;
+        dropClient();
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+            watchdog = null;
+        }
+        LOG.info("Close finished");
+    }
+
+    // checks the body reads, null without read timeout
+    private synchronized ScheduledExecutorService getWatchdog() {
+        if (readTimeout <= 0 || closed) {
+            return null;
+        }
+        if (watchdog == null) {
+            watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "sap-ume-read-timeout-" + THREAD_COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return watchdog;
+    }
+
+    // the reads are checked four times per read timeout, so a stalled read fails after at most 1.25 read timeouts
+    private ScheduledFuture<?> watch(ScheduledExecutorService watchdog, Runnable check) {
+        long period = Math.max(1, readTimeout / 4);
+        return watchdog.scheduleWithFixedDelay(check, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized HttpClient getClient() {
+        if (closed) {
+            throw new ConnectorIOException("HTTP transport is already closed");
+        }
+        long now = System.currentTimeMillis();
+        // all permits but ours are free, so no exchange uses the pooled connections at the moment
+        if (client != null && idleTimeout > 0 && now - lastUsed > idleTimeout && available == maxConnections - 1) {
+            LOG.ok("HTTP connection pool idle for {0} ms, evicting", now - lastUsed);
+            dropClient();
+        }
+        if (client == null) {
+            executor = Executors.newCachedThreadPool(createThreadFactory());
+            HttpClient.Builder builder = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .followRedirects(HttpClient.Redirect.NEVER)
+                    .executor(executor);
+            if (connectTimeout != null) {
+                builder.connectTimeout(connectTimeout);
+            }
+            if (cookieManager != null) {
+                builder.cookieHandler(cookieManager);
+            }
+            client = builder.build();
+        }
+        lastUsed = now;
+        return client;
+    }
+
+    private void dropClient() {
+        // HttpClient closes its idle connections once it is not referenced any more
+        client = null;
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    // permits are granted in FIFO order without blocking the caller, so the same pool serves synchronous and asynchronous requests
+    private CompletableFuture<Void> acquire() {
+        synchronized (this) {
+            if (available > 0 && waiters.isEmpty()) {
+                available--;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+    }
+
+    private void release(AtomicBoolean released) {
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+        while (true) {
+            CompletableFuture<Void> waiter;
+            synchronized (this) {
+                lastUsed = System.currentTimeMillis();
+                waiter = waiters.poll();
+                if (waiter == null) {
+                    available++;
+                    return;
+                }
+            }
+            // outside of the lock, the waiting request continues in this thread
+            if (waiter.complete(null)) {
+                return;
+            }
+        }
+    }
+
+    // "deflate" should be zlib wrapped, but some servers send raw deflate data, the zlib header tells them apart
+    private static InputStream openDeflate(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        int first = pushback.read();
+        int second = first < 0 ? -1 : pushback.read();
+        if (second >= 0) {
+            pushback.unread(second);
+        }
+        if (first >= 0) {
+            pushback.unread(first);
+        }
+        boolean zlib = first >= 0 && second >= 0 && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+        return new InflaterInputStream(pushback, new Inflater(!zlib), 8192);
+    }
+
+    private static ThreadFactory createThreadFactory() {
+        return runnable -> {
+            Thread thread = new Thread(runnable, "sap-ume-http-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // gives the pool permit back when the response body was read and closed, the connection returns to the pool then;
+    // a read blocked for the read timeout is ended by closing the stream from the watchdog thread
+    private class ReleasingInputStream extends FilterInputStream {
+
+        private final AtomicBoolean released;
+        private final ScheduledFuture<?> check;
+        // start of the blocked read, zero when no read is in progress
+        private volatile long readingSince;
+        private volatile boolean timedOut;
+
+        ReleasingInputStream(InputStream in, AtomicBoolean released, ScheduledExecutorService watchdog) {
+            super(in);
+            this.released = released;
+            this.check = watchdog == null ? null : watch(watchdog, this::checkRead);
+        }
+
+        @Override
+        public int read() throws IOException {
+            begin();
+            try {
+                return checkResult(super.read());
+            } catch (IOException exception) {
+                throw timedOut ? createTimeoutException() : exception;
+            } finally {
+                readingSince = 0;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            begin();
+            try {
+                return checkResult(super.read(b, off, len));
+            } catch (IOException exception) {
+                throw timedOut ? createTimeoutException() : exception;
+            } finally {
+                readingSince = 0;
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            begin();
+            try {
+                return super.skip(n);
+            } catch (IOException exception) {
+                throw timedOut ? createTimeoutException() : exception;
+            } finally {
+                readingSince = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (check != null) {
+                check.cancel(false);
+            }
+            try {
+                super.close();
+            } finally {
+                release(released);
+            }
+        }
+
+        private void begin() throws SocketTimeoutException {
+            if (timedOut) {
+                throw createTimeoutException();
+            }
+            readingSince = System.nanoTime();
+        }
+
+        // the closed stream ends the read as if the body ended
+        private int checkResult(int result) throws SocketTimeoutException {
+            if (result < 0 && timedOut) {
+                throw createTimeoutException();
+            }
+            return result;
+        }
+
+        private void checkRead() {
+            long since = readingSince;
+            if (since != 0 && System.nanoTime() - since >= TimeUnit.MILLISECONDS.toNanos(readTimeout) && !timedOut) {
+                LOG.warn("No response data received for {0} ms, closing the connection", readTimeout);
+                timedOut = true;
+                check.cancel(false);
+                try {
+                    in.close();
+                } catch (IOException exception) {
+                    LOG.ok("Response body not closed: {0}", exception.getMessage());
+                }
+            }
+        }
+
+        private SocketTimeoutException createTimeoutException() {
+            return new SocketTimeoutException("Read timed out, no response data received for " + readTimeout + " ms");
+        }
+    }
+
+    // body of an asynchronous response, fails when no data arrives for the read timeout; all data is requested at once,
+    // so a pause always means that the server or the network stalls
+    private class IdleTimeoutSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+
+        private final HttpResponse.BodySubscriber<T> delegate;
+        private final ScheduledExecutorService watchdog;
+        private final CompletableFuture<T> body = new CompletableFuture<>();
+        private volatile long lastReceived = System.nanoTime();
+        private volatile Flow.Subscription subscription;
+        private ScheduledFuture<?> check;
+
+        IdleTimeoutSubscriber(HttpResponse.BodySubscriber<T> delegate, ScheduledExecutorService watchdog) {
+            this.delegate = delegate;
+            this.watchdog = watchdog;
+            delegate.getBody().whenComplete((value, throwable) -> {
+                if (throwable != null) {
+                    body.completeExceptionally(throwable);
+                } else {
+                    body.complete(value);
+                }
+            });
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return body;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            lastReceived = System.nanoTime();
+            if (watchdog != null) {
+                check = watch(watchdog, this::checkIdle);
+            }
+            delegate.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            lastReceived = System.nanoTime();
+            delegate.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            stopCheck();
+            delegate.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            stopCheck();
+            delegate.onComplete();
+        }
+
+        private void stopCheck() {
+            if (check != null) {
+                check.cancel(false);
+            }
+        }
+
+        private void checkIdle() {
+            if (System.nanoTime() - lastReceived >= TimeUnit.MILLISECONDS.toNanos(readTimeout) && !body.isDone()) {
+                LOG.warn("No response data received for {0} ms, closing the connection", readTimeout);
+                stopCheck();
+                subscription.cancel();
+                body.completeExceptionally(new SocketTimeoutException("Read timed out, no response data received for "
+                        + readTimeout + " ms"));
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final AtomicLong total;
+        private long count;
+
+        CountingInputStream(InputStream in, AtomicLong total) {
+            super(in);
+            this.total = total;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                count(skipped);
+            }
+            return skipped;
+        }
+
+        private void count(long n) {
+            count += n;
+            total.addAndGet(n);
+        }
+    }
+
+    public class ResponseInputStream extends CountingInputStream {
+
+        private final CountingInputStream wire;
+        private final String encoding;
+        private boolean aborted;
+
+        ResponseInputStream(InputStream in, CountingInputStream wire, String encoding) {
+            super(in, responseRawBytes);
+            this.wire = wire;
+            this.encoding = encoding;
+        }
+
+        // the rest of the body is not drained on close, the connection is closed instead of reading a large response
+        // nobody waits for
+        public void abort() {
+            aborted = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (aborted) {
+                LOG.ok("Response body aborted after {0} bytes, {1} bytes received with encoding {2}", super.count, wire.count, encoding);
+                super.close();
+                return;
+            }
+            try {
+                // the parser stops at the end of the SPML response, the rest of the envelope (and a compression
+                // trailer) is still unread, a body closed before its end would close the connection as well
+                long drained = 0;
+                long skipped;
+                while (drained < MAX_DRAIN_BYTES && (skipped = wire.skip(MAX_DRAIN_BYTES - drained)) > 0) {
+                    drained += skipped;
+                }
+            } catch (IOException exception) {
+                LOG.ok("Response body not drained: {0}", exception.getMessage());
+            }
+            LOG.ok("Response body {0} bytes, {1} bytes received with encoding {2}", super.count, wire.count, encoding);
+            super.close();
+        }
+
+        // bytes of this response received so far, before decompression
+        public long getReceivedBytes() {
+            return wire.count;
+        }
+    }
+}
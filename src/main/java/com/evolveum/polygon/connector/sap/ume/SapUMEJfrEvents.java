@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.polygon.connector.sap.ume;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// JDK Flight Recorder events of the phases of an SPML exchange: serialization of the request, HTTP write (until the body
+// was handed to the connection), time to the first byte of the response, parsing of the response and mapping of the
+// search result entries to ConnectorObjects. The events are in the category Evolveum / SAP UME Connector, a recording
+// without them enabled pays only for the allocation and the enabled check of the event object.
+// In a streamed search the mapping events of the entries are nested in the parse event of the response.
+
+public final class SapUMEJfrEvents {
+
+    private static final String CATEGORY_VENDOR = "Evolveum";
+    private static final String CATEGORY_CONNECTOR = "SAP UME Connector";
+
+    private SapUMEJfrEvents() {
+    }
+
+    @StackTrace(false)
+    abstract static class SpmlEvent extends Event {
+
+        @Label("Operation")
+        @Description("Connector operation, e.g. QUERY or UPDATE")
+        String operation;
+
+        @Label("Object Class")
+        @Description("SPML object class, e.g. sapuser")
+        String objectClass;
+
+        @Label("Result Count")
+        long resultCount;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("com.evolveum.polygon.connector.sap.ume.Serialize")
+    @Label("SPML Request Serialization")
+    @Category({CATEGORY_VENDOR, CATEGORY_CONNECTOR})
+    public static class SerializeEvent extends SpmlEvent {
+    }
+
+    @Name("com.evolveum.polygon.connector.sap.ume.HttpWrite")
+    @Label("SPML HTTP Write")
+    @Category({CATEGORY_VENDOR, CATEGORY_CONNECTOR})
+    public static class HttpWriteEvent extends SpmlEvent {
+    }
+
+    @Name("com.evolveum.polygon.connector.sap.ume.TimeToFirstByte")
+    @Label("SPML Time To First Byte")
+    @Category({CATEGORY_VENDOR, CATEGORY_CONNECTOR})
+    public static class TimeToFirstByteEvent extends SpmlEvent {
+    }
+
+    @Name("com.evolveum.polygon.connector.sap.ume.Parse")
+    @Label("SPML Response Parse")
+    @Category({CATEGORY_VENDOR, CATEGORY_CONNECTOR})
+    public static class ParseEvent extends SpmlEvent {
+    }
+
+    @Name("com.evolveum.polygon.connector.sap.ume.Mapping")
+    @Label("ConnectorObject Mapping")
+    @Category({CATEGORY_VENDOR, CATEGORY_CONNECTOR})
+    public static class MappingEvent extends SpmlEvent {
+    }
+
+    // ends the event and commits it with the values when it is enabled and over its threshold
+    public static void commit(Event event, String operation, String objectClass, long resultCount, long bytes) {
+        event.end();
+        if (event.shouldCommit()) {
+            SpmlEvent spmlEvent = (SpmlEvent) event;
+            spmlEvent.operation = operation;
+            spmlEvent.objectClass = objectClass;
+            spmlEvent.resultCount = resultCount;
+            spmlEvent.bytes = bytes;
+            spmlEvent.commit();
+        }
+    }
+}
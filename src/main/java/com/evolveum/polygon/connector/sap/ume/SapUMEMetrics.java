@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.identityconnectors.common.logging.Log;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// JMX statistics of one connector configuration (URL and user), shared by all its connector instances and registered
+// in the platform MBean server while at least one of them is alive. Every operation type has its own MBean named
+// com.evolveum.polygon.connector.sap.ume:type=SapUMEMetrics,url=...,user=...,operation=...
+// Latencies are counted in a histogram with logarithmic buckets (about 19 % wide), so percentiles are approximate
+// and recording is only a few atomic increments.
+
+public class SapUMEMetrics {
+
+    private static final Log LOG = Log.getLog(SapUMEMetrics.class);
+    private static final String DOMAIN = "com.evolveum.polygon.connector.sap.ume";
+    private static final Map<String, SapUMEMetrics> REGISTRY = new HashMap<>();
+
+    private final String key;
+    private final String url;
+    private final String user;
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    // guarded by REGISTRY
+    private int references;
+
+    private SapUMEMetrics(String key, String url, String user) {
+        this.key = key;
+        this.url = url;
+        this.user = user;
+    }
+
+    public static SapUMEMetrics acquire(SapUMEConfiguration configuration) {
+        String url = String.valueOf(configuration.getURL());
+        String user = String.valueOf(configuration.getUser());
+        String key = url + "\n" + user;
+        synchronized (REGISTRY) {
+            SapUMEMetrics metrics = REGISTRY.computeIfAbsent(key, k -> new SapUMEMetrics(k, url, user));
+            metrics.references++;
+            return metrics;
+        }
+    }
+
+    // the MBeans are unregistered when the last connector instance of the configuration was disposed
+    public void release() {
+        synchronized (REGISTRY) {
+            if (--references > 0) {
+                return;
+            }
+            REGISTRY.remove(key);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (OperationMetrics operationMetrics : operations.values()) {
+                try {
+                    server.unregisterMBean(operationMetrics.name);
+                } catch (JMException exception) {
+                    LOG.warn("Metrics MBean {0} not unregistered: {1}", operationMetrics.name, exception);
+                }
+            }
+            operations.clear();
+        }
+    }
+
+    public OperationMetrics forOperation(String operation) {
+        OperationMetrics operationMetrics = operations.get(operation);
+        if (operationMetrics != null) {
+            return operationMetrics;
+        }
+        synchronized (REGISTRY) {
+            return operations.computeIfAbsent(operation, this::register);
+        }
+    }
+
+    private OperationMetrics register(String operation) {
+        OperationMetrics operationMetrics = null;
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=SapUMEMetrics,url=" + ObjectName.quote(url)
+                    + ",user=" + ObjectName.quote(user) + ",operation=" + ObjectName.quote(operation));
+            operationMetrics = new OperationMetrics(name);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                // left over by a class loader of an older connector version
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(operationMetrics, name);
+        } catch (JMException exception) {
+            // the statistics are still counted, they are only not visible
+            LOG.warn("Metrics MBean for operation {0} not registered: {1}", operation, exception);
+        }
+        return operationMetrics != null ? operationMetrics : new OperationMetrics(null);
+    }
+
+    public static class OperationMetrics implements SapUMEOperationMetricsMXBean {
+
+        // upper bound of bucket i is 2^(i/4) ms, the last bucket takes everything above 2^(98/4) ms (about 6 hours)
+        private static final int BUCKETS = 100;
+        private static final double BUCKETS_PER_OCTAVE = 4;
+
+        private final ObjectName name;
+        private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+        private final AtomicLong requestCount = new AtomicLong();
+        private final AtomicLong errorCount = new AtomicLong();
+        private final ConcurrentMap<String, AtomicLong> errorsByType = new ConcurrentHashMap<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong latencyMax = new AtomicLong();
+        private final AtomicLong requestBytes = new AtomicLong();
+        private final AtomicLong responseBytes = new AtomicLong();
+        private final AtomicLong resultEntries = new AtomicLong();
+
+        private OperationMetrics(ObjectName name) {
+            this.name = name;
+        }
+
+        // returns the start time of the request to be passed to end
+        public long begin() {
+            inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        public void end(long start, long requestBytes, long responseBytes, long resultEntries, Throwable error) {
+            inFlight.decrementAndGet();
+            record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), requestBytes, responseBytes, resultEntries, error);
+        }
+
+        void record(long latency, long requestBytes, long responseBytes, long resultEntries, Throwable error) {
+            requestCount.incrementAndGet();
+            latencies.incrementAndGet(bucket(latency));
+            latencyMax.accumulateAndGet(latency, Math::max);
+            this.requestBytes.addAndGet(requestBytes);
+            this.responseBytes.addAndGet(responseBytes);
+            this.resultEntries.addAndGet(resultEntries);
+            if (error != null) {
+                errorCount.incrementAndGet();
+                errorsByType.computeIfAbsent(error.getClass().getSimpleName(), type -> new AtomicLong()).incrementAndGet();
+            }
+        }
+
+        @Override
+        public long getRequestCount() {
+            return requestCount.get();
+        }
+
+        @Override
+        public long getErrorCount() {
+            return errorCount.get();
+        }
+
+        @Override
+        public Map<String, Long> getErrorsByType() {
+            Map<String, Long> errors = new TreeMap<>();
+            errorsByType.forEach((type, count) -> errors.put(type, count.get()));
+            return errors;
+        }
+
+        @Override
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        @Override
+        public long getLatencyP50() {
+            return getPercentile(0.50);
+        }
+
+        @Override
+        public long getLatencyP95() {
+            return getPercentile(0.95);
+        }
+
+        @Override
+        public long getLatencyP99() {
+            return getPercentile(0.99);
+        }
+
+        @Override
+        public long getLatencyMax() {
+            return latencyMax.get();
+        }
+
+        @Override
+        public long getRequestBytes() {
+            return requestBytes.get();
+        }
+
+        @Override
+        public long getResponseBytes() {
+            return responseBytes.get();
+        }
+
+        @Override
+        public long getResultEntries() {
+            return resultEntries.get();
+        }
+
+        // requests running at the moment are not affected, their end is counted
+        @Override
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                latencies.set(i, 0);
+            }
+            requestCount.set(0);
+            errorCount.set(0);
+            errorsByType.clear();
+            latencyMax.set(0);
+            requestBytes.set(0);
+            responseBytes.set(0);
+            resultEntries.set(0);
+        }
+
+        // upper bound of the bucket with the percentile, never more than the maximum seen
+        private long getPercentile(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = latencies.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(latencyMax.get(), (long) Math.ceil(Math.pow(2, i / BUCKETS_PER_OCTAVE)));
+                }
+            }
+            return latencyMax.get();
+        }
+
+        private static int bucket(long latency) {
+            if (latency <= 1) {
+                return 0;
+            }
+            int bucket = (int) Math.ceil(BUCKETS_PER_OCTAVE * Math.log(latency) / Math.log(2));
+            return Math.min(bucket, BUCKETS - 1);
+        }
+    }
+}
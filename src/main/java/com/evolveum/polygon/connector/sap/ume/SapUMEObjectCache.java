@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cache of found ConnectorObjects of one connector configuration (URL and user), shared by all its connector instances
+// while at least one of them is alive. The objects are kept by object class, identifier (ignoring case like UME does) and
+// the list of mapped attributes, for the timeout of their object class, and the least recently used identifiers are removed
+// when the cache has more than maxObjects objects or more than maxBytes estimated bytes. Every write through the connector
+// removes the object, a write changing memberships removes the objects of the other object classes too (their member and
+// assignment attributes change with it). Objects of a query running during a write are not put into the cache, the query may
+// have read the old values.
+// Lookups by identifier or name which found nothing are remembered for negativeTimeout as missing values (at most maxObjects
+// of them, least recently used first), a create or a rename through the connector forgets the missing values of its object
+// class, the new object may have any of them. With jmxMetrics the statistics are registered as MBean
+// com.evolveum.polygon.connector.sap.ume:type=SapUMEObjectCache,url=...,user=...
+
+public class SapUMEObjectCache implements SapUMEObjectCacheMXBean {
+
+    private static final Log LOG = Log.getLog(SapUMEObjectCache.class);
+    private static final String DOMAIN = "com.evolveum.polygon.connector.sap.ume";
+    private static final Map<String, SapUMEObjectCache> REGISTRY = new HashMap<>();
+    // rough JVM overhead of an object, an attribute and a value
+    private static final int OBJECT_BYTES = 200;
+    private static final int ATTRIBUTE_BYTES = 100;
+    private static final int VALUE_BYTES = 40;
+
+    private final String key;
+    private final Map<String, Long> timeouts = new HashMap<>();
+    private final int maxObjects;
+    private final long maxBytes;
+    private final long negativeTimeout;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // expiration time by object class, attribute and lower case value
+    private final LinkedHashMap<String, Long> missing = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong missingHits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    // guarded by this
+    private int objects;
+    private long bytes;
+    // guarded by REGISTRY
+    private int references;
+    private ObjectName name;
+
+    private SapUMEObjectCache(String key, SapUMEConfiguration configuration) {
+        this.key = key;
+        timeouts.put(SapUMESchema.OBJECT_SUPUSER, toLong(configuration.getAccountCacheTimeout()));
+        timeouts.put(SapUMESchema.OBJECT_SAPGROUP, toLong(configuration.getGroupCacheTimeout()));
+        timeouts.put(SapUMESchema.OBJECT_SAPROLE, toLong(configuration.getRoleCacheTimeout()));
+        this.maxObjects = getMaxObjects(configuration);
+        this.maxBytes = getMaxBytes(configuration);
+        this.negativeTimeout = toLong(configuration.getNegativeCacheTimeout());
+    }
+
+    // null when no object class has a cache timeout and there is no negative cache, the timeouts and limits of the first
+    // configuration are used, a configuration with other ones gets a warning
+    public static SapUMEObjectCache acquire(SapUMEConfiguration configuration) {
+        if (toLong(configuration.getAccountCacheTimeout()) <= 0 && toLong(configuration.getGroupCacheTimeout()) <= 0
+                && toLong(configuration.getRoleCacheTimeout()) <= 0 && toLong(configuration.getNegativeCacheTimeout()) <= 0) {
+            return null;
+        }
+        String url = String.valueOf(configuration.getURL());
+        String user = String.valueOf(configuration.getUser());
+        String key = url + "\n" + user;
+        synchronized (REGISTRY) {
+            SapUMEObjectCache cache = REGISTRY.computeIfAbsent(key, k -> new SapUMEObjectCache(k, configuration));
+            if (!cache.hasSettings(configuration)) {
+                LOG.warn("Object cache of {0} shared with a configuration with other timeouts or limits, its timeouts and limits are used", url);
+            }
+            if (cache.references++ == 0 && Boolean.TRUE.equals(configuration.getJmxMetrics())) {
+                cache.register(url, user);
+            }
+            return cache;
+        }
+    }
+
+    private boolean hasSettings(SapUMEConfiguration configuration) {
+        return timeouts.get(SapUMESchema.OBJECT_SUPUSER) == toLong(configuration.getAccountCacheTimeout())
+                && timeouts.get(SapUMESchema.OBJECT_SAPGROUP) == toLong(configuration.getGroupCacheTimeout())
+                && timeouts.get(SapUMESchema.OBJECT_SAPROLE) == toLong(configuration.getRoleCacheTimeout())
+                && maxObjects == getMaxObjects(configuration) && maxBytes == getMaxBytes(configuration)
+                && negativeTimeout == toLong(configuration.getNegativeCacheTimeout());
+    }
+
+    private static int getMaxObjects(SapUMEConfiguration configuration) {
+        return configuration.getObjectCacheSize() == null ? 10000 : configuration.getObjectCacheSize();
+    }
+
+    private static long getMaxBytes(SapUMEConfiguration configuration) {
+        return configuration.getObjectCacheMaxBytes() == null ? 16 * 1024 * 1024 : configuration.getObjectCacheMaxBytes();
+    }
+
+    // the cache is dropped when the last connector instance of the configuration was disposed
+    public void release() {
+        synchronized (REGISTRY) {
+            if (--references > 0) {
+                return;
+            }
+            REGISTRY.remove(key);
+            LOG.ok("Object cache released, {0} hits, {1} misses, {2} lookups of missing values", hits.get(), misses.get(), missingHits.get());
+            if (name != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+                } catch (JMException exception) {
+                    LOG.warn("Object cache MBean {0} not unregistered: {1}", name, exception);
+                }
+                name = null;
+            }
+        }
+        clear();
+    }
+
+    // objects of the class are cached
+    public boolean isEnabled(SapUMEObjectClass objectClass) {
+        return timeouts.get(objectClass.getBase()) > 0;
+    }
+
+    public boolean isNegativeEnabled() {
+        return negativeTimeout > 0;
+    }
+
+    // to be read before the search whose objects are put into the cache
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    // the object mapped with the attributes, null when it is not cached or expired
+    public synchronized ConnectorObject get(SapUMEObjectClass objectClass, String attributes, String uid) {
+        Entry entry = entries.get(getKey(objectClass, uid));
+        Cached cached = entry == null ? null : entry.variants.get(attributes);
+        if (cached != null && cached.expires - System.currentTimeMillis() <= 0) {
+            remove(entry, attributes);
+            cached = null;
+        }
+        if (cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return cached.object;
+    }
+
+    // writeCount read before the search, the object is not put when there was a write since then
+    public void put(SapUMEObjectClass objectClass, String attributes, ConnectorObject object, long writeCount) {
+        long timeout = timeouts.get(objectClass.getBase());
+        if (timeout <= 0 || object.getUid() == null) {
+            return;
+        }
+        int size = estimateBytes(object);
+        if (size > maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            if (writes.get() != writeCount) {
+                return;
+            }
+            String entryKey = getKey(objectClass, object.getUid().getUidValue());
+            Entry entry = entries.get(entryKey);
+            if (entry != null) {
+                remove(entry, attributes);
+            }
+            entry = entries.computeIfAbsent(entryKey, Entry::new);
+            entry.variants.put(attributes, new Cached(object, System.currentTimeMillis() + timeout, size));
+            entry.bytes += size;
+            objects++;
+            bytes += size;
+            evict();
+        }
+    }
+
+    // true when a lookup of the value of the attribute found nothing within negativeTimeout
+    public synchronized boolean isMissing(SapUMEObjectClass objectClass, String attribute, String value) {
+        if (negativeTimeout <= 0) {
+            return false;
+        }
+        String missingKey = getKey(objectClass, attribute + "\n" + value);
+        Long expires = missing.get(missingKey);
+        if (expires == null) {
+            return false;
+        }
+        if (expires - System.currentTimeMillis() <= 0) {
+            missing.remove(missingKey);
+            return false;
+        }
+        missingHits.incrementAndGet();
+        return true;
+    }
+
+    // writeCount read before the lookup, the value is not remembered when there was a write since then
+    public synchronized void putMissing(SapUMEObjectClass objectClass, String attribute, String value, long writeCount) {
+        if (writes.get() == writeCount) {
+            putMissing(objectClass, attribute, value);
+        }
+    }
+
+    // for a write which failed because the object does not exist
+    public synchronized void putMissing(SapUMEObjectClass objectClass, String attribute, String value) {
+        if (negativeTimeout <= 0) {
+            return;
+        }
+        missing.put(getKey(objectClass, attribute + "\n" + value), System.currentTimeMillis() + negativeTimeout);
+        Iterator<String> iterator = missing.keySet().iterator();
+        while (missing.size() > maxObjects && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    // called after a write of the object (successful or not), with changed memberships the other object classes are dropped too,
+    // with a changed name (create or rename) the missing values of the object class
+    public synchronized void invalidate(SapUMEObjectClass objectClass, String uid, boolean memberships, boolean named) {
+        writes.incrementAndGet();
+        invalidations.incrementAndGet();
+        if (named) {
+            missing.keySet().removeIf(missingKey -> missingKey.startsWith(objectClass.getBase() + "\n"));
+        }
+        if (uid != null) {
+            Entry entry = entries.get(getKey(objectClass, uid));
+            if (entry != null) {
+                removeEntry(entry);
+            }
+        }
+        if (memberships) {
+            String prefix = objectClass.getBase() + "\n";
+            for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+                Entry entry = iterator.next();
+                if (!entry.key.startsWith(prefix)) {
+                    iterator.remove();
+                    objects -= entry.variants.size();
+                    bytes -= entry.bytes;
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public long getMissingHitCount() {
+        return missingHits.get();
+    }
+
+    @Override
+    public synchronized int getMissingCount() {
+        return missing.size();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    @Override
+    public synchronized int getObjectCount() {
+        return objects;
+    }
+
+    @Override
+    public synchronized long getEstimatedBytes() {
+        return bytes;
+    }
+
+    @Override
+    public void reset() {
+        hits.set(0);
+        misses.set(0);
+        missingHits.set(0);
+        evictions.set(0);
+        invalidations.set(0);
+    }
+
+    @Override
+    public synchronized void clear() {
+        writes.incrementAndGet();
+        entries.clear();
+        missing.clear();
+        objects = 0;
+        bytes = 0;
+    }
+
+    private void register(String url, String user) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=SapUMEObjectCache,url=" + ObjectName.quote(url)
+                    + ",user=" + ObjectName.quote(user));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                // left over by a class loader of an older connector version
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            name = objectName;
+        } catch (JMException exception) {
+            // the cache works anyway, only the statistics are not visible
+            LOG.warn("Object cache MBean not registered: {0}", exception);
+        }
+    }
+
+    // least recently used identifiers first
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((objects > maxObjects || bytes > maxBytes) && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            objects -= entry.variants.size();
+            bytes -= entry.bytes;
+            evictions.addAndGet(entry.variants.size());
+        }
+    }
+
+    private void remove(Entry entry, String attributes) {
+        Cached cached = entry.variants.remove(attributes);
+        if (cached != null) {
+            entry.bytes -= cached.bytes;
+            objects--;
+            bytes -= cached.bytes;
+        }
+        if (entry.variants.isEmpty()) {
+            entries.remove(entry.key);
+        }
+    }
+
+    private void removeEntry(Entry entry) {
+        entries.remove(entry.key);
+        objects -= entry.variants.size();
+        bytes -= entry.bytes;
+    }
+
+    private static String getKey(SapUMEObjectClass objectClass, String uid) {
+        return objectClass.getBase() + "\n" + uid.toLowerCase(Locale.ROOT);
+    }
+
+    private static int estimateBytes(ConnectorObject object) {
+        long size = OBJECT_BYTES;
+        for (Attribute attribute : object.getAttributes()) {
+            size += ATTRIBUTE_BYTES + 2L * attribute.getName().length();
+            if (attribute.getValue() != null) {
+                for (Object value : attribute.getValue()) {
+                    size += VALUE_BYTES + (value instanceof String ? 2L * ((String) value).length() : 0);
+                }
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    private static long toLong(Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    // cached objects of one identifier by the list of mapped attributes
+    private static class Entry {
+
+        private final String key;
+        private final Map<String, Cached> variants = new HashMap<>(2);
+        private long bytes;
+
+        Entry(String key) {
+            this.key = key;
+        }
+    }
+
+    private static class Cached {
+
+        private final ConnectorObject object;
+        private final long expires;
+        private final int bytes;
+
+        Cached(ConnectorObject object, long expires, int bytes) {
+            this.object = object;
+            this.expires = expires;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.polygon.connector.sap.ume;
+
+// Statistics of the object cache of one connector configuration, counted since the registration of the MBean or the last reset.
+// An expired object found in the cache is counted as a miss.
+
+public interface SapUMEObjectCacheMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    // lookups answered from the negative cache
+    long getMissingHitCount();
+
+    // remembered lookups which found nothing
+    int getMissingCount();
+
+    long getEvictionCount();
+
+    long getInvalidationCount();
+
+    int getObjectCount();
+
+    // estimated from the attribute values
+    long getEstimatedBytes();
+
+    void reset();
+
+    // removes all objects and missing values from the cache
+    void clear();
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.polygon.connector.sap.ume;
+
+import java.util.Map;
+
+// Statistics of the SPML requests of one operation type (CREATE, UPDATE, QUERY, DELETE, TEST) of one connector configuration,
+// counted since the registration of the MBean or the last reset. Latencies are in milliseconds, sizes in bytes.
+
+public interface SapUMEOperationMetricsMXBean {
+
+    long getRequestCount();
+
+    long getErrorCount();
+
+    // number of failed requests by the simple name of the thrown ConnId exception
+    Map<String, Long> getErrorsByType();
+
+    int getInFlight();
+
+    long getLatencyP50();
+
+    long getLatencyP95();
+
+    long getLatencyP99();
+
+    long getLatencyMax();
+
+    long getRequestBytes();
+
+    // bytes received, before decompression
+    long getResponseBytes();
+
+    long getResultEntries();
+
+    void reset();
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.identityconnectors.common.logging.Log;
+import org.openspml.message.Filter;
+import org.openspml.message.FilterTerm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Time spent in the phases of one connector operation, summed over all its SPML requests: serialization, network
+// (from the request until the response headers, including retries), parsing (without the time spent in the handler
+// of a streamed search), mapping to ConnectorObjects and the ResultsHandler of the caller.
+// An operation taking longer than the threshold is written to the log as one line of key=value pairs.
+
+public class SapUMEOperationTrace {
+
+    private static final Log LOG = Log.getLog(SapUMEOperationTrace.class);
+    private static final int MAX_FILTER_SUMMARY = 200;
+
+    private final String operation;
+    private final long start = System.nanoTime();
+    private long serializeNanos;
+    private long networkNanos;
+    private long parseNanos;
+    private long mapNanos;
+    private long handlerNanos;
+    private long requests;
+    private long responseBytes;
+    private long results;
+
+    public SapUMEOperationTrace(String operation) {
+        this.operation = operation;
+    }
+
+    synchronized void addRequest(long serializeNanos, long networkNanos, long parseNanos, long responseBytes, long results) {
+        this.serializeNanos += serializeNanos;
+        this.networkNanos += networkNanos;
+        this.parseNanos += parseNanos;
+        this.requests++;
+        this.responseBytes += responseBytes;
+        this.results += results;
+    }
+
+    public synchronized void addMapping(long nanos) {
+        this.mapNanos += nanos;
+    }
+
+    public synchronized void addHandler(long nanos) {
+        this.handlerNanos += nanos;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    // details are key=value pairs describing the operation, e.g. objectClass=sapuser
+    public synchronized void logIfSlow(long threshold, String details) {
+        long elapsed = getElapsedMillis();
+        if (threshold <= 0 || elapsed < threshold) {
+            return;
+        }
+        // numbers are concatenated, so they are not formatted with grouping separators
+        LOG.warn("Slow operation: {0}", "operation=" + operation + " " + details + " elapsed=" + elapsed + "ms"
+                + " serialize=" + toMillis(serializeNanos) + "ms network=" + toMillis(networkNanos) + "ms parse=" + toMillis(parseNanos)
+                + "ms map=" + toMillis(mapNanos) + "ms handler=" + toMillis(handlerNanos) + "ms requests=" + requests
+                + " results=" + results + " responseBytes=" + responseBytes);
+    }
+
+    // structure of the filter with the attribute names but without the values, repeated terms are counted
+    public static String summarize(Filter filter) {
+        if (filter == null || filter.getTerms() == null || filter.getTerms().isEmpty()) {
+            return "none";
+        }
+        String summary = summarize(filter.getTerms());
+        return summary.length() > MAX_FILTER_SUMMARY ? summary.substring(0, MAX_FILTER_SUMMARY) + "..." : summary;
+    }
+
+    private static String summarize(List<FilterTerm> terms) {
+        List<String> summaries = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        for (FilterTerm term : terms) {
+            String summary = summarize(term);
+            int last = summaries.size() - 1;
+            if (last >= 0 && summaries.get(last).equals(summary)) {
+                counts.set(last, counts.get(last) + 1);
+            } else {
+                summaries.add(summary);
+                counts.add(1);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < summaries.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(summaries.get(i));
+            if (counts.get(i) > 1) {
+                sb.append('x').append(counts.get(i));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String summarize(FilterTerm term) {
+        if (term.getOperands() != null && !term.getOperands().isEmpty()) {
+            return term.getOperation() + "(" + summarize(term.getOperands()) + ")";
+        }
+        return term.getOperation() + "(" + term.getName() + ")";
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.identityconnectors.common.logging.Log;
+import org.openspml.message.Attribute;
+import org.openspml.message.SearchResult;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Partitions of paged searches kept for the next page, shared by the connector instances of one configuration (URL and
+// user) and dropped when the last of them was disposed. A partition is kept for TIMEOUT, the least recently used ones are
+// removed when there are more than MAX_PARTITIONS of them or more than pageCacheMaxBytes estimated bytes. The size of a
+// prefetched partition is known when its search completed, a partition larger than the limit is not kept at all and
+// SapUMEPagedSearch keeps only the entries up to the end of the page while it reads it.
+
+public class SapUMEPageCache {
+
+    private static final Log LOG = Log.getLog(SapUMEPageCache.class);
+    private static final Map<String, SapUMEPageCache> REGISTRY = new HashMap<>();
+    private static final int MAX_PARTITIONS = 16;
+    private static final long TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    // rough JVM overhead of an entry, an attribute and a value, like SapUMEObjectCache
+    private static final int ENTRY_BYTES = 200;
+    private static final int ATTRIBUTE_BYTES = 100;
+    private static final int VALUE_BYTES = 40;
+
+    private final String key;
+    private final long maxBytes;
+    private final long timeout;
+    private final LinkedHashMap<String, Cached> partitions = new LinkedHashMap<>(MAX_PARTITIONS, 0.75f, true);
+    // guarded by this
+    private long bytes;
+    // guarded by REGISTRY
+    private int references;
+
+    SapUMEPageCache(String key, long maxBytes, long timeout) {
+        this.key = key;
+        this.maxBytes = maxBytes;
+        this.timeout = timeout;
+    }
+
+    // the limit of the first configuration is used
+    public static SapUMEPageCache acquire(SapUMEConfiguration configuration) {
+        String key = configuration.getURL() + "\n" + configuration.getUser();
+        long maxBytes = configuration.getPageCacheMaxBytes() == null ? 0 : configuration.getPageCacheMaxBytes();
+        synchronized (REGISTRY) {
+            SapUMEPageCache cache = REGISTRY.computeIfAbsent(key, k -> new SapUMEPageCache(k, maxBytes, TIMEOUT));
+            cache.references++;
+            return cache;
+        }
+    }
+
+    // the partitions are dropped when the last connector instance of the configuration was disposed
+    public void release() {
+        synchronized (REGISTRY) {
+            if (--references > 0) {
+                return;
+            }
+            REGISTRY.remove(key);
+        }
+        clear();
+        LOG.ok("Page cache of {0} released", key.replace('\n', ' '));
+    }
+
+    // sorted entries of the partition, null when it is not cached or expired
+    public synchronized CompletableFuture<List<SearchResult>> get(String partition) {
+        Cached cached = partitions.get(partition);
+        if (cached == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - cached.created > timeout) {
+            remove(partition);
+            return null;
+        }
+        return cached.entries;
+    }
+
+    // replaces the cached partition
+    public void put(String partition, CompletableFuture<List<SearchResult>> entries) {
+        put(partition, entries, true);
+    }
+
+    // keeps the cached partition, e.g. a running prefetch
+    public void putIfAbsent(String partition, CompletableFuture<List<SearchResult>> entries) {
+        put(partition, entries, false);
+    }
+
+    public synchronized void remove(String partition) {
+        Cached cached = partitions.remove(partition);
+        if (cached != null) {
+            bytes -= cached.bytes;
+        }
+    }
+
+    public synchronized void clear() {
+        partitions.clear();
+        bytes = 0;
+    }
+
+    // zero when nothing is kept
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int getPartitionCount() {
+        return partitions.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private void put(String partition, CompletableFuture<List<SearchResult>> entries, boolean replace) {
+        if (maxBytes <= 0) {
+            return;
+        }
+        Cached cached = new Cached(entries);
+        synchronized (this) {
+            if (!replace && partitions.containsKey(partition)) {
+                return;
+            }
+            remove(partition);
+            partitions.put(partition, cached);
+            evict();
+        }
+        // the size of a running search is counted when it completes
+        entries.thenAccept(results -> added(partition, cached, results));
+    }
+
+    private synchronized void added(String partition, Cached cached, List<SearchResult> results) {
+        if (partitions.get(partition) != cached) {
+            return;
+        }
+        long size = estimateBytes(results);
+        if (size > maxBytes) {
+            partitions.remove(partition);
+            LOG.ok("Partition of {0} estimated bytes not cached", size);
+            return;
+        }
+        cached.bytes = size;
+        bytes += size;
+        evict();
+    }
+
+    // least recently used partitions first
+    private void evict() {
+        Iterator<Cached> iterator = partitions.values().iterator();
+        while (iterator.hasNext() && (partitions.size() > MAX_PARTITIONS || bytes > maxBytes)) {
+            Cached cached = iterator.next();
+            iterator.remove();
+            bytes -= cached.bytes;
+        }
+    }
+
+    static long estimateBytes(List<SearchResult> results) {
+        long size = 0;
+        for (SearchResult result : results) {
+            size += estimateBytes(result);
+        }
+        return size;
+    }
+
+    public static long estimateBytes(SearchResult result) {
+        long size = ENTRY_BYTES + estimateChars(result.getIdentifierString());
+        if (result.getAttributes() == null) {
+            return size;
+        }
+        for (Attribute attribute : result.getAttributes()) {
+            size += ATTRIBUTE_BYTES + estimateChars(attribute.getName());
+            Object value = attribute.getValue();
+            if (value instanceof Collection) {
+                for (Object item : (Collection<?>) value) {
+                    size += VALUE_BYTES + estimateChars(item);
+                }
+            } else if (value != null) {
+                size += VALUE_BYTES + estimateChars(value);
+            }
+        }
+        return size;
+    }
+
+    private static long estimateChars(Object value) {
+        return value instanceof String ? 2L * ((String) value).length() : 0;
+    }
+
+    private static class Cached {
+
+        private final long created = System.currentTimeMillis();
+        private final CompletableFuture<List<SearchResult>> entries;
+        // zero while the search runs
+        private long bytes;
+
+        Cached(CompletableFuture<List<SearchResult>> entries) {
+            this.entries = entries;
+        }
+    }
+}
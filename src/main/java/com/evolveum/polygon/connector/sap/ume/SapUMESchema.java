@@ -2,6 +2,7 @@ package com.evolveum.polygon.connector.sap.ume;
 
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.objects.*;
+import org.identityconnectors.framework.spi.operations.SearchOp;
 
 import java.util.HashSet;
 import java.util.Iterator;
@@ -255,6 +256,11 @@ public class SapUMESchema {
         roleAttributeNames = createAtributeNames(role);
         groupAttributeNames = createAtributeNames(group);
         accountAttributeNames = createAtributeNames(account);
+        // paging and sorting are done by the connector, see SapUMEPagedSearch and SapUMEResultSorter
+        schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildPageSize(), SearchOp.class);
+        schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsCookie(), SearchOp.class);
+        schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsOffset(), SearchOp.class);
+        schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildSortKeys(), SearchOp.class);
         schema = schemaBuilder.build();
 
         LOG.info("Schema created {0}", schema);
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.openspml.message.*;
+import org.openspml.util.SpmlException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reader of the SOAP envelope with an SPML 1.0 response, the parser factories are created only once.
+// Add, modify, delete, search and batch responses are read with StAX into the openspml response objects with the same
+// value representation as SpmlResponse.parseResponse (null, String or ArrayList of Strings). Search result entries
+// can be streamed, every searchResultEntry is passed to the handler as soon as it was read and the whole response
+// is never held in memory. The rarely used schema response is read to DOM and parsed by openspml.
+
+public class SapUMESpmlReader {
+
+    private static final String SOAP_ENVELOPE_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+
+    private static final String EL_ADD_RESPONSE = "addResponse";
+    private static final String EL_MODIFY_RESPONSE = "modifyResponse";
+    private static final String EL_DELETE_RESPONSE = "deleteResponse";
+    private static final String EL_SEARCH_RESPONSE = "searchResponse";
+    private static final String EL_BATCH_RESPONSE = "batchResponse";
+    private static final String EL_SEARCH_RESULT_ENTRY = "searchResultEntry";
+    private static final String EL_ERROR_MESSAGE = "errorMessage";
+    private static final String EL_IDENTIFIER = "identifier";
+    private static final String EL_ID = "id";
+    private static final String EL_ATTRIBUTES = "attributes";
+    private static final String EL_ATTR = "attr";
+    private static final String EL_VALUE = "value";
+    private static final String EL_BODY = "Body";
+    private static final String EL_FAULT = "Fault";
+    private static final String EL_FAULT_STRING = "faultstring";
+    private static final String ATTR_RESULT = "result";
+    private static final String ATTR_ERROR = "error";
+    private static final String ATTR_REQUEST_ID = "requestID";
+    private static final String ATTR_NAME = "name";
+    private static final String ATTR_TYPE = "type";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = createDocumentBuilderFactory();
+
+    private SapUMESpmlReader() {
+    }
+
+    // search result entries are passed to the handler, without handler they are added to the returned search response
+    public static SpmlResponse read(InputStream in, SapUMESearchResultHandler handler) throws XMLStreamException, SpmlException {
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            boolean inBody = false;
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    String localName = reader.getLocalName();
+                    if (EL_FAULT.equals(localName)) {
+                        throw new SpmlException(readFaultString(reader));
+                    } else if (inBody) {
+                        return readResponse(reader, handler);
+                    } else if (EL_BODY.equals(localName)) {
+                        inBody = true;
+                    }
+                }
+            }
+            throw new SpmlException("SPML response not found");
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static SpmlResponse readWithDom(InputStream in) throws IOException, SpmlException {
+        try {
+            Document document = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder().parse(in);
+            Node body = document.getElementsByTagNameNS(SOAP_ENVELOPE_NS, EL_BODY).item(0);
+            Node child = body != null ? body.getFirstChild() : null;
+            while (child != null && !(child instanceof Element)) {
+                child = child.getNextSibling();
+            }
+            if (child == null) {
+                throw new SpmlException("SPML response not found");
+            } else if (EL_FAULT.equals(child.getLocalName())) {
+                Node faultString = ((Element) child).getElementsByTagName(EL_FAULT_STRING).item(0);
+                throw new SpmlException(faultString != null ? faultString.getTextContent() : "SOAP fault");
+            }
+            return SpmlResponse.parseResponse((Element) child);
+        } catch (ParserConfigurationException | SAXException exception) {
+            throw new SpmlException(exception);
+        }
+    }
+
+    private static SpmlResponse readResponse(XMLStreamReader reader, SapUMESearchResultHandler handler) throws XMLStreamException, SpmlException {
+        String localName = reader.getLocalName();
+        SpmlResponse response;
+        if (EL_ADD_RESPONSE.equals(localName)) {
+            response = new AddResponse();
+        } else if (EL_MODIFY_RESPONSE.equals(localName)) {
+            response = new ModifyResponse();
+        } else if (EL_DELETE_RESPONSE.equals(localName)) {
+            response = new DeleteResponse();
+        } else if (EL_SEARCH_RESPONSE.equals(localName)) {
+            response = new SearchResponse();
+        } else if (EL_BATCH_RESPONSE.equals(localName)) {
+            response = new BatchResponse();
+        } else {
+            throw new SpmlException("Unsupported SPML response " + localName);
+        }
+        response.setResult(reader.getAttributeValue(null, ATTR_RESULT));
+        response.setError(reader.getAttributeValue(null, ATTR_ERROR));
+        response.setRequestId(reader.getAttributeValue(null, ATTR_REQUEST_ID));
+
+        boolean inAttributes = false;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String childName = reader.getLocalName();
+                if (EL_ERROR_MESSAGE.equals(childName)) {
+                    response.setErrorMessage(reader.getElementText());
+                } else if (response instanceof SearchResponse && EL_SEARCH_RESULT_ENTRY.equals(childName)) {
+                    SearchResult searchResult = readSearchResultEntry(reader);
+                    if (handler == null) {
+                        ((SearchResponse) response).addResult(searchResult);
+                    } else if (!handler.handle(searchResult)) {
+                        return response;
+                    }
+                } else if (response instanceof BatchResponse && childName.endsWith("Response")) {
+                    ((BatchResponse) response).addResponse(readResponse(reader, handler));
+                } else if (response instanceof AddResponse && EL_IDENTIFIER.equals(childName)) {
+                    ((AddResponse) response).setIdentifier(readIdentifier(reader));
+                } else if (response instanceof AddResponse && inAttributes && EL_ATTR.equals(childName)) {
+                    String attrName = reader.getAttributeValue(null, ATTR_NAME);
+                    ((AddResponse) response).setAttribute(attrName, readAttrValue(reader));
+                } else {
+                    depth++;
+                    if (EL_ATTRIBUTES.equals(childName)) {
+                        inAttributes = true;
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                if (EL_ATTRIBUTES.equals(reader.getLocalName())) {
+                    inAttributes = false;
+                }
+            }
+        }
+        return response;
+    }
+
+    private static SearchResult readSearchResultEntry(XMLStreamReader reader) throws XMLStreamException {
+        SearchResult searchResult = new SearchResult();
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String localName = reader.getLocalName();
+                if (EL_IDENTIFIER.equals(localName)) {
+                    searchResult.setIdentifier(readIdentifier(reader));
+                } else if (EL_ATTR.equals(localName)) {
+                    String attrName = reader.getAttributeValue(null, ATTR_NAME);
+                    searchResult.setAttribute(attrName, readAttrValue(reader));
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return searchResult;
+    }
+
+    // reader is positioned on the identifier start element, returns after its end element
+    private static Identifier readIdentifier(XMLStreamReader reader) throws XMLStreamException {
+        Identifier identifier = new Identifier();
+        String type = reader.getAttributeValue(null, ATTR_TYPE);
+        if (type != null) {
+            identifier.setType(type);
+        }
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (EL_ID.equals(reader.getLocalName())) {
+                    identifier.setId(reader.getElementText());
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return identifier;
+    }
+
+    // reader is positioned on the attr start element, returns after its end element
+    private static Object readAttrValue(XMLStreamReader reader) throws XMLStreamException {
+        List<String> values = new ArrayList<>(1);
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (EL_VALUE.equals(reader.getLocalName())) {
+                    // empty value elements are dropped like in SpmlResponse.parseResponse
+                    String value = reader.getElementText();
+                    if (!value.isEmpty()) {
+                        values.add(value);
+                    }
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        if (values.isEmpty()) {
+            return null;
+        } else if (values.size() == 1) {
+            return values.get(0);
+        }
+        return new ArrayList<>(values);
+    }
+
+    private static String readFaultString(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && EL_FAULT_STRING.equals(reader.getLocalName())) {
+                return reader.getElementText();
+            }
+        }
+        return "SOAP fault";
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    private static DocumentBuilderFactory createDocumentBuilderFactory() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setExpandEntityReferences(false);
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        } catch (ParserConfigurationException exception) {
+            throw new IllegalStateException(exception);
+        }
+        return factory;
+    }
+}
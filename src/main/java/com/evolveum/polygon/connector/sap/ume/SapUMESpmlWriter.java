@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.openspml.message.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Writes the SOAP envelope with an SPML 1.0 request (add, modify, delete, search, schema and batch) as UTF-8
+// directly to the output stream, the XML is the same as produced by the openspml toXml() methods without
+// building any intermediate String. Request bodies are written to pooled buffers, see borrowBuffer().
+// For logs and wire captures the request can be written redacted, password values are replaced while writing.
+
+public class SapUMESpmlWriter {
+
+    private static final String SOAP_ENVELOPE_START = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">\n"
+            + "<SOAP-ENV:Header/>\n"
+            + "<SOAP-ENV:Body>\n";
+    private static final String SOAP_ENVELOPE_END = "</SOAP-ENV:Body>\n</SOAP-ENV:Envelope>\n";
+    private static final String NAMESPACES = " xmlns:spml='urn:oasis:names:tc:SPML:1:0' xmlns:dsml='urn:oasis:names:tc:DSML:2:0:core'";
+    private static final String OBJECT_CLASS = "objectclass";
+    private static final String HIDDEN_PASSWORD = "********";
+
+    private static final int BUFFER_INITIAL_SIZE = 8 * 1024;
+    private static final int BUFFER_MAX_POOLED_SIZE = 1024 * 1024;
+    private static final int BUFFER_POOL_SIZE = 16;
+    private static final ConcurrentLinkedQueue<RequestBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+
+    private SapUMESpmlWriter() {
+    }
+
+    public static RequestBuffer borrowBuffer() {
+        RequestBuffer buffer = BUFFER_POOL.poll();
+        return buffer != null ? buffer : new RequestBuffer();
+    }
+
+    public static void returnBuffer(RequestBuffer buffer) {
+        if (buffer != null && buffer.capacity() <= BUFFER_MAX_POOLED_SIZE && BUFFER_POOL.size() < BUFFER_POOL_SIZE) {
+            buffer.reset();
+            BUFFER_POOL.offer(buffer);
+        }
+    }
+
+    public static void writeSoapRequest(SpmlRequest request, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write(SOAP_ENVELOPE_START);
+        writeRequest(request, writer, true, false);
+        writer.write(SOAP_ENVELOPE_END);
+        writer.flush();
+    }
+
+    // the SPML request without envelope, with hidden password values
+    public static void writeRedactedRequest(SpmlRequest request, Writer writer) throws IOException {
+        writeRequest(request, writer, true, true);
+        writer.flush();
+    }
+
+    // search base, filter and requested attributes of the search as written to the request, the same for equal searches
+    public static String getSearchKey(SearchRequest request) {
+        StringWriter writer = new StringWriter();
+        try {
+            writeSearch(writer, request);
+        } catch (IOException ioException) {
+            // StringWriter does not throw
+            throw new IllegalStateException(ioException);
+        }
+        return writer.toString();
+    }
+
+    public static boolean isPasswordAttribute(String name) {
+        return SapUMESchema.ATTRIBUTE_PASSWORD.equals(name) || SapUMESchema.ATTRIBUTE_OLDPASSWORD.equals(name)
+                || OperationalAttributes.PASSWORD_NAME.equals(name);
+    }
+
+    private static void writeRequest(SpmlRequest request, Writer writer, boolean root, boolean redact) throws IOException {
+        String elementName = request.getElementName();
+        writer.write("<spml:");
+        writer.write(elementName);
+        if (root) {
+            writer.write(NAMESPACES);
+        }
+        writeXmlAttribute(writer, "requestID", request.getRequestId());
+        if (request.isAsynchronous()) {
+            writeXmlAttribute(writer, "execution", SpmlRequest.EXEC_ASYNCHRONOUS);
+        }
+        if (request instanceof BatchRequest) {
+            BatchRequest batchRequest = (BatchRequest) request;
+            writeXmlAttribute(writer, "processing", batchRequest.isParallel() ? BatchRequest.PROC_PARALLEL : BatchRequest.PROC_SEQUENTIAL);
+            writeXmlAttribute(writer, "onError", batchRequest.isOnErrorResume() ? BatchRequest.ON_ERROR_RESUME : BatchRequest.ON_ERROR_EXIT);
+        }
+        writer.write(">\n");
+
+        writeAttributes(writer, "operationalAttributes", request.getOperationalAttributes(), null, redact);
+        if (request.getIdentifier() != null) {
+            writeIdentifier(writer, "identifier", request.getIdentifier());
+        }
+
+        if (request instanceof AddRequest) {
+            AddRequest addRequest = (AddRequest) request;
+            writeAttributes(writer, "attributes", addRequest.getAttributes(), addRequest.getObjectClass(), redact);
+        } else if (request instanceof ModifyRequest) {
+            writeModifications(writer, ((ModifyRequest) request).getModifications(), redact);
+        } else if (request instanceof SearchRequest) {
+            writeSearch(writer, (SearchRequest) request);
+        } else if (request instanceof SchemaRequest) {
+            writeSchema(writer, (SchemaRequest) request);
+        } else if (request instanceof BatchRequest) {
+            BatchRequest batchRequest = (BatchRequest) request;
+            writeAttributes(writer, "attributes", batchRequest.getAttributes(), null, redact);
+            if (batchRequest.getRequests() != null) {
+                for (SpmlRequest batchItem : batchRequest.getRequests()) {
+                    writeRequest(batchItem, writer, false, redact);
+                }
+            }
+        } else if (!(request instanceof DeleteRequest)) {
+            throw new ConnectorException("Unsupported SPML request " + request.getClass().getName());
+        }
+
+        writer.write("</spml:");
+        writer.write(elementName);
+        writer.write(">\n");
+    }
+
+    private static void writeIdentifier(Writer writer, String elementName, Identifier identifier) throws IOException {
+        writer.write("<spml:");
+        writer.write(elementName);
+        writeXmlAttribute(writer, "type", identifier.getType() != null ? identifier.getType() : Identifier.TYPE_GUID);
+        writer.write("><spml:id>");
+        writeText(writer, identifier.getId());
+        writer.write("</spml:id></spml:");
+        writer.write(elementName);
+        writer.write(">\n");
+    }
+
+    private static void writeAttributes(Writer writer, String elementName, List<? extends Attribute> attributes, String objectClass, boolean redact) throws IOException {
+        if ((attributes == null || attributes.isEmpty()) && objectClass == null) {
+            return;
+        }
+        writer.write("<spml:");
+        writer.write(elementName);
+        writer.write(">\n");
+        if (objectClass != null) {
+            writeAttr(writer, "attr", OBJECT_CLASS, null, objectClass, false);
+        }
+        if (attributes != null) {
+            for (Attribute attribute : attributes) {
+                // object class is kept among the attributes by openspml, it was already written as the first one
+                if (objectClass == null || !OBJECT_CLASS.equals(attribute.getName())) {
+                    writeAttr(writer, "attr", attribute.getName(), null, attribute.getValue(), redact);
+                }
+            }
+        }
+        writer.write("</spml:");
+        writer.write(elementName);
+        writer.write(">\n");
+    }
+
+    private static void writeModifications(Writer writer, List<Modification> modifications, boolean redact) throws IOException {
+        writer.write("<spml:modifications>\n");
+        if (modifications != null) {
+            for (Modification modification : modifications) {
+                writeAttr(writer, "modification", modification.getName(),
+                        modification.getOperation() != null ? modification.getOperation() : Modification.OP_REPLACE, modification.getValue(), redact);
+            }
+        }
+        writer.write("</spml:modifications>\n");
+    }
+
+    private static void writeAttr(Writer writer, String elementName, String name, String operation, Object value, boolean redact) throws IOException {
+        if (redact && value != null && isPasswordAttribute(name)) {
+            value = HIDDEN_PASSWORD;
+        }
+        writer.write("<dsml:");
+        writer.write(elementName);
+        writeXmlAttribute(writer, "name", name);
+        writeXmlAttribute(writer, "operation", operation);
+        if (value == null || (value instanceof Collection && ((Collection<?>) value).isEmpty())) {
+            writer.write("/>\n");
+            return;
+        }
+        writer.write(">");
+        writeValues(writer, value);
+        writer.write("</dsml:");
+        writer.write(elementName);
+        writer.write(">\n");
+    }
+
+    private static void writeValues(Writer writer, Object value) throws IOException {
+        if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                writeValues(writer, item);
+            }
+        } else if (value != null) {
+            writer.write("<dsml:value>");
+            writeText(writer, value.toString());
+            writer.write("</dsml:value>");
+        }
+    }
+
+    private static void writeSearch(Writer writer, SearchRequest request) throws IOException {
+        if (request.getSearchBase() != null) {
+            writeIdentifier(writer, "searchBase", request.getSearchBase());
+        }
+        Filter filter = request.getFilter();
+        if (filter != null && filter.getTerms() != null && !filter.getTerms().isEmpty()) {
+            writer.write("<dsml:filter>\n");
+            for (FilterTerm term : filter.getTerms()) {
+                writeFilterTerm(writer, term);
+            }
+            writer.write("</dsml:filter>\n");
+        }
+        List<String> attributes = request.getAttributes();
+        if (attributes != null && !attributes.isEmpty()) {
+            writer.write("<spml:attributes>\n");
+            for (String attribute : attributes) {
+                writer.write("<dsml:attribute");
+                writeXmlAttribute(writer, "name", attribute);
+                writer.write("/>\n");
+            }
+            writer.write("</spml:attributes>\n");
+        }
+    }
+
+    private static void writeFilterTerm(Writer writer, FilterTerm term) throws IOException {
+        String operation = term.getOperation();
+        if (FilterTerm.OP_AND.equals(operation) || FilterTerm.OP_OR.equals(operation) || FilterTerm.OP_NOT.equals(operation)) {
+            writer.write("<dsml:");
+            writer.write(operation);
+            writer.write(">\n");
+            if (term.getOperands() != null) {
+                for (FilterTerm operand : term.getOperands()) {
+                    writeFilterTerm(writer, operand);
+                }
+            }
+            writer.write("</dsml:");
+            writer.write(operation);
+            writer.write(">\n");
+        } else if (FilterTerm.OP_SUBSTRINGS.equals(operation)) {
+            writer.write("<dsml:substrings");
+            writeXmlAttribute(writer, "name", term.getName());
+            writer.write(">");
+            writeOptionalElement(writer, "initial", term.getInitialSubstring());
+            if (term.getSubstrings() != null) {
+                for (String substring : term.getSubstrings()) {
+                    writeOptionalElement(writer, "any", substring);
+                }
+            }
+            writeOptionalElement(writer, "final", term.getFinalSubstring());
+            writer.write("</dsml:substrings>\n");
+        } else if (FilterTerm.OP_EQUAL.equals(operation) || FilterTerm.OP_GTE.equals(operation) || FilterTerm.OP_LTE.equals(operation)
+                || FilterTerm.OP_APPROX.equals(operation) || FilterTerm.OP_PRESENT.equals(operation)) {
+            writer.write("<dsml:");
+            writer.write(operation);
+            writeXmlAttribute(writer, "name", term.getName());
+            writer.write(">");
+            if (term.getValues() != null) {
+                writeValues(writer, term.getValues());
+            }
+            writer.write("</dsml:");
+            writer.write(operation);
+            writer.write(">\n");
+        } else {
+            throw new ConnectorException("Unsupported SPML filter operation " + operation);
+        }
+    }
+
+    private static void writeSchema(Writer writer, SchemaRequest request) throws IOException {
+        ProviderIdentifier providerIdentifier = request.getProviderIdentifier();
+        if (providerIdentifier != null) {
+            writer.write("<spml:providerIdentifier");
+            writeXmlAttribute(writer, "providerIDType", providerIdentifier.getType());
+            writer.write("><spml:providerID>");
+            writeText(writer, providerIdentifier.getId());
+            writer.write("</spml:providerID></spml:providerIdentifier>\n");
+        }
+        SchemaIdentifier schemaIdentifier = request.getSchemaIdentifier();
+        if (schemaIdentifier != null) {
+            writer.write("<spml:schemaIdentifier");
+            writeXmlAttribute(writer, "schemaIDType", schemaIdentifier.getType());
+            writer.write("><spml:schemaID>");
+            writeText(writer, schemaIdentifier.getId());
+            writer.write("</spml:schemaID></spml:schemaIdentifier>\n");
+        }
+    }
+
+    private static void writeOptionalElement(Writer writer, String elementName, String text) throws IOException {
+        if (text != null) {
+            writer.write("<dsml:");
+            writer.write(elementName);
+            writer.write(">");
+            writeText(writer, text);
+            writer.write("</dsml:");
+            writer.write(elementName);
+            writer.write(">");
+        }
+    }
+
+    private static void writeXmlAttribute(Writer writer, String name, String value) throws IOException {
+        if (value != null) {
+            writer.write(' ');
+            writer.write(name);
+            writer.write("='");
+            writeEscaped(writer, value, true);
+            writer.write('\'');
+        }
+    }
+
+    private static void writeText(Writer writer, String text) throws IOException {
+        if (text != null) {
+            writeEscaped(writer, text, false);
+        }
+    }
+
+    private static void writeEscaped(Writer writer, String text, boolean attribute) throws IOException {
+        int length = text.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            String replacement = null;
+            if (c == '&') {
+                replacement = "&amp;";
+            } else if (c == '<') {
+                replacement = "&lt;";
+            } else if (c == '>') {
+                replacement = "&gt;";
+            } else if (attribute && c == '\'') {
+                replacement = "&apos;";
+            } else if (attribute && c == '"') {
+                replacement = "&quot;";
+            }
+            if (replacement != null) {
+                writer.write(text, start, i - start);
+                writer.write(replacement);
+                start = i + 1;
+            }
+        }
+        writer.write(text, start, length - start);
+    }
+
+    // growable byte buffer, its content is handed to the HTTP client without copying
+    public static class RequestBuffer extends ByteArrayOutputStream {
+
+        RequestBuffer() {
+            super(BUFFER_INITIAL_SIZE);
+        }
+
+        public byte[] array() {
+            return buf;
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
+import org.openspml.message.SpmlRequest;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Ring buffer with the last SPML exchanges of one connection, bounded by the number of exchanges and by their total size.
+// Requests are captured redacted (written by SapUMESpmlWriter with hidden passwords), responses as the bytes read by
+// the parser, truncated to the byte limit, their password values are hidden when they are dumped. Nothing is logged in
+// the normal case, the buffer is dumped to the log when a request fails or on demand, see dump(). Objects which do not
+// exist or already exist are expected failures of a running server and do not dump the buffer.
+// The capture is shared by the connector instances with the same URL and user. With jmxMetrics it is registered as MBean
+// com.evolveum.polygon.connector.sap.ume:type=SapUMEWireCapture,url=...,user=... whose dump operation returns the exchanges.
+
+public class SapUMEWireCapture implements SapUMEWireCaptureMXBean {
+
+    private static final Log LOG = Log.getLog(SapUMEWireCapture.class);
+    private static final String DOMAIN = "com.evolveum.polygon.connector.sap.ume";
+    private static final Map<String, SapUMEWireCapture> REGISTRY = new HashMap<>();
+    private static final String HIDDEN_PASSWORD = "********";
+    // an attr or modification element up to its end or to the end of a truncated response
+    private static final Pattern ATTRIBUTE_ELEMENT = Pattern.compile(
+            "<((?:\\w+:)?(?:attr|modification))\\s[^>]*?name\\s*=\\s*['\"]([^'\"]*)['\"][^>]*>(.*?)(?:</\\1>|\\z)", Pattern.DOTALL);
+    private static final Pattern VALUE_CONTENT = Pattern.compile("(<(?:\\w+:)?value(?:\\s[^>]*)?>)[^<]*");
+
+    private final String key;
+    private final int maxExchanges;
+    private final long maxBytes;
+    private final Deque<Exchange> exchanges = new ArrayDeque<>();
+    private long bytes;
+    // guarded by REGISTRY
+    private int references;
+    private ObjectName name;
+
+    public SapUMEWireCapture(int maxExchanges, long maxBytes) {
+        this(null, maxExchanges, maxBytes);
+    }
+
+    private SapUMEWireCapture(String key, int maxExchanges, long maxBytes) {
+        this.key = key;
+        this.maxExchanges = maxExchanges;
+        this.maxBytes = maxBytes;
+    }
+
+    // null when the capture is not enabled, the limits of the first configuration are used
+    public static SapUMEWireCapture acquire(SapUMEConfiguration configuration) {
+        int maxExchanges = configuration.getWireCaptureSize() == null ? 0 : configuration.getWireCaptureSize();
+        if (maxExchanges <= 0) {
+            return null;
+        }
+        long maxBytes = configuration.getWireCaptureMaxBytes() == null ? 0 : configuration.getWireCaptureMaxBytes();
+        String url = String.valueOf(configuration.getURL());
+        String user = String.valueOf(configuration.getUser());
+        String key = url + "\n" + user;
+        synchronized (REGISTRY) {
+            SapUMEWireCapture capture = REGISTRY.computeIfAbsent(key, k -> new SapUMEWireCapture(k, maxExchanges, maxBytes));
+            if (capture.maxExchanges != maxExchanges || capture.maxBytes != maxBytes) {
+                LOG.warn("Wire capture of {0} shared with a configuration with other limits, its limits are used", url);
+            }
+            if (capture.references++ == 0 && Boolean.TRUE.equals(configuration.getJmxMetrics())) {
+                capture.register(url, user);
+            }
+            return capture;
+        }
+    }
+
+    // the capture is dropped when the last connector instance of the configuration was disposed
+    public void release() {
+        synchronized (REGISTRY) {
+            if (--references > 0) {
+                return;
+            }
+            REGISTRY.remove(key);
+            if (name != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+                } catch (JMException exception) {
+                    LOG.warn("Wire capture MBean {0} not unregistered: {1}", name, exception);
+                }
+                name = null;
+            }
+        }
+    }
+
+    public Exchange begin(SpmlRequest spmlRequest, String logOperation) {
+        Exchange exchange = new Exchange(logOperation);
+        try {
+            OutputStreamWriter writer = new OutputStreamWriter(exchange.request, StandardCharsets.UTF_8);
+            SapUMESpmlWriter.writeRedactedRequest(spmlRequest, writer);
+        } catch (IOException | RuntimeException exception) {
+            exchange.error = "Request not captured: " + exception;
+        }
+        return exchange;
+    }
+
+    // records the exchange, a failed exchange dumps the buffer to the log unless the failure is expected
+    public void end(Exchange exchange, RuntimeException exception) {
+        if (exception != null) {
+            exchange.failed(exception);
+        }
+        end(exchange);
+        if (exception != null && !(exception instanceof UnknownUidException || exception instanceof AlreadyExistsException)) {
+            dumpOnError();
+        }
+    }
+
+    public synchronized void end(Exchange exchange) {
+        exchange.duration = System.currentTimeMillis() - exchange.start.toEpochMilli();
+        exchanges.addLast(exchange);
+        bytes += exchange.size();
+        while (!exchanges.isEmpty() && (exchanges.size() > maxExchanges || bytes > maxBytes)) {
+            bytes -= exchanges.removeFirst().size();
+        }
+    }
+
+    @Override
+    public synchronized int getExchangeCount() {
+        return exchanges.size();
+    }
+
+    // captured exchanges, oldest first, the buffer is emptied
+    @Override
+    public synchronized String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("SPML wire capture, ").append(exchanges.size()).append(" exchanges:");
+        for (Exchange exchange : exchanges) {
+            sb.append("\n--- ").append(exchange.start).append(" operation=").append(exchange.operation)
+                    .append(" duration=").append(exchange.duration).append("ms");
+            if (exchange.error != null) {
+                sb.append(" error=").append(exchange.error);
+            }
+            sb.append("\nREQUEST: ").append(new String(exchange.request.toByteArray(), StandardCharsets.UTF_8));
+            sb.append("\nRESPONSE: ").append(redactResponse(new String(exchange.response.toByteArray(), StandardCharsets.UTF_8)));
+            if (exchange.truncated) {
+                sb.append("...(truncated)");
+            }
+        }
+        exchanges.clear();
+        bytes = 0;
+        return sb.toString();
+    }
+
+    public void dumpOnError() {
+        LOG.error("{0}", dump());
+    }
+
+    private void register(String url, String user) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=SapUMEWireCapture,url=" + ObjectName.quote(url)
+                    + ",user=" + ObjectName.quote(user));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                // left over by a class loader of an older connector version
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            name = objectName;
+        } catch (JMException exception) {
+            // the capture works anyway, it is only dumped to the log
+            LOG.warn("Wire capture MBean not registered: {0}", exception);
+        }
+    }
+
+    static String redactResponse(String response) {
+        Matcher matcher = ATTRIBUTE_ELEMENT.matcher(response);
+        StringBuffer sb = null;
+        while (matcher.find()) {
+            if (SapUMESpmlWriter.isPasswordAttribute(matcher.group(2))) {
+                if (sb == null) {
+                    sb = new StringBuffer(response.length());
+                }
+                String redacted = matcher.group().substring(0, matcher.start(3) - matcher.start())
+                        + VALUE_CONTENT.matcher(matcher.group(3)).replaceAll("$1" + HIDDEN_PASSWORD)
+                        + matcher.group().substring(matcher.end(3) - matcher.start());
+                matcher.appendReplacement(sb, Matcher.quoteReplacement(redacted));
+            }
+        }
+        if (sb == null) {
+            return response;
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    public class Exchange {
+
+        private final Instant start = Instant.now();
+        private final String operation;
+        private final ByteArrayOutputStream request = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream response = new ByteArrayOutputStream();
+        private boolean truncated;
+        private long duration;
+        private String error;
+
+        Exchange(String operation) {
+            this.operation = operation;
+        }
+
+        // copies the response into the capture while it is read
+        public InputStream tee(InputStream in) {
+            return new FilterInputStream(in) {
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        capture(new byte[]{(byte) b}, 0, 1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        capture(b, off, n);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        // records the exchange in the capture it was begun by, also after the connection released it
+        public void end(RuntimeException exception) {
+            SapUMEWireCapture.this.end(this, exception);
+        }
+
+        public void response(byte[] body) {
+            capture(body, 0, body.length);
+        }
+
+        public void failed(Throwable throwable) {
+            this.error = String.valueOf(throwable);
+        }
+
+        private void capture(byte[] b, int off, int len) {
+            long free = maxBytes - request.size() - response.size();
+            if (free < len) {
+                truncated = true;
+                len = (int) Math.max(0, free);
+            }
+            response.write(b, off, len);
+        }
+
+        private long size() {
+            return request.size() + response.size();
+        }
+    }
+}
@@ -2,10 +2,18 @@ package com.evolveum.polygon.connector.sap.ume.operation;
 
 import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
 import com.evolveum.polygon.connector.sap.ume.SapUMEConnection;
+import com.evolveum.polygon.connector.sap.ume.SapUMEObjectCache;
+import com.evolveum.polygon.connector.sap.ume.SapUMEObjectClass;
 import com.evolveum.polygon.connector.sap.ume.SapUMESchema;
 import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.OperationalAttributes;
 
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 public abstract class SapUMEAbstractOperation {
 
     public static final String LOG_OPERATION_CREATE = "CREATE";
@@ -39,15 +47,54 @@ public abstract class SapUMEAbstractOperation {
         LOG.info("Dispose finished");
     }
 
-    boolean isRoleAttribute(String name) {
+    // result of a request sent by connectAsync, the failure is thrown as it would be by connect
+    <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException completionException) {
+            if (completionException.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) completionException.getCause();
+            }
+            throw completionException;
+        }
+    }
+
+    // removes the written object from the object cache, called after the write also when it failed (it may be done partially),
+    // the attributes are null for a delete, which changes the memberships of the object
+    void invalidateCached(SapUMEObjectClass objectClass, String uid, Set<Attribute> attributes) {
+        SapUMEObjectCache objectCache = this.connection.getObjectCache();
+        if (objectCache == null) {
+            return;
+        }
+        boolean memberships = attributes == null;
+        boolean named = false;
+        if (attributes != null) {
+            for (Attribute attr : attributes) {
+                String attrName = objectClass.assignAttribute(attr.getName());
+                memberships |= isRoleAttribute(attrName) || isGroupAttribute(attrName) || attrName.equals(SapUMESchema.ATTRIBUTE_MEMBER);
+                named |= attrName.equals(objectClass.assignAttribute(Name.NAME));
+            }
+        }
+        objectCache.invalidate(objectClass, uid, memberships, named);
+    }
+
+    // remembers the identifier of an object which does not exist, see SapUMEObjectCache.isMissing
+    void cacheMissing(SapUMEObjectClass objectClass, String uid) {
+        SapUMEObjectCache objectCache = this.connection.getObjectCache();
+        if (objectCache != null) {
+            objectCache.putMissing(objectClass, SapUMESchema.ATTRIBUTE_ID, uid);
+        }
+    }
+
+    static boolean isRoleAttribute(String name) {
         return (name.equals(SapUMESchema.ATTRIBUTE_ASSIGNEDROLES) || name.equals(SapUMESchema.ATTRIBUTE_ALLASSIGNEDROLES));
     }
 
-    boolean isGroupAttribute(String name) {
+    static boolean isGroupAttribute(String name) {
         return (name.equals(SapUMESchema.ATTRIBUTE_ASSIGNEDGROUPS) || name.equals(SapUMESchema.ATTRIBUTE_ALLASSIGNEDGROUPS));
     }
 
-    boolean isDateAttribute(String name) {
+    static boolean isDateAttribute(String name) {
         return (name.equals(SapUMESchema.ATTRIBUTE_VALIDFROM) || name.equals(SapUMESchema.ATTRIBUTE_VALIDTO) || name.equals(OperationalAttributes.ENABLE_DATE_NAME) || name.equals(OperationalAttributes.DISABLE_DATE_NAME) || name.equals(SapUMESchema.ATTRIBUTE_LASTMODIFYDATE));
     }
 }
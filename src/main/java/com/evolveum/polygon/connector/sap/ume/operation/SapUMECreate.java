@@ -106,8 +106,13 @@ public class SapUMECreate extends SapUMEAbstractOperation {
             LOG.error("Add Request attributes can't be empty");
             backUid = null;
         } else {
-            SpmlResponse spmlResponse = super.getConnection().connect(addRequest, LOG_OPERATION_CREATE);
-            backUid = ((AddResponse) spmlResponse).getIdentifierString();
+            SpmlResponse spmlResponse;
+            try {
+                spmlResponse = super.getConnection().connect(addRequest, LOG_OPERATION_CREATE);
+                backUid = ((AddResponse) spmlResponse).getIdentifierString();
+            } finally {
+                invalidateCached(objectClass, backUid, createAttributes);
+            }
 
             if (passwordAttrAbleToChange != null && backUid != null) {
                 SapUMEUpdate update = new SapUMEUpdate(super.getConfiguration(), super.getConnection());
@@ -5,6 +5,7 @@ import com.evolveum.polygon.connector.sap.ume.SapUMEConnection;
 import com.evolveum.polygon.connector.sap.ume.SapUMEObjectClass;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.openspml.message.DeleteRequest;
 
@@ -23,7 +24,14 @@ public class SapUMEDelete extends SapUMEAbstractOperation {
         }
         DeleteRequest delReq = new DeleteRequest();
         delReq.setIdentifier(uid.getUidValue());
-        super.getConnection().connect(delReq,LOG_OPERATION_DELETE);
+        try {
+            super.getConnection().connect(delReq,LOG_OPERATION_DELETE);
+        } catch (UnknownUidException e) {
+            cacheMissing(objectClass, uid.getUidValue());
+            throw e;
+        } finally {
+            invalidateCached(objectClass, uid.getUidValue(), null);
+        }
         delReq = null;
         LOG.info("Delete finished : {0}:{1}", objectClass.toString(), uid.toString());
     }
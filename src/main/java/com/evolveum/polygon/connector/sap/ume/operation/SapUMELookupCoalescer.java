@@ -0,0 +1,240 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
+import com.evolveum.polygon.connector.sap.ume.SapUMEConnection;
+import com.evolveum.polygon.connector.sap.ume.SapUMEOperationTrace;
+import com.evolveum.polygon.connector.sap.ume.SapUMESchema;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+import org.openspml.message.Filter;
+import org.openspml.message.FilterTerm;
+import org.openspml.message.SearchRequest;
+import org.openspml.message.SearchResult;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Coalesces concurrent lookups of single objects (equality filter on the identifier or the naming attribute) into one
+// SPML search with an OR of the equality terms. The lookup opening a batch waits up to lookupBatchWindow milliseconds,
+// or until lookupBatchSize values were collected, then sends the search with its connection and passes the entries to
+// the waiting lookups by the value of the attribute, ignoring case like UME does. The batches are shared by the connector
+// instances with the same endpoint, user, object class and attributes, a failed search fails all its lookups.
+// The window is waited only while other lookups of the coalescer are running and not in the batch yet, a lookup arriving
+// alone is sent at once. A coalescer is registered only while it has lookups running. A lookup waiting for a batch sent by
+// another one longer than the window, the connect and read timeouts and FOLLOWER_TIMEOUT searches on its own.
+
+public class SapUMELookupCoalescer {
+
+    private static final Log LOG = Log.getLog(SapUMELookupCoalescer.class);
+    private static final ConcurrentMap<String, SapUMELookupCoalescer> COALESCERS = new ConcurrentHashMap<>();
+    private static final long FOLLOWER_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    private final String objectClass;
+    private final String attributeName;
+    private final List<String> attributes;
+    // lookups in progress, changed only while COALESCERS computes the entry of the coalescer
+    private final AtomicInteger active = new AtomicInteger();
+    private Batch open;
+
+    private SapUMELookupCoalescer(String objectClass, String attributeName, List<String> attributes) {
+        this.objectClass = objectClass;
+        this.attributeName = attributeName;
+        this.attributes = attributes;
+    }
+
+    // entries with the value of the attribute, the lookup opening the batch sends it
+    public static List<SearchResult> lookup(SapUMEConfiguration configuration, String objectClass, String attributeName, List<String> attributes,
+                                            String value, SapUMEConnection connection, String logOperation, SapUMEOperationTrace trace) {
+        String key = configuration.getURL() + "\n" + configuration.getUser() + "\n" + objectClass + "\n" + attributeName + "\n"
+                + String.join(",", attributes);
+        SapUMELookupCoalescer coalescer = COALESCERS.compute(key, (k, registered) -> {
+            SapUMELookupCoalescer acquired = registered != null ? registered
+                    : new SapUMELookupCoalescer(objectClass, attributeName, new ArrayList<>(attributes));
+            acquired.active.incrementAndGet();
+            return acquired;
+        });
+        try {
+            long window = toLong(configuration.getLookupBatchWindow());
+            int batchSize = configuration.getLookupBatchSize() == null ? 1 : configuration.getLookupBatchSize();
+            long timeout = window + toLong(configuration.getConnectTimeout()) + toLong(configuration.getReadTimeout()) + FOLLOWER_TIMEOUT;
+            return coalescer.lookup(value, connection, logOperation, window, batchSize, timeout, trace);
+        } finally {
+            COALESCERS.computeIfPresent(key, (k, registered) -> registered.active.decrementAndGet() > 0 ? registered : null);
+            synchronized (coalescer) {
+                // the open batch may contain all running lookups now
+                coalescer.notifyAll();
+            }
+        }
+    }
+
+    // coalescers with running lookups
+    static int getRegisteredCount() {
+        return COALESCERS.size();
+    }
+
+    private List<SearchResult> lookup(String value, SapUMEConnection connection, String logOperation, long window, int batchSize,
+                                      long timeout, SapUMEOperationTrace trace) {
+        Batch batch;
+        CompletableFuture<List<SearchResult>> result;
+        boolean leader;
+        synchronized (this) {
+            leader = open == null;
+            if (leader) {
+                open = new Batch();
+            }
+            batch = open;
+            result = batch.add(value);
+            if (batch.values.size() >= batchSize) {
+                open = null;
+            }
+            notifyAll();
+        }
+        if (leader) {
+            Throwable failure = null;
+            try {
+                awaitBatch(batch, window);
+                send(batch, connection, logOperation, trace);
+            } catch (RuntimeException | Error exception) {
+                failure = exception;
+                throw exception;
+            } finally {
+                // no waiting lookup is left behind, whatever stopped the search
+                batch.fail(failure);
+            }
+            return result.join();
+        }
+        try {
+            return result.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException iException) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorIOException(iException);
+        } catch (ExecutionException executionException) {
+            if (executionException.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) executionException.getCause();
+            }
+            throw new ConnectorException(executionException.getCause());
+        } catch (TimeoutException timeoutException) {
+            LOG.warn("Lookup of {0} {1} not answered by its batch in {2} ms, searching alone", objectClass, attributeName, timeout);
+            Batch alone = new Batch();
+            CompletableFuture<List<SearchResult>> aloneResult = alone.add(value);
+            try {
+                send(alone, connection, logOperation, trace);
+            } finally {
+                alone.fail(null);
+            }
+            return aloneResult.join();
+        }
+    }
+
+    // waits for the end of the window unless the batch was closed as full or all running lookups are in it
+    private synchronized void awaitBatch(Batch batch, long window) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(window);
+        try {
+            while (open == batch && active.get() > batch.lookups) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        } catch (InterruptedException iException) {
+            // the batch is sent anyway, the other lookups wait for it
+            Thread.currentThread().interrupt();
+        }
+        if (open == batch) {
+            open = null;
+        }
+    }
+
+    private void send(Batch batch, SapUMEConnection connection, String logOperation, SapUMEOperationTrace trace) {
+        Map<String, List<SearchResult>> entries = new LinkedHashMap<>();
+        for (String key : batch.values.keySet()) {
+            entries.put(key, new ArrayList<>());
+        }
+        LOG.ok("Lookup of {0} {1} values of {2} in one search", objectClass, batch.values.size(), attributeName);
+        connection.search(createRequest(batch.values.values()), logOperation, searchResult -> {
+            String value = getValue(searchResult);
+            List<SearchResult> list = value != null ? entries.get(value.toLowerCase(Locale.ROOT)) : null;
+            if (list != null) {
+                list.add(searchResult);
+            }
+            return true;
+        }, trace);
+        for (Map.Entry<String, CompletableFuture<List<SearchResult>>> result : batch.results.entrySet()) {
+            result.getValue().complete(entries.get(result.getKey()));
+        }
+    }
+
+    private SearchRequest createRequest(Iterable<String> values) {
+        List<FilterTerm> terms = new ArrayList<>();
+        for (String value : values) {
+            FilterTerm term = new FilterTerm();
+            term.setOperation(FilterTerm.OP_EQUAL);
+            term.setName(attributeName);
+            term.setValue(value);
+            terms.add(term);
+        }
+        Filter filter = new Filter();
+        if (terms.size() == 1) {
+            filter.addTerm(terms.get(0));
+        } else {
+            FilterTerm or = new FilterTerm();
+            or.setOperation(FilterTerm.OP_OR);
+            for (FilterTerm term : terms) {
+                or.addOperand(term);
+            }
+            filter.addTerm(or);
+        }
+        SearchRequest searchRequest = new SearchRequest();
+        searchRequest.setSearchBase(objectClass);
+        searchRequest.setFilter(filter);
+        searchRequest.setAttributes(new ArrayList<>(attributes));
+        return searchRequest;
+    }
+
+    private String getValue(SearchResult searchResult) {
+        Object value = searchResult.getAttributeValue(attributeName);
+        if (value == null && SapUMESchema.ATTRIBUTE_ID.equals(attributeName) && searchResult.getIdentifier() != null) {
+            value = searchResult.getIdentifier().getId();
+        }
+        return value instanceof String ? (String) value : null;
+    }
+
+    private static long toLong(Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    // values and results of one batch by the lower case value, guarded by the coalescer until the batch is sent
+    private static class Batch {
+
+        private final Map<String, String> values = new LinkedHashMap<>();
+        private final Map<String, CompletableFuture<List<SearchResult>>> results = new LinkedHashMap<>();
+        private int lookups;
+
+        CompletableFuture<List<SearchResult>> add(String value) {
+            lookups++;
+            values.putIfAbsent(value.toLowerCase(Locale.ROOT), value);
+            return results.computeIfAbsent(value.toLowerCase(Locale.ROOT), k -> new CompletableFuture<>());
+        }
+
+        // completes the results the search did not complete
+        void fail(Throwable failure) {
+            for (CompletableFuture<List<SearchResult>> result : results.values()) {
+                if (!result.isDone()) {
+                    result.completeExceptionally(failure != null ? failure : new ConnectorException("Batched lookup was not sent"));
+                }
+            }
+        }
+    }
+}
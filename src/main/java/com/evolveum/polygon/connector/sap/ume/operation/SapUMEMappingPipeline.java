@@ -0,0 +1,95 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMESearchResultHandler;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.openspml.message.SearchResult;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+// Maps the search result entries to ConnectorObjects in the mapping threads of the configuration (see SapUMEExecutors,
+// shared by all queries) while the response is read. The entries are
+// passed to the handler in the thread reading the response (the caller), in the order in which they were read: the mapped
+// objects wait in a reorder buffer of BUFFER_PER_THREAD entries per thread until all entries before them were handled.
+// When the buffer is full the reader waits for its oldest entry, so a slow mapping or handler slows down the reading.
+// Closing the pipeline cancels only the mapping of its own entries.
+
+public class SapUMEMappingPipeline implements SapUMESearchResultHandler, AutoCloseable {
+
+    private static final Log LOG = Log.getLog(SapUMEMappingPipeline.class);
+    private static final int BUFFER_PER_THREAD = 64;
+
+    private final ExecutorService executor;
+    private final Function<SearchResult, ConnectorObject> mapper;
+    private final ResultsHandler handler;
+    private final int capacity;
+    private final Deque<Future<ConnectorObject>> buffer = new ArrayDeque<>();
+    private boolean stopped;
+
+    public SapUMEMappingPipeline(ExecutorService executor, int threads, Function<SearchResult, ConnectorObject> mapper, ResultsHandler handler) {
+        this.executor = executor;
+        this.mapper = mapper;
+        this.handler = handler;
+        this.capacity = threads * BUFFER_PER_THREAD;
+    }
+
+    @Override
+    public boolean handle(SearchResult searchResult) {
+        if (stopped) {
+            return false;
+        }
+        buffer.addLast(executor.submit(() -> mapper.apply(searchResult)));
+        // the mapped objects at the head are handled at once, a full buffer waits for its head
+        while (!buffer.isEmpty() && (buffer.size() >= capacity || buffer.peekFirst().isDone())) {
+            if (!deliver(buffer.removeFirst())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // handles the entries still in the buffer, called when the response was read completely
+    public void finish() {
+        while (!stopped && !buffer.isEmpty()) {
+            deliver(buffer.removeFirst());
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Future<ConnectorObject> future : buffer) {
+            future.cancel(true);
+        }
+        buffer.clear();
+    }
+
+    private boolean deliver(Future<ConnectorObject> future) {
+        ConnectorObject connectorObject;
+        try {
+            connectorObject = future.get();
+        } catch (InterruptedException iException) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorIOException(iException);
+        } catch (ExecutionException executionException) {
+            if (executionException.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) executionException.getCause();
+            }
+            throw new ConnectorException(executionException.getCause());
+        }
+        if (!handler.handle(connectorObject)) {
+            LOG.ok("Mapping stopped by the handler, {0} mapped entries dropped", buffer.size());
+            stopped = true;
+            close();
+            return false;
+        }
+        return true;
+    }
+}
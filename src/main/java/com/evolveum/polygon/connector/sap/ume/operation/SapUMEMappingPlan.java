@@ -0,0 +1,222 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
+import com.evolveum.polygon.connector.sap.ume.SapUMEDateHelper;
+import com.evolveum.polygon.connector.sap.ume.SapUMEObjectClass;
+import com.evolveum.polygon.connector.sap.ume.SapUMESchema;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.openspml.message.Attribute;
+import org.openspml.message.SearchResult;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.evolveum.polygon.connector.sap.ume.operation.SapUMEAbstractOperation.isDateAttribute;
+import static com.evolveum.polygon.connector.sap.ume.operation.SapUMEAbstractOperation.isGroupAttribute;
+import static com.evolveum.polygon.connector.sap.ume.operation.SapUMEAbstractOperation.isRoleAttribute;
+import static org.identityconnectors.common.StringUtil.isBlank;
+
+// Mapping of SPML search results to ConnectorObjects compiled once for an object class and a list of attributes.
+// The kind of every attribute (multi-valued, date, lock, identifier, name or simple) is decided when the plan is
+// compiled, mapping an entry reads the attribute values of the entry in one pass (openspml looks up every attribute by
+// a scan of the entry) and runs the converters of the attributes in order. The plans are cached, a query with the same
+// attributes uses the same plan.
+
+public class SapUMEMappingPlan {
+
+    private static final Log LOG = Log.getLog(SapUMEMappingPlan.class);
+    private static final ConcurrentMap<String, SapUMEMappingPlan> PLANS = new ConcurrentHashMap<>();
+    private static final int MAX_PLANS = 64;
+
+    private final Converter[] converters;
+    // positions of the converters of every attribute name, an attribute may be requested more than once
+    private final Map<String, int[]> positions;
+
+    private SapUMEMappingPlan(Converter[] converters, Map<String, int[]> positions) {
+        this.converters = converters;
+        this.positions = positions;
+    }
+
+    public static SapUMEMappingPlan forAttributes(SapUMEObjectClass objectClass, List<String> attributes) {
+        boolean account = objectClass.isAccount();
+        String key = (account ? "account" : "roleOrGroup") + "\n" + String.join("\n", attributes);
+        SapUMEMappingPlan plan = PLANS.get(key);
+        if (plan == null) {
+            if (PLANS.size() >= MAX_PLANS) {
+                PLANS.clear();
+            }
+            plan = PLANS.computeIfAbsent(key, k -> compile(account, attributes));
+        }
+        return plan;
+    }
+
+    public ConnectorObject map(SearchResult searchResult, SapUMEConfiguration configuration) {
+        Object[] values = new Object[converters.length];
+        boolean[] read = new boolean[converters.length];
+        List<Attribute> attributes = searchResult.getAttributes();
+        if (attributes != null) {
+            for (Attribute attribute : attributes) {
+                int[] attributePositions = positions.get(attribute.getName());
+                // the first attribute with the name wins, like in SearchResult.getAttributeValue
+                if (attributePositions != null && !read[attributePositions[0]]) {
+                    for (int position : attributePositions) {
+                        values[position] = attribute.getValue();
+                        read[position] = true;
+                    }
+                }
+            }
+        }
+        ConnectorObjectBuilder objectBuilder = new ConnectorObjectBuilder();
+        for (int i = 0; i < converters.length; i++) {
+            converters[i].convert(searchResult, values[i], objectBuilder, configuration);
+        }
+        return objectBuilder.build();
+    }
+
+    private static SapUMEMappingPlan compile(boolean account, List<String> attributes) {
+        Converter[] converters = new Converter[attributes.size()];
+        Map<String, int[]> positions = new HashMap<>();
+        for (int i = 0; i < converters.length; i++) {
+            String attributeName = attributes.get(i);
+            converters[i] = account ? compileUser(attributeName) : compileRoleAndGroup(attributeName);
+            int[] attributePositions = positions.get(attributeName);
+            attributePositions = attributePositions == null ? new int[1] : Arrays.copyOf(attributePositions, attributePositions.length + 1);
+            attributePositions[attributePositions.length - 1] = i;
+            positions.put(attributeName, attributePositions);
+        }
+        LOG.ok("Mapping plan compiled for {0} attributes", converters.length);
+        return new SapUMEMappingPlan(converters, positions);
+    }
+
+    private static Converter compileUser(String attributeName) {
+        if (isRoleAttribute(attributeName) || isGroupAttribute(attributeName) || attributeName.equals(SapUMESchema.ATTRIBUTE_CERTIFICATE)) {
+            return (searchResult, value, objectBuilder, configuration) -> {
+                AttributeBuilder abuilder = new AttributeBuilder();
+                abuilder.setName(attributeName);
+                addValues(abuilder, value, false);
+                objectBuilder.addAttribute(abuilder.build());
+            };
+        } else if (isDateAttribute(attributeName)) {
+            String name;
+            if (attributeName.equals(SapUMESchema.ATTRIBUTE_VALIDFROM)) {
+                name = OperationalAttributes.ENABLE_DATE_NAME;
+            } else if (attributeName.equals(SapUMESchema.ATTRIBUTE_VALIDTO)) {
+                name = OperationalAttributes.DISABLE_DATE_NAME;
+            } else {
+                name = attributeName;
+            }
+            return (searchResult, value, objectBuilder, configuration) -> {
+                AttributeBuilder abuilder = new AttributeBuilder();
+                abuilder.setName(name);
+                String date = (String) value;
+                if (!isBlank(date)) {
+                    try {
+                        abuilder.addValue(convertDate(date, configuration));
+                    } catch (Exception e) {
+                        LOG.error(e, "Error in build user ume time, value : " + date);
+                    }
+                }
+                objectBuilder.addAttribute(abuilder.build());
+            };
+        } else if (attributeName.equals(SapUMESchema.ATTRIBUTE_ISLOCKED)) {
+            return (searchResult, value, objectBuilder, configuration) -> {
+                AttributeBuilder abuilder = new AttributeBuilder();
+                abuilder.setName(OperationalAttributes.LOCK_OUT_NAME);
+                abuilder.addValue(Boolean.parseBoolean((String) value));
+                objectBuilder.addAttribute(abuilder.build());
+            };
+        } else if (attributeName.equals(SapUMESchema.ATTRIBUTE_ID)) {
+            return (searchResult, value, objectBuilder, configuration) -> {
+                objectBuilder.setUid((String) value);
+                objectBuilder.addAttribute(buildSimple(attributeName, value));
+            };
+        } else if (attributeName.equals(SapUMESchema.ATTRIBUTE_LOGONNAME)) {
+            return (searchResult, value, objectBuilder, configuration) -> objectBuilder.setName((String) value);
+        } else if (attributeName.equals(Name.NAME)) {
+            return (searchResult, value, objectBuilder, configuration) -> {
+            };
+        }
+        return (searchResult, value, objectBuilder, configuration) ->
+                objectBuilder.addAttribute(buildSimple(attributeName, value));
+    }
+
+    private static Converter compileRoleAndGroup(String attributeName) {
+        if (isRoleAttribute(attributeName) || attributeName.equals(SapUMESchema.ATTRIBUTE_MEMBER)) {
+            return (searchResult, value, objectBuilder, configuration) -> {
+                AttributeBuilder abuilder = new AttributeBuilder();
+                abuilder.setName(attributeName);
+                addValues(abuilder, value, true);
+                objectBuilder.addAttribute(abuilder.build());
+            };
+        } else if (isDateAttribute(attributeName)) {
+            return (searchResult, value, objectBuilder, configuration) -> {
+                String date = (String) value;
+                if (!isBlank(date)) {
+                    try {
+                        AttributeBuilder abuilder = new AttributeBuilder();
+                        abuilder.setName(attributeName);
+                        abuilder.addValue(convertDate(date, configuration));
+                        objectBuilder.addAttribute(abuilder.build());
+                    } catch (Exception e) {
+                        LOG.error(e, "Error in build group ume time, value : " + date);
+                    }
+                }
+            };
+        } else if (attributeName.equals(SapUMESchema.ATTRIBUTE_ID)) {
+            return (searchResult, value, objectBuilder, configuration) -> {
+                objectBuilder.addAttribute(buildSimple(attributeName, value));
+                //bug finding group by id
+                objectBuilder.setUid((String) (value != null ? value : searchResult.getIdentifier().getId()));
+            };
+        } else if (attributeName.equals(SapUMESchema.ATTRIBUTE_UNIQUENAME)) {
+            return (searchResult, value, objectBuilder, configuration) -> {
+                objectBuilder.setName((String) value);
+                objectBuilder.addAttribute(buildSimple(attributeName, value));
+            };
+        } else if (attributeName.equals(Name.NAME)) {
+            return (searchResult, value, objectBuilder, configuration) -> {
+            };
+        }
+        return (searchResult, value, objectBuilder, configuration) ->
+                objectBuilder.addAttribute(buildSimple(attributeName, value));
+    }
+
+    // a missing value is an empty attribute for users, an attribute with a null value for roles and groups
+    private static void addValues(AttributeBuilder abuilder, Object value, boolean nullValue) {
+        if (value instanceof Collection) {
+            abuilder.addValue((Collection<?>) value);
+        } else if (value != null || nullValue) {
+            abuilder.addValue(value);
+        } else {
+            abuilder.addValue(Collections.emptyList());
+        }
+    }
+
+    private static org.identityconnectors.framework.common.objects.Attribute buildSimple(String attributeName, Object value) {
+        AttributeBuilder abuilder = new AttributeBuilder();
+        abuilder.setName(attributeName);
+        abuilder.addValue(value);
+        return abuilder.build();
+    }
+
+    private static Long convertDate(String value, SapUMEConfiguration configuration) {
+        return SapUMEDateHelper.convertDateToLong(SapUMEDateHelper.convertUmeStringToDate(value, configuration));
+    }
+
+    private interface Converter {
+
+        // value is the value of the attribute in the entry
+        void convert(SearchResult searchResult, Object value, ConnectorObjectBuilder objectBuilder, SapUMEConfiguration configuration);
+    }
+}
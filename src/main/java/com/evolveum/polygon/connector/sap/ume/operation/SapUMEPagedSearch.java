@@ -0,0 +1,333 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
+import com.evolveum.polygon.connector.sap.ume.SapUMEConnection;
+import com.evolveum.polygon.connector.sap.ume.SapUMEOperationTrace;
+import com.evolveum.polygon.connector.sap.ume.SapUMEPageCache;
+import com.evolveum.polygon.connector.sap.ume.SapUMESearchResultHandler;
+import com.evolveum.polygon.connector.sap.ume.SapUMESpmlWriter;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.openspml.message.SearchRequest;
+import org.openspml.message.SearchResponse;
+import org.openspml.message.SearchResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Paged search. SPML 1.0 has no paging, so the pages are cut out of partitions searched one after another, one partition
+// per character of fullSearchStringPattern for a full search (see SapUMEPartitionPlanner.planPages) or the filter of the
+// query as the only partition. The entries of a partition are sorted by the naming attribute and the cookie holds the
+// partition and the name of the last returned entry, so the next page continues after that name even when objects were
+// created or deleted in the meantime. A partition not returned completely is kept in the page cache of the connection
+// (see SapUMEPageCache) by its search base, filter and attributes, with pagePrefetch the partition following the page is
+// requested while the handler processes the page. The server returns the entries unsorted, so a partition is always read
+// completely, but one larger than pageCacheMaxBytes (or any with the cache disabled) is not collected: only the first
+// entries after the cookie up to the end of the page are kept in a heap while the response is streamed. Such a partition,
+// e.g. the result of a large filtered search, is searched again for every page. The partition statistics are saved only when the page was searched
+// without failure. The remaining count is exact for the fetched partitions and estimated from the partition
+// statistics for the others, it is -1 when there is no estimate.
+
+public class SapUMEPagedSearch {
+
+    private static final Log LOG = Log.getLog(SapUMEPagedSearch.class);
+    private static final char COOKIE_SEPARATOR = '\n';
+
+    private final SapUMEConnection connection;
+    private final SapUMEPageCache cache;
+    // cache keys of the partitions of this search
+    private final Map<SearchRequest, String> cacheKeys = new IdentityHashMap<>();
+    private final String namingAttribute;
+    private final boolean prefetch;
+    private final Comparator<SearchResult> byName = Comparator.comparing(this::getName);
+
+    public SapUMEPagedSearch(SapUMEConfiguration configuration, SapUMEConnection connection, String namingAttribute) {
+        this.connection = connection;
+        this.cache = connection.getPageCache();
+        this.namingAttribute = namingAttribute;
+        this.prefetch = Boolean.TRUE.equals(configuration.getPagePrefetch());
+    }
+
+    // partitions in the order of the pages, the planner (null for a filtered search) records and estimates their counts,
+    // the offset (starting with 1) is used only without cookie, the handler returning false stops the page
+    public org.identityconnectors.framework.common.objects.SearchResult search(LinkedHashMap<String, SearchRequest> partitions,
+                                                                              SapUMEPartitionPlanner planner, String cookie, Integer offset,
+                                                                              int pageSize, String logOperation, SapUMESearchResultHandler handler,
+                                                                              SapUMEOperationTrace trace) {
+        List<String> keys = new ArrayList<>(partitions.keySet());
+        int index = 0;
+        String lastName = null;
+        if (cookie != null) {
+            String decoded = new String(decodeCookie(cookie), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(COOKIE_SEPARATOR);
+            index = keys.indexOf(separator < 0 ? decoded : decoded.substring(0, separator));
+            if (index < 0) {
+                throw new InvalidAttributeValueException("Paged results cookie " + cookie + " does not match the search");
+            }
+            lastName = separator < 0 ? null : decoded.substring(separator + 1);
+        }
+        long skip = cookie == null && offset != null && offset > 1 ? offset - 1 : 0;
+        LOG.ok("Paged search start, page size {0}, partition {1} of {2}, offset {3}", pageSize, index + 1, keys.size(), skip + 1);
+
+        int returned = 0;
+        for (; index < keys.size(); index++) {
+            String key = keys.get(index);
+            SearchRequest request = partitions.get(key);
+            Partition partition = getPartition(key, request, lastName, skip + pageSize - returned, planner, logOperation, trace);
+            List<SearchResult> entries = partition.entries;
+            int position = partition.start;
+            lastName = null;
+            if (skip > 0) {
+                int skipped = (int) Math.min(skip, partition.end - position);
+                position += skipped;
+                skip -= skipped;
+            }
+            while (position < partition.end && returned < pageSize) {
+                SearchResult entry = entries.get(position++);
+                returned++;
+                if (!handler.handle(entry)) {
+                    LOG.ok("Paged search stopped by the handler after {0} entries", returned);
+                    finished(planner);
+                    return createResult(keys, index, partition, position, planner, partitions);
+                }
+            }
+            if (returned >= pageSize) {
+                if (position >= partition.end) {
+                    uncache(request);
+                }
+                org.identityconnectors.framework.common.objects.SearchResult result = createResult(keys, index, partition, position,
+                        planner, partitions);
+                if (prefetch && cache.getMaxBytes() > 0 && index + 1 < keys.size()) {
+                    prefetch(partitions.get(keys.get(index + 1)), logOperation);
+                }
+                finished(planner);
+                LOG.ok("Paged search finished, {0} entries, remaining {1}", returned, result.getRemainingPagedResults());
+                return result;
+            }
+            uncache(request);
+        }
+        finished(planner);
+        LOG.ok("Paged search finished, {0} entries, last page", returned);
+        return new org.identityconnectors.framework.common.objects.SearchResult(null, 0, true);
+    }
+
+    // the cookie points after the last returned entry, to the next partition when the current one was returned completely
+    private org.identityconnectors.framework.common.objects.SearchResult createResult(List<String> keys, int index, Partition partition,
+                                                                                     int position, SapUMEPartitionPlanner planner,
+                                                                                     Map<String, SearchRequest> partitions) {
+        String cookie;
+        if (position < partition.end) {
+            cookie = keys.get(index) + COOKIE_SEPARATOR + getName(partition.entries.get(position - 1));
+        } else if (index + 1 < keys.size()) {
+            cookie = keys.get(index + 1);
+        } else {
+            return new org.identityconnectors.framework.common.objects.SearchResult(null, 0, true);
+        }
+        long remaining = partition.end - position;
+        for (int i = index + 1; i < keys.size() && remaining >= 0; i++) {
+            long count = getCachedCount(partitions.get(keys.get(i)));
+            if (count < 0 && planner != null) {
+                count = planner.getEstimatedCount(keys.get(i));
+            }
+            remaining = count < 0 ? -1 : remaining + count;
+        }
+        String encoded = Base64.getUrlEncoder().withoutPadding().encodeToString(cookie.getBytes(StandardCharsets.UTF_8));
+        return new org.identityconnectors.framework.common.objects.SearchResult(encoded, (int) Math.min(Integer.MAX_VALUE, remaining), false);
+    }
+
+    // a failed search does not save the statistics, the partitions completed before the failure are saved by the next one
+    private static void finished(SapUMEPartitionPlanner planner) {
+        if (planner != null) {
+            planner.finished();
+        }
+    }
+
+    // the partition from the cache or searched, needed is the number of entries after lastName the page can return
+    private Partition getPartition(String key, SearchRequest request, String lastName, long needed, SapUMEPartitionPlanner planner,
+                                   String logOperation, SapUMEOperationTrace trace) {
+        CompletableFuture<List<SearchResult>> cached = cache.get(getCacheKey(request));
+        if (cached != null) {
+            try {
+                List<SearchResult> entries = cached.join();
+                LOG.ok("Partition {0} of paged search taken from cache, {1} entries", key, entries.size());
+                return new Partition(entries, lastName == null ? 0 : findAfter(entries, lastName), entries.size());
+            } catch (CompletionException exception) {
+                // a failed prefetch is repeated
+                LOG.warn("Prefetch of partition {0} failed, searching again: {1}", key, exception.getCause());
+                uncache(request);
+            }
+        }
+        long start = System.currentTimeMillis();
+        PartitionCollector collector = new PartitionCollector(lastName, needed, cache.getMaxBytes());
+        connection.search(request, logOperation, collector, trace);
+        long millis = System.currentTimeMillis() - start;
+        if (planner != null) {
+            planner.completed(key, collector.count, millis);
+        }
+        if (collector.entries == null) {
+            List<SearchResult> first = new ArrayList<>(collector.first);
+            sort(first);
+            LOG.ok("Partition {0} of paged search not cached, {1} entries, {2} kept for the page", key, collector.count, first.size());
+            return new Partition(first, 0, collector.after);
+        }
+        List<SearchResult> entries = collector.entries;
+        sort(entries);
+        cache.put(getCacheKey(request), CompletableFuture.completedFuture(entries));
+        return new Partition(entries, lastName == null ? 0 : findAfter(entries, lastName), entries.size());
+    }
+
+    private void prefetch(SearchRequest request, String logOperation) {
+        String cacheKey = getCacheKey(request);
+        if (cache.get(cacheKey) != null) {
+            return;
+        }
+        CompletableFuture<List<SearchResult>> entries;
+        try {
+            entries = connection.connectAsync(request, logOperation).thenApply(response -> {
+                List<SearchResult> results = ((SearchResponse) response).getResults();
+                List<SearchResult> sorted = results == null ? new ArrayList<>() : new ArrayList<>(results);
+                sort(sorted);
+                return sorted;
+            });
+        } catch (RuntimeException exception) {
+            // the next page searches the partition itself
+            LOG.warn("Prefetch of the next page failed: {0}", exception);
+            return;
+        }
+        cache.putIfAbsent(cacheKey, entries);
+    }
+
+    // -1 when the partition was not fetched yet
+    private long getCachedCount(SearchRequest request) {
+        CompletableFuture<List<SearchResult>> cached = cache.get(getCacheKey(request));
+        if (cached == null || !cached.isDone() || cached.isCompletedExceptionally()) {
+            return -1;
+        }
+        return cached.join().size();
+    }
+
+    private void uncache(SearchRequest request) {
+        cache.remove(getCacheKey(request));
+    }
+
+    // the cache is shared by the connector instances of the URL and user only, the search itself is the key
+    private String getCacheKey(SearchRequest request) {
+        return cacheKeys.computeIfAbsent(request, SapUMESpmlWriter::getSearchKey);
+    }
+
+    private void sort(List<SearchResult> entries) {
+        entries.sort(byName);
+    }
+
+    // index of the first entry with a name greater than the given one
+    private int findAfter(List<SearchResult> entries, String name) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getName(entries.get(middle)).compareTo(name) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private String getName(SearchResult entry) {
+        Object value = entry.getAttributeValue(namingAttribute);
+        if (value instanceof List && !((List<?>) value).isEmpty()) {
+            value = ((List<?>) value).get(0);
+        }
+        if (value == null && entry.getIdentifier() != null) {
+            value = entry.getIdentifier().getId();
+        }
+        return value == null ? "" : value.toString();
+    }
+
+    // sorted entries of a partition from start, end is the position after its last entry, beyond the list when only
+    // the entries up to the end of the page were kept
+    private static class Partition {
+
+        private final List<SearchResult> entries;
+        private final int start;
+        private final long end;
+
+        Partition(List<SearchResult> entries, int start, long end) {
+            this.entries = entries;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    // collects all entries of the searched partition while they fit in the page cache, then only the needed entries after
+    // lastName with the smallest names, in a heap with the greatest of them on top
+    private class PartitionCollector implements SapUMESearchResultHandler {
+
+        private final String lastName;
+        private final long needed;
+        private final long maxBytes;
+        private final PriorityQueue<SearchResult> first = new PriorityQueue<>(byName.reversed());
+        // null when the partition is not cached
+        private List<SearchResult> entries;
+        private long bytes;
+        private int count;
+        // entries after lastName
+        private long after;
+
+        PartitionCollector(String lastName, long needed, long maxBytes) {
+            this.lastName = lastName;
+            this.needed = needed;
+            this.maxBytes = maxBytes;
+            this.entries = maxBytes > 0 ? new ArrayList<>() : null;
+        }
+
+        @Override
+        public boolean handle(SearchResult entry) {
+            count++;
+            if (entries == null) {
+                keep(entry);
+                return true;
+            }
+            entries.add(entry);
+            bytes += SapUMEPageCache.estimateBytes(entry);
+            if (bytes > maxBytes) {
+                for (SearchResult collected : entries) {
+                    keep(collected);
+                }
+                entries = null;
+            }
+            return true;
+        }
+
+        private void keep(SearchResult entry) {
+            if (lastName != null && getName(entry).compareTo(lastName) <= 0) {
+                return;
+            }
+            after++;
+            if (first.size() < needed) {
+                first.add(entry);
+            } else if (needed > 0 && byName.compare(entry, first.peek()) < 0) {
+                first.poll();
+                first.add(entry);
+            }
+        }
+    }
+
+    private static byte[] decodeCookie(String cookie) {
+        try {
+            return Base64.getUrlDecoder().decode(cookie);
+        } catch (IllegalArgumentException exception) {
+            throw new InvalidAttributeValueException("Invalid paged results cookie " + cookie, exception);
+        }
+    }
+}
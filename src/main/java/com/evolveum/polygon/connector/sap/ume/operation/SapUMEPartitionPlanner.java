@@ -0,0 +1,267 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+import org.openspml.message.Filter;
+import org.openspml.message.FilterTerm;
+import org.openspml.message.SearchRequest;
+import org.openspml.message.SearchResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Plan of the partitioned full search. A partition contains the objects with the naming attribute starting with a prefix,
+// the plan starts with one partition per character of fullSearchStringPattern. A prefix which returned more than
+// partitionSplitThreshold entries or took longer than partitionSplitTime in an earlier search is split into the prefixes
+// one character longer and a rest partition (the prefix but none of the longer ones, so names with other characters
+// are not lost), recursively up to MAX_PREFIX_LENGTH characters. A partition failing with a timeout is split at once
+// and is split in all later searches. The counts of a split prefix are the sums of its parts, so it is merged again
+// when it shrinks. The observed counts and times are kept in SapUMEPartitionStatistics for the next search.
+
+public class SapUMEPartitionPlanner {
+
+    private static final Log LOG = Log.getLog(SapUMEPartitionPlanner.class);
+    private static final int MAX_PREFIX_LENGTH = 3;
+    private static final String REST_SUFFIX = "*";
+
+    private final SapUMEPartitionStatistics statistics;
+    private final String objectClass;
+    private final String attributeName;
+    private final Set<Character> alphabet = new LinkedHashSet<>();
+    private final List<String> attributes;
+    private final long splitThreshold;
+    private final long splitTime;
+    // counts and times of the partitions searched by this plan
+    private final Map<String, long[]> results = new HashMap<>();
+    private final Set<String> splitPrefixes = new HashSet<>();
+
+    public SapUMEPartitionPlanner(SapUMEConfiguration configuration, String objectClass, String attributeName, List<String> attributes) {
+        this.statistics = SapUMEPartitionStatistics.forConfiguration(configuration);
+        this.objectClass = objectClass;
+        this.attributeName = attributeName;
+        this.attributes = attributes;
+        for (char c : configuration.getFullSearchStringPattern().toCharArray()) {
+            alphabet.add(c);
+        }
+        this.splitThreshold = configuration.getPartitionSplitThreshold() == null ? 0 : configuration.getPartitionSplitThreshold();
+        this.splitTime = configuration.getPartitionSplitTime() == null ? 0 : configuration.getPartitionSplitTime();
+    }
+
+    public List<Partition> plan() {
+        List<Partition> partitions = new ArrayList<>();
+        for (char c : alphabet) {
+            plan(String.valueOf(c), partitions);
+        }
+        LOG.ok("Full search of {0} planned with {1} partitions", objectClass, partitions.size());
+        return partitions;
+    }
+
+    // one partition per character, a paged search needs the same partitions for all its pages
+    public List<Partition> planPages() {
+        List<Partition> partitions = new ArrayList<>();
+        for (char c : alphabet) {
+            partitions.add(new Partition(String.valueOf(c), false, false));
+        }
+        return partitions;
+    }
+
+    private void plan(String prefix, List<Partition> partitions) {
+        if (!shouldSplit(prefix)) {
+            partitions.add(new Partition(prefix, false, true));
+            return;
+        }
+        splitPrefixes.add(prefix);
+        for (char c : alphabet) {
+            plan(prefix + c, partitions);
+        }
+        partitions.add(new Partition(prefix, true, false));
+    }
+
+    private boolean shouldSplit(String prefix) {
+        if (prefix.length() >= MAX_PREFIX_LENGTH || statistics.isRestUnsupported()) {
+            return false;
+        }
+        SapUMEPartitionStatistics.Entry entry = statistics.get(objectClass, prefix);
+        return entry != null && (entry.isTimeout() || (splitThreshold > 0 && entry.getCount() > splitThreshold)
+                || (splitTime > 0 && entry.getMillis() > splitTime));
+    }
+
+    public void completed(Partition partition, long count, long millis) {
+        completed(partition.getKey(), count, millis);
+    }
+
+    public void completed(String key, long count, long millis) {
+        results.put(key, new long[]{count, millis});
+        statistics.put(objectClass, key, count, millis, false);
+    }
+
+    // count of the entries from the last search of the partition, -1 when not known
+    public long getEstimatedCount(String key) {
+        SapUMEPartitionStatistics.Entry entry = statistics.get(objectClass, key);
+        return entry == null ? -1 : entry.getCount();
+    }
+
+    // partitions replacing the failed one, null when splitting does not help
+    public List<Partition> split(Partition partition, long count, long millis, RuntimeException exception) {
+        if (partition.isRest() && !(exception instanceof ConnectorIOException) && !(exception instanceof OperationTimeoutException)) {
+            LOG.warn("Filter of rest partition {0} not supported by the server, prefixes are not split any more: {1}", partition.getKey(), exception);
+            statistics.setRestUnsupported();
+            return Collections.singletonList(new Partition(partition.getPrefix(), false, false, true));
+        }
+        if (!(exception instanceof OperationTimeoutException) || partition.isRest() || !partition.isSplittable()
+                || partition.getPrefix().length() >= MAX_PREFIX_LENGTH || statistics.isRestUnsupported()) {
+            return null;
+        }
+        LOG.info("Partition {0} of {1} timed out after {2} entries, splitting", partition.getKey(), objectClass, count);
+        statistics.put(objectClass, partition.getPrefix(), count, millis, true);
+        splitPrefixes.add(partition.getPrefix());
+        List<Partition> partitions = new ArrayList<>();
+        for (char c : alphabet) {
+            partitions.add(new Partition(partition.getPrefix() + c, false, true));
+        }
+        partitions.add(new Partition(partition.getPrefix(), true, false));
+        return partitions;
+    }
+
+    // UME compares the prefixes ignoring case, with two characters differing only in case the partitions overlap
+    public boolean hasOverlappingPrefixes() {
+        Set<Character> lowerCase = new HashSet<>();
+        for (char c : alphabet) {
+            if (!lowerCase.add(Character.toLowerCase(c))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // called when all partitions were searched, the statistics are saved
+    public void finished() {
+        List<String> prefixes = new ArrayList<>(splitPrefixes);
+        prefixes.sort(Comparator.comparingInt(String::length).reversed());
+        for (String prefix : prefixes) {
+            long[] sum = results.get(prefix + REST_SUFFIX);
+            if (sum == null) {
+                continue;
+            }
+            sum = sum.clone();
+            for (char c : alphabet) {
+                long[] result = results.get(prefix + c);
+                if (result == null) {
+                    sum = null;
+                    break;
+                }
+                sum[0] += result[0];
+                sum[1] += result[1];
+            }
+            if (sum != null) {
+                SapUMEPartitionStatistics.Entry entry = statistics.get(objectClass, prefix);
+                results.put(prefix, sum);
+                statistics.put(objectClass, prefix, sum[0], sum[1], entry != null && entry.isTimeout());
+            }
+        }
+        statistics.save();
+    }
+
+    private FilterTerm createPrefixTerm(String prefix) {
+        FilterTerm term = new FilterTerm();
+        term.setOperation(FilterTerm.OP_SUBSTRINGS);
+        term.setInitialSubstring(prefix);
+        term.setName(attributeName);
+        return term;
+    }
+
+    public class Partition {
+
+        private final String prefix;
+        private final boolean rest;
+        private final boolean splittable;
+        // the longer prefixes are searched by other partitions, see isSearchedElsewhere
+        private final boolean overlapsLonger;
+
+        Partition(String prefix, boolean rest, boolean splittable) {
+            this(prefix, rest, splittable, false);
+        }
+
+        Partition(String prefix, boolean rest, boolean splittable, boolean overlapsLonger) {
+            this.prefix = prefix;
+            this.rest = rest;
+            this.splittable = splittable;
+            this.overlapsLonger = overlapsLonger;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public boolean isRest() {
+            return rest;
+        }
+
+        public boolean isSplittable() {
+            return splittable;
+        }
+
+        public String getKey() {
+            return rest ? prefix + REST_SUFFIX : prefix;
+        }
+
+        // the entry is returned also by a partition with a longer prefix, this partition replaces a rest partition
+        // whose filter the server does not support
+        public boolean isSearchedElsewhere(SearchResult searchResult) {
+            if (!overlapsLonger) {
+                return false;
+            }
+            Object value = searchResult.getAttributeValue(attributeName);
+            if (!(value instanceof String) || ((String) value).length() <= prefix.length()) {
+                return false;
+            }
+            char next = Character.toLowerCase(((String) value).charAt(prefix.length()));
+            for (char c : alphabet) {
+                if (Character.toLowerCase(c) == next) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public SearchRequest createRequest() {
+            FilterTerm term = createPrefixTerm(prefix);
+            if (rest) {
+                // prefix and not any of the longer prefixes
+                FilterTerm longer = new FilterTerm();
+                longer.setOperation(FilterTerm.OP_OR);
+                for (char c : alphabet) {
+                    longer.addOperand(createPrefixTerm(prefix + c));
+                }
+                FilterTerm not = new FilterTerm();
+                not.setOperation(FilterTerm.OP_NOT);
+                not.addOperand(longer);
+                FilterTerm and = new FilterTerm();
+                and.setOperation(FilterTerm.OP_AND);
+                and.addOperand(term);
+                and.addOperand(not);
+                term = and;
+            }
+            Filter filter = new Filter();
+            filter.addTerm(term);
+            SearchRequest searchRequest = new SearchRequest();
+            searchRequest.setSearchBase(objectClass);
+            searchRequest.setFilter(filter);
+            List<String> requestAttributes = new ArrayList<>(attributes);
+            if (overlapsLonger && !requestAttributes.contains(attributeName)) {
+                requestAttributes.add(attributeName);
+            }
+            searchRequest.setAttributes(requestAttributes);
+            return searchRequest;
+        }
+    }
+}
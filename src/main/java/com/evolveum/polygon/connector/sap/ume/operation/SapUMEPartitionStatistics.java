@@ -0,0 +1,157 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
+import org.identityconnectors.common.logging.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.identityconnectors.common.StringUtil.isBlank;
+
+// Entry counts and search times of the partitions of the full search, shared by all connector instances with the same
+// statistics file. Without a file the statistics are kept per URL for the lifetime of the JVM only.
+// The file is a properties file with keys objectClass:partition and values count,millis[,timeout], it is loaded once
+// and replaced as a whole when saved. It is saved only when a count or the timeout flag changed, or a search time changed
+// by more than half, the statistics of searches repeating the same results do not rewrite it.
+
+public class SapUMEPartitionStatistics {
+
+    private static final Log LOG = Log.getLog(SapUMEPartitionStatistics.class);
+    private static final Map<String, SapUMEPartitionStatistics> INSTANCES = new HashMap<>();
+    private static final String KEY_REST_UNSUPPORTED = "restFilterUnsupported";
+    private static final String TIMEOUT = "timeout";
+
+    private final Path file;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean restUnsupported;
+    private boolean changed;
+
+    private SapUMEPartitionStatistics(Path file) {
+        this.file = file;
+        if (file != null && Files.exists(file)) {
+            load();
+        }
+    }
+
+    public static SapUMEPartitionStatistics forConfiguration(SapUMEConfiguration configuration) {
+        String fileName = configuration.getPartitionStatisticsFile();
+        synchronized (INSTANCES) {
+            if (isBlank(fileName)) {
+                return INSTANCES.computeIfAbsent("url:" + configuration.getURL(), key -> new SapUMEPartitionStatistics(null));
+            }
+            Path path = Paths.get(fileName).toAbsolutePath();
+            return INSTANCES.computeIfAbsent("file:" + path, key -> new SapUMEPartitionStatistics(path));
+        }
+    }
+
+    public synchronized Entry get(String objectClass, String partition) {
+        return entries.get(objectClass + ":" + partition);
+    }
+
+    public synchronized void put(String objectClass, String partition, long count, long millis, boolean timeout) {
+        Entry previous = entries.put(objectClass + ":" + partition, new Entry(count, millis, timeout));
+        if (previous == null || previous.count != count || previous.timeout != timeout
+                || Math.abs(previous.millis - millis) * 2 > Math.max(previous.millis, millis)) {
+            changed = true;
+        }
+    }
+
+    // the server does not support the filter of the rest partition, prefixes can not be split
+    public synchronized boolean isRestUnsupported() {
+        return restUnsupported;
+    }
+
+    public synchronized void setRestUnsupported() {
+        if (!restUnsupported) {
+            this.restUnsupported = true;
+            this.changed = true;
+        }
+    }
+
+    public synchronized void save() {
+        if (file == null || !changed) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            properties.setProperty(entry.getKey(), value.count + "," + value.millis + (value.timeout ? "," + TIMEOUT : ""));
+        }
+        if (restUnsupported) {
+            properties.setProperty(KEY_REST_UNSUPPORTED, Boolean.TRUE.toString());
+        }
+        try {
+            Path parent = file.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                properties.store(out, "SAP UME connector full search partition statistics");
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            changed = false;
+        } catch (IOException | RuntimeException exception) {
+            // the statistics only speed up the next search
+            LOG.warn("Partition statistics not saved to {0}: {1}", file, exception);
+        }
+    }
+
+    private void load() {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (IOException exception) {
+            LOG.warn("Partition statistics not loaded from {0}: {1}", file, exception);
+            return;
+        }
+        restUnsupported = Boolean.parseBoolean(properties.getProperty(KEY_REST_UNSUPPORTED));
+        for (String key : properties.stringPropertyNames()) {
+            String[] values = properties.getProperty(key).split(",");
+            if (KEY_REST_UNSUPPORTED.equals(key) || values.length < 2) {
+                continue;
+            }
+            try {
+                entries.put(key, new Entry(Long.parseLong(values[0].trim()), Long.parseLong(values[1].trim()),
+                        values.length > 2 && TIMEOUT.equals(values[2].trim())));
+            } catch (NumberFormatException nfException) {
+                LOG.warn("Partition statistics {0} ignored: {1}", key, properties.getProperty(key));
+            }
+        }
+        LOG.ok("Loaded statistics of {0} partitions from {1}", entries.size(), file);
+    }
+
+    public static class Entry {
+
+        private final long count;
+        private final long millis;
+        private final boolean timeout;
+
+        Entry(long count, long millis, boolean timeout) {
+            this.count = count;
+            this.millis = millis;
+            this.timeout = timeout;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        // the partition did not finish in the read timeout
+        public boolean isTimeout() {
+            return timeout;
+        }
+    }
+}
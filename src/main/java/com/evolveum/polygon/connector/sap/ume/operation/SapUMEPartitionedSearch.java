@@ -0,0 +1,214 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConnection;
+import com.evolveum.polygon.connector.sap.ume.SapUMEOperationTrace;
+import com.evolveum.polygon.connector.sap.ume.SapUMESchema;
+import com.evolveum.polygon.connector.sap.ume.SapUMESearchResultHandler;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+import org.openspml.message.SearchResult;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Full search split into partitions (one SPML search request per prefix, see SapUMEPartitionPlanner) searched by the
+// search threads shared by the connector instances of the configuration, at most parallelism partitions of one search at
+// a time. The workers stream the entries into a bounded queue, so a slow ResultsHandler slows down the reading of the
+// responses instead of filling the memory. The entries are passed to the handler in the thread of the caller in the order
+// in which they arrive. A failed partition is replaced by the partitions the planner splits it into, when it can not be
+// split its exception stops the search.
+// The prefixes of the partitions do not overlap, an entry is returned twice only by the partitions replacing a failed one
+// (the entries passed before the failure are skipped by their identifiers), by a partition replacing an unsupported rest
+// partition (the entries of the longer prefixes are skipped by their names) and when the alphabet contains characters
+// differing only in case. So the identifiers of the entries are kept only for the running partitions and the failed ones
+// until their replacements finished, only with overlapping prefixes all identifiers of the search are kept.
+
+public class SapUMEPartitionedSearch {
+
+    private static final Log LOG = Log.getLog(SapUMEPartitionedSearch.class);
+    private static final int QUEUE_SIZE = 1000;
+
+    private final SapUMEConnection connection;
+    private final int parallelism;
+
+    public SapUMEPartitionedSearch(SapUMEConnection connection, int parallelism) {
+        this.connection = connection;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // the handler returning false stops the search
+    public void search(SapUMEPartitionPlanner planner, String logOperation, SapUMESearchResultHandler handler, SapUMEOperationTrace trace) {
+        List<SapUMEPartitionPlanner.Partition> partitions = planner.plan();
+        LOG.ok("Partitioned search start, {0} partitions, parallelism {1}", partitions.size(), parallelism);
+        ExecutorService executor = this.connection.getExecutors().getSearchExecutor();
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        Deque<PartitionRun> pending = new ArrayDeque<>();
+        Set<PartitionRun> running = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (SapUMEPartitionPlanner.Partition partition : partitions) {
+            pending.addLast(new PartitionRun(partition, null));
+        }
+        Set<String> seen = planner.hasOverlappingPrefixes() ? new HashSet<>() : null;
+        try {
+            while (!pending.isEmpty() || !running.isEmpty()) {
+                while (!pending.isEmpty() && running.size() < parallelism) {
+                    PartitionRun run = pending.removeFirst();
+                    running.add(run);
+                    run.future = executor.submit(() -> searchPartition(run, logOperation, trace, queue, stopped));
+                }
+                Object item = queue.take();
+                if (item instanceof PartitionEnd) {
+                    PartitionEnd end = (PartitionEnd) item;
+                    PartitionRun run = end.run;
+                    running.remove(run);
+                    if (end.error != null) {
+                        throw end.error;
+                    }
+                    if (end.exception == null) {
+                        planner.completed(run.partition, end.count, end.millis);
+                        continue;
+                    }
+                    List<SapUMEPartitionPlanner.Partition> replacements = planner.split(run.partition, end.count, end.millis, end.exception);
+                    if (replacements == null) {
+                        throw end.exception;
+                    }
+                    // the replacements return the entries passed before the failure again
+                    Set<String> passed = run.excluded == null ? run.passed : union(run.excluded, run.passed);
+                    for (SapUMEPartitionPlanner.Partition partition : replacements) {
+                        pending.addLast(new PartitionRun(partition, passed));
+                    }
+                } else {
+                    PartitionEntry entry = (PartitionEntry) item;
+                    if (isDuplicate(entry, seen)) {
+                        continue;
+                    }
+                    if (!handler.handle(entry.searchResult)) {
+                        LOG.ok("Partitioned search stopped by the handler");
+                        return;
+                    }
+                }
+            }
+            planner.finished();
+        } catch (InterruptedException iException) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorIOException(iException);
+        } finally {
+            // workers still running are interrupted, so none of them waits for the full queue
+            stopped.set(true);
+            for (PartitionRun run : running) {
+                run.future.cancel(true);
+            }
+        }
+        LOG.ok("Partitioned search finished");
+    }
+
+    // called in the thread of the caller only
+    private static boolean isDuplicate(PartitionEntry entry, Set<String> seen) {
+        String id = getId(entry.searchResult);
+        if (seen != null) {
+            return !seen.add(id);
+        }
+        PartitionRun run = entry.run;
+        if ((run.excluded != null && run.excluded.contains(id)) || run.partition.isSearchedElsewhere(entry.searchResult)) {
+            return true;
+        }
+        run.passed.add(id);
+        return false;
+    }
+
+    private void searchPartition(PartitionRun run, String logOperation, SapUMEOperationTrace trace,
+                                 BlockingQueue<Object> queue, AtomicBoolean stopped) {
+        PartitionEnd end = new PartitionEnd(run);
+        long start = System.currentTimeMillis();
+        try {
+            if (!stopped.get()) {
+                this.connection.search(run.partition.createRequest(), logOperation, searchResult -> {
+                    try {
+                        queue.put(new PartitionEntry(run, searchResult));
+                        end.count++;
+                        return !stopped.get();
+                    } catch (InterruptedException iException) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }, trace);
+            }
+        } catch (RuntimeException exception) {
+            end.exception = exception;
+        } catch (Error error) {
+            end.error = error;
+        } finally {
+            // every started partition reports its end, the caller waits for it
+            end.millis = System.currentTimeMillis() - start;
+            try {
+                if (!stopped.get()) {
+                    queue.put(end);
+                }
+            } catch (InterruptedException iException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static Set<String> union(Set<String> first, Set<String> second) {
+        Set<String> union = new HashSet<>(first);
+        union.addAll(second);
+        return union;
+    }
+
+    private static String getId(SearchResult searchResult) {
+        String id = searchResult.getIdentifierString();
+        return id != null ? id : String.valueOf(searchResult.getAttributeValue(SapUMESchema.ATTRIBUTE_ID));
+    }
+
+    // a partition searched once, the identifiers of its entries are dropped when it finished
+    private static class PartitionRun {
+
+        private final SapUMEPartitionPlanner.Partition partition;
+        // identifiers passed by the failed partitions this one replaces, null when it replaces none
+        private final Set<String> excluded;
+        private final Set<String> passed = new HashSet<>();
+        private Future<?> future;
+
+        PartitionRun(SapUMEPartitionPlanner.Partition partition, Set<String> excluded) {
+            this.partition = partition;
+            this.excluded = excluded;
+        }
+    }
+
+    private static class PartitionEntry {
+
+        private final PartitionRun run;
+        private final SearchResult searchResult;
+
+        PartitionEntry(PartitionRun run, SearchResult searchResult) {
+            this.run = run;
+            this.searchResult = searchResult;
+        }
+    }
+
+    // put to the queue by the worker when its partition was searched completely or failed
+    private static class PartitionEnd {
+
+        private final PartitionRun run;
+        private long count;
+        private long millis;
+        private RuntimeException exception;
+        // not split into other partitions, it stops the search
+        private Error error;
+
+        PartitionEnd(PartitionRun run) {
+            this.run = run;
+        }
+    }
+}
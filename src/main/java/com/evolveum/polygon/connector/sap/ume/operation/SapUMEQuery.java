@@ -2,72 +2,41 @@ package com.evolveum.polygon.connector.sap.ume.operation;
 
 import com.evolveum.polygon.connector.sap.ume.*;
 import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
 import org.identityconnectors.framework.common.objects.*;
-import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
 import org.openspml.message.*;
 import org.openspml.message.SearchResult;
 
 import java.util.*;
-
-import static org.identityconnectors.common.StringUtil.isBlank;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 public class SapUMEQuery extends SapUMEAbstractOperation {
 
     private static final Log LOG = Log.getLog(SapUMEQuery.class);
+    // the schema is created once, so the default attributes of an object class never change
+    private static final Map<String, List<String>> DEFAULT_ATTRIBUTES = new ConcurrentHashMap<>();
 
     public SapUMEQuery(SapUMEConfiguration configuration, SapUMEConnection connection) {
         super(configuration, connection);
     }
 
     public void executeQuery(SapUMEObjectClass objectClass, Filter query, ResultsHandler handler, OperationOptions options) {
-        LOG.info("Execute query start : {0}", objectClass.toString());
+        LOG.ok("Execute query start : {0}", objectClass.toString());
         String searchBase = objectClass.getBase();
-        String fullSearchName = null;
-        ArrayList<String> attrsToGet = new ArrayList();
-        if (objectClass.isAccount()) {
-            attrsToGet.addAll(SapUMESchema.getAccountAttributeNames(getConfiguration()));
-
-            attrsToGet.add(SapUMESchema.ATTRIBUTE_LOGONNAME);
-            attrsToGet.add(SapUMESchema.ATTRIBUTE_ISLOCKED);
-            attrsToGet.add(SapUMESchema.ATTRIBUTE_VALIDFROM);
-            attrsToGet.add(SapUMESchema.ATTRIBUTE_VALIDTO);
-
-            attrsToGet.remove(OperationalAttributes.LOCK_OUT_NAME);
-            attrsToGet.remove(OperationalAttributes.ENABLE_NAME);
-            attrsToGet.remove(OperationalAttributes.PASSWORD_NAME);
-            attrsToGet.remove(OperationalAttributes.ENABLE_DATE_NAME);
-            attrsToGet.remove(OperationalAttributes.DISABLE_DATE_NAME);
-            attrsToGet.remove(Name.NAME);
-
-            fullSearchName = SapUMESchema.ATTRIBUTE_LOGONNAME;
-        } else if (objectClass.isRole()) {
-            attrsToGet.addAll(SapUMESchema.getRoleAttributeNames(getConfiguration()));
-            attrsToGet.remove(Name.NAME);
-            fullSearchName = SapUMESchema.ATTRIBUTE_UNIQUENAME;
-        } else if (objectClass.isGroup()) {
-            attrsToGet.addAll(SapUMESchema.getGroupAttributeNames(getConfiguration()));
-            attrsToGet.remove(Name.NAME);
-            fullSearchName = SapUMESchema.ATTRIBUTE_UNIQUENAME;
-        }
+        String fullSearchName = getNamingAttribute(objectClass);
+        List<String> attrsToGet = retainRequestedAttributes(objectClass, getDefaultAttributes(objectClass, getConfiguration()),
+                fullSearchName, options);
 
         SearchRequest searchReq = new SearchRequest();
         searchReq.setSearchBase(searchBase);
 
         //find all
-        if (query == null) {
-            query = new Filter();
-            String is = getConfiguration().getFullSearchStringPattern();
-            FilterTerm fin = new FilterTerm();
-            fin.setOperation(FilterTerm.OP_OR);
-            int charCount = is.length();
-            for (int i = 0; i < charCount; i++) {
-                FilterTerm sub = new FilterTerm();
-                sub.setOperation(FilterTerm.OP_SUBSTRINGS);
-                sub.setInitialSubstring(is.substring(i, i + 1));
-                sub.setName(fullSearchName);
-                fin.addOperand(sub);
-            }
-            query.addTerm(fin);
+        boolean fullSearch = query == null;
+        if (fullSearch) {
+            query = createFullSearchFilter(getConfiguration(), fullSearchName);
         } else {
             List<FilterTerm> terms = query.getTerms();
             for (FilterTerm term : terms) {
@@ -84,170 +53,251 @@ public class SapUMEQuery extends SapUMEAbstractOperation {
             searchReq.addAttribute(sAttribute);
         }
 
-        SpmlResponse spmlResponse = super.getConnection().connect(searchReq, LOG_OPERATION_QUERY);
-
-        SearchResponse resp = (SearchResponse) spmlResponse;
-        List results = resp.getResults();
-        if (results != null) {
-            for (Object res : results) {
-                org.openspml.message.SearchResult searchResult = (org.openspml.message.SearchResult) res;
-                ConnectorObject co = null;
-                if (objectClass.isAccount()) {
-                    co = createConnectorObjectUser(searchResult, attrsToGet);
-                } else if (objectClass.isRole()) {
-                    co = createConnectorObjectRoleAndGroup(searchResult, attrsToGet);
-                } else if (objectClass.isGroup()) {
-                    co = createConnectorObjectRoleAndGroup(searchResult, attrsToGet);
-                }
-                handler.handle(co);
+        Integer slowOperationThreshold = getConfiguration().getSlowOperationThreshold();
+        SapUMEOperationTrace trace = new SapUMEOperationTrace(LOG_OPERATION_QUERY);
+        SapUMEMappingPlan mappingPlan = SapUMEMappingPlan.forAttributes(objectClass, attrsToGet);
+        SapUMEObjectCache objectCache = super.getConnection().getObjectCache();
+        SapUMEObjectCache cache = objectCache != null && objectCache.isEnabled(objectClass) ? objectCache : null;
+        String cacheAttributes = String.join(",", attrsToGet);
+        long cacheWriteCount = objectCache == null ? 0 : objectCache.getWriteCount();
+        AtomicLong found = new AtomicLong();
+        Function<SearchResult, ConnectorObject> mapper = searchResult -> {
+            SapUMEJfrEvents.MappingEvent mappingEvent = new SapUMEJfrEvents.MappingEvent();
+            long mappingStart = System.nanoTime();
+            mappingEvent.begin();
+            ConnectorObject co = mappingPlan.map(searchResult, getConfiguration());
+            found.incrementAndGet();
+            SapUMEJfrEvents.commit(mappingEvent, LOG_OPERATION_QUERY, searchBase, 1, 0);
+            trace.addMapping(System.nanoTime() - mappingStart);
+            if (cache != null) {
+                cache.put(objectClass, cacheAttributes, co, cacheWriteCount);
             }
+            return co;
+        };
+        ResultsHandler tracedHandler = co -> {
+            long handlerStart = System.nanoTime();
+            boolean proceed = handler.handle(co);
+            trace.addHandler(System.nanoTime() - handlerStart);
+            if (!proceed) {
+                // no more entries are mapped, the response is not read to its end and no more partitions or pages are searched
+                LOG.ok("Query of {0} stopped by the handler", searchBase);
+            }
+            return proceed;
+        };
+        Integer mappingThreads = getConfiguration().getMappingThreads();
+        SapUMEMappingPipeline pipeline = mappingThreads != null && mappingThreads > 0
+                ? new SapUMEMappingPipeline(super.getConnection().getExecutors().getMappingExecutor(), mappingThreads, mapper, tracedHandler) : null;
+        SapUMESearchResultHandler resultHandler = pipeline != null ? pipeline : searchResult -> tracedHandler.handle(mapper.apply(searchResult));
+        Integer pageSize = options == null ? null : options.getPageSize();
+        SortKey[] sortKeys = options == null ? null : options.getSortKeys();
+        Integer lookupBatchWindow = getConfiguration().getLookupBatchWindow();
+        // single object lookups without paging and sorting are answered by the object cache when possible
+        FilterTerm lookupTerm = !fullSearch && (pageSize == null || pageSize <= 0) && (sortKeys == null || sortKeys.length == 0)
+                && isLookup(query, fullSearchName) ? query.getTerms().get(0) : null;
+        boolean negativeLookup = objectCache != null && lookupTerm != null && objectCache.isNegativeEnabled();
+        ConnectorObject cachedObject = null;
+        if (cache != null && lookupTerm != null && SapUMESchema.ATTRIBUTE_ID.equals(lookupTerm.getName())) {
+            cachedObject = cache.get(objectClass, cacheAttributes, (String) lookupTerm.getValue());
         }
-        spmlResponse = null;
-        resp = null;
-        searchReq = null;
-        LOG.info("Execute query finished : {0}", objectClass.toString());
-    }
-
-    private ConnectorObject createConnectorObjectUser(SearchResult searchResult, Collection<String> attrsToGet) {
-        ConnectorObjectBuilder objectBuilder = new ConnectorObjectBuilder();
-        Iterator<String> itr = attrsToGet.iterator();
-
-        while (itr.hasNext()) {
-            String attributeName = itr.next();
-
-            if (isRoleAttribute(attributeName) || isGroupAttribute(attributeName) || attributeName.equals(SapUMESchema.ATTRIBUTE_CERTIFICATE)) {
-                AttributeBuilder abuilder = new AttributeBuilder();
-                abuilder.setName(attributeName);
-                if (searchResult.getAttributeValue(attributeName) != null) {
-                    Object value = searchResult.getAttributeValue(attributeName);
-
-                    if ((value instanceof ArrayList)) {
-                        ArrayList multiList = (ArrayList) value;
-                        for (Object values : multiList) {
-                            String attrValue = (String) values;
-                            abuilder.addValue(new Object[]{attrValue});
-                        }
-                    } else {
-                        String attrValue = (String) value;
-                        abuilder.addValue(new Object[]{attrValue});
+        try {
+            org.identityconnectors.framework.common.objects.SearchResult pageResult = null;
+            if (cachedObject != null) {
+                LOG.ok("Lookup of {0} answered from the object cache", searchBase);
+                tracedHandler.handle(cachedObject);
+            } else if (negativeLookup && objectCache.isMissing(objectClass, lookupTerm.getName(), (String) lookupTerm.getValue())) {
+                LOG.ok("Lookup of {0} {1} answered from the negative cache", searchBase, lookupTerm.getName());
+                // the expiration is not extended
+                negativeLookup = false;
+            } else if (sortKeys != null && sortKeys.length > 0) {
+                pageResult = searchSorted(objectClass, sortKeys, fullSearch, searchReq, fullSearchName, attrsToGet, options, resultHandler, trace);
+            } else if (pageSize != null && pageSize > 0) {
+                LinkedHashMap<String, SearchRequest> partitions = new LinkedHashMap<>();
+                SapUMEPartitionPlanner planner = null;
+                if (fullSearch) {
+                    planner = new SapUMEPartitionPlanner(getConfiguration(), searchBase, fullSearchName, attrsToGet);
+                    for (SapUMEPartitionPlanner.Partition partition : planner.planPages()) {
+                        partitions.put(partition.getKey(), partition.createRequest());
                     }
                 } else {
-                    ArrayList alMultiValues = new ArrayList();
-                    abuilder.addValue(alMultiValues);
-                }
-                Attribute multiAttrs = abuilder.build();
-                objectBuilder.addAttribute(new Attribute[]{multiAttrs});
-            } else if (isDateAttribute(attributeName)) {
-                AttributeBuilder abuilder = new AttributeBuilder();
-                String value = (String) searchResult.getAttributeValue(attributeName);
-                if(attributeName.equals(SapUMESchema.ATTRIBUTE_VALIDFROM)) {
-                    abuilder.setName(OperationalAttributes.ENABLE_DATE_NAME);
-                } else if(attributeName.equals(SapUMESchema.ATTRIBUTE_VALIDTO)) {
-                    abuilder.setName(OperationalAttributes.DISABLE_DATE_NAME);
-                } else {
-                    abuilder.setName(attributeName);
+                    partitions.put("", searchReq);
                 }
-                if (!isBlank(value)) {
-                    try {
-                        abuilder.addValue(SapUMEDateHelper.convertDateToLong(SapUMEDateHelper.convertUmeStringToDate(value,getConfiguration())));
-                    } catch (Exception e) {
-                        LOG.error(e,"Error in build user ume time, value : "+value);
+                pageResult = new SapUMEPagedSearch(getConfiguration(), super.getConnection(), fullSearchName).search(partitions, planner,
+                        options.getPagedResultsCookie(), options.getPagedResultsOffset(), pageSize, LOG_OPERATION_QUERY, resultHandler, trace);
+            } else if (!fullSearch && lookupBatchWindow != null && lookupBatchWindow > 0 && isLookup(query, fullSearchName)) {
+                FilterTerm term = query.getTerms().get(0);
+                List<SearchResult> entries = SapUMELookupCoalescer.lookup(getConfiguration(), searchBase, term.getName(), attrsToGet,
+                        (String) term.getValue(), super.getConnection(), LOG_OPERATION_QUERY, trace);
+                for (SearchResult entry : entries) {
+                    if (!resultHandler.handle(entry)) {
+                        break;
                     }
                 }
-                objectBuilder.addAttribute(abuilder.build());
-            } else if (attributeName.equals(SapUMESchema.ATTRIBUTE_ISLOCKED)) {
-                Object value = searchResult.getAttributeValue(attributeName);
-                AttributeBuilder abuilder1 = new AttributeBuilder();
-                abuilder1.setName(OperationalAttributes.LOCK_OUT_NAME);
-                Boolean locked = Boolean.parseBoolean((String)value);
-                abuilder1.addValue(locked);
-                objectBuilder.addAttribute(abuilder1.build());
-//                AttributeBuilder abuilder2 = new AttributeBuilder();
-//                abuilder2.setName(attributeName);
-//                abuilder2.addValue(value);
-//                objectBuilder.addAttribute(abuilder2.build());
             } else {
-                AttributeBuilder abuilder = new AttributeBuilder();
-                abuilder.setName(attributeName);
-                Object value = searchResult.getAttributeValue(attributeName);
-                abuilder.addValue(value);
-
-                if (attributeName.equals(SapUMESchema.ATTRIBUTE_ID)) {
-                    objectBuilder.setUid((String) value);
-                } else if (attributeName.equals(SapUMESchema.ATTRIBUTE_LOGONNAME)) {
-                    objectBuilder.setName((String) value);
-                }
-                if (!attributeName.equals(Name.NAME)&&!attributeName.equals(SapUMESchema.ATTRIBUTE_LOGONNAME)) {
-                    objectBuilder.addAttribute(abuilder.build());
-                }
+                search(fullSearch, searchReq, fullSearchName, attrsToGet, resultHandler, trace);
+            }
+            if (pipeline != null) {
+                pipeline.finish();
+            }
+            if (negativeLookup && cachedObject == null && found.get() == 0) {
+                objectCache.putMissing(objectClass, lookupTerm.getName(), (String) lookupTerm.getValue(), cacheWriteCount);
+            }
+            if (pageResult != null && handler instanceof SearchResultsHandler) {
+                ((SearchResultsHandler) handler).handleResult(pageResult);
             }
+        } finally {
+            if (pipeline != null) {
+                pipeline.close();
+            }
+            trace.logIfSlow(slowOperationThreshold == null ? 0 : slowOperationThreshold, "objectClass=" + searchBase
+                    + " filter=" + SapUMEOperationTrace.summarize(query) + " attributes=" + attrsToGet.size());
         }
-        return objectBuilder.build();
+        searchReq = null;
+        LOG.ok("Execute query finished : {0}", objectClass.toString());
     }
 
+    static String getNamingAttribute(SapUMEObjectClass objectClass) {
+        return objectClass.isAccount() ? SapUMESchema.ATTRIBUTE_LOGONNAME : SapUMESchema.ATTRIBUTE_UNIQUENAME;
+    }
 
-    private ConnectorObject createConnectorObjectRoleAndGroup(SearchResult searchResult, ArrayList<String> attrsToGet) {
-        ConnectorObjectBuilder objectBuilder = new ConnectorObjectBuilder();
-        Iterator<String> itr = attrsToGet.iterator();
-
-        while (itr.hasNext()) {
-            String attributeName = itr.next();
-
-            if (isRoleAttribute(attributeName) || (attributeName.equals(SapUMESchema.ATTRIBUTE_MEMBER))) {
-                AttributeBuilder abuilder = new AttributeBuilder();
-                abuilder.setName(attributeName);
-                Object value = searchResult.getAttributeValue(attributeName);
-
-                if (value != null) {
-                    if ((value instanceof ArrayList)) {
-                        ArrayList multiList = (ArrayList) value;
-                        for (Object values : multiList) {
-                            String attrValue = (String) values;
-                            abuilder.addValue(new Object[]{attrValue});
-                        }
-                    } else {
-                        String attrValue = (String) value;
-                        abuilder.addValue(new Object[]{attrValue});
-                    }
-                } else {
-                    abuilder.addValue(new Object[]{value});
-                }
-                Attribute multiAttrs = abuilder.build();
-                objectBuilder.addAttribute(new Attribute[]{multiAttrs});
-            } else if (isDateAttribute(attributeName)) {
-                AttributeBuilder abuilder = new AttributeBuilder();
-                abuilder.setName(attributeName);
-                String value = (String) searchResult.getAttributeValue(attributeName);
-                if (!isBlank(value)) {
-                    try {
-                        abuilder.addValue(SapUMEDateHelper.convertDateToLong(SapUMEDateHelper.convertUmeStringToDate(value, getConfiguration())));
-                        objectBuilder.addAttribute(abuilder.build());
-                    } catch (Exception e) {
-                        LOG.error(e,"Error in build group ume time, value : "+value);
-                    }
-                }
-            } else {
-                AttributeBuilder abuilder = new AttributeBuilder();
-                abuilder.setName(attributeName);
-                Object value = searchResult.getAttributeValue(attributeName);
+    // SPML attributes searched and mapped when the caller does not request only some of them
+    // the returned list is shared and can't be modified
+    static List<String> getDefaultAttributes(SapUMEObjectClass objectClass, SapUMEConfiguration configuration) {
+        return DEFAULT_ATTRIBUTES.computeIfAbsent(objectClass.getObjectClass().getObjectClassValue(),
+                key -> Collections.unmodifiableList(createDefaultAttributes(objectClass, configuration)));
+    }
+
+    private static List<String> createDefaultAttributes(SapUMEObjectClass objectClass, SapUMEConfiguration configuration) {
+        ArrayList<String> attrsToGet = new ArrayList();
+        if (objectClass.isAccount()) {
+            attrsToGet.addAll(SapUMESchema.getAccountAttributeNames(configuration));
 
-                abuilder.addValue(value);
+            attrsToGet.add(SapUMESchema.ATTRIBUTE_LOGONNAME);
+            attrsToGet.add(SapUMESchema.ATTRIBUTE_ISLOCKED);
+            attrsToGet.add(SapUMESchema.ATTRIBUTE_VALIDFROM);
+            attrsToGet.add(SapUMESchema.ATTRIBUTE_VALIDTO);
 
-                if (attributeName.equals(SapUMESchema.ATTRIBUTE_ID)) {
-                    if (value == null) { //bug finding group by id
-                        value = searchResult.getIdentifier().getId();
-                    }
-                    objectBuilder.setUid((String) value);
-                } else if (attributeName.equals(SapUMESchema.ATTRIBUTE_UNIQUENAME)) {
-                    objectBuilder.setName((String) value);
-                }
+            attrsToGet.remove(OperationalAttributes.LOCK_OUT_NAME);
+            attrsToGet.remove(OperationalAttributes.ENABLE_NAME);
+            attrsToGet.remove(OperationalAttributes.PASSWORD_NAME);
+            attrsToGet.remove(OperationalAttributes.ENABLE_DATE_NAME);
+            attrsToGet.remove(OperationalAttributes.DISABLE_DATE_NAME);
+            attrsToGet.remove(Name.NAME);
+        } else if (objectClass.isRole()) {
+            attrsToGet.addAll(SapUMESchema.getRoleAttributeNames(configuration));
+            attrsToGet.remove(Name.NAME);
+        } else if (objectClass.isGroup()) {
+            attrsToGet.addAll(SapUMESchema.getGroupAttributeNames(configuration));
+            attrsToGet.remove(Name.NAME);
+        }
+        return attrsToGet;
+    }
 
-                if (!attributeName.equals(Name.NAME)) {
-                    objectBuilder.addAttribute(abuilder.build());
-                }
+    // OR of the prefixes of the naming attribute, one for every character of fullSearchStringPattern
+    static Filter createFullSearchFilter(SapUMEConfiguration configuration, String fullSearchName) {
+        Filter query = new Filter();
+        String is = configuration.getFullSearchStringPattern();
+        FilterTerm fin = new FilterTerm();
+        fin.setOperation(FilterTerm.OP_OR);
+        int charCount = is.length();
+        for (int i = 0; i < charCount; i++) {
+            FilterTerm sub = new FilterTerm();
+            sub.setOperation(FilterTerm.OP_SUBSTRINGS);
+            sub.setInitialSubstring(is.substring(i, i + 1));
+            sub.setName(fullSearchName);
+            fin.addOperand(sub);
+        }
+        query.addTerm(fin);
+        return query;
+    }
+
+    // equality of the identifier or the name with one value, such lookups can be coalesced
+    private static boolean isLookup(Filter query, String fullSearchName) {
+        return isEqualityLookup(query, SapUMESchema.ATTRIBUTE_ID) || isEqualityLookup(query, fullSearchName);
+    }
+
+    // equality of the attribute with one value
+    private static boolean isEqualityLookup(Filter query, String attributeName) {
+        if (query.getTerms() == null || query.getTerms().size() != 1) {
+            return false;
+        }
+        FilterTerm term = query.getTerms().get(0);
+        return term.isOperation(FilterTerm.OP_EQUAL) && term.getValues() != null && term.getValues().size() == 1
+                && term.getValue() instanceof String && attributeName.equals(term.getName());
+    }
+
+    // full search partitioned or in one request, filtered search in one request
+    void search(boolean fullSearch, SearchRequest searchReq, String fullSearchName, List<String> attrsToGet,
+                        SapUMESearchResultHandler resultHandler, SapUMEOperationTrace trace) {
+        if (fullSearch && Boolean.TRUE.equals(getConfiguration().getPartitionedFullSearch())) {
+            Integer parallelism = getConfiguration().getFullSearchParallelism();
+            SapUMEPartitionPlanner planner = new SapUMEPartitionPlanner(getConfiguration(), searchReq.getSearchBase().getId(), fullSearchName, attrsToGet);
+            new SapUMEPartitionedSearch(super.getConnection(), parallelism == null ? 1 : parallelism)
+                    .search(planner, LOG_OPERATION_QUERY, resultHandler, trace);
+        } else {
+            super.getConnection().search(searchReq, LOG_OPERATION_QUERY, resultHandler, trace);
+        }
+    }
+
+    // SPML 1.0 can not sort, the whole result is sorted by the connector and the page is cut out by the offset
+    private org.identityconnectors.framework.common.objects.SearchResult searchSorted(SapUMEObjectClass objectClass, SortKey[] sortKeys,
+                                                                                     boolean fullSearch, SearchRequest searchReq, String fullSearchName,
+                                                                                     List<String> attrsToGet, OperationOptions options,
+                                                                                     SapUMESearchResultHandler resultHandler, SapUMEOperationTrace trace) {
+        if (options.getPagedResultsCookie() != null) {
+            throw new InvalidAttributeValueException("Paged results cookie is not supported with sort keys, use paged results offset");
+        }
+        List<SortKey> spmlSortKeys = new ArrayList<>();
+        for (SortKey sortKey : sortKeys) {
+            spmlSortKeys.add(new SortKey(toSpmlAttribute(objectClass, sortKey.getField()), sortKey.isAscendingOrder()));
+        }
+        Integer bufferSize = getConfiguration().getSortBufferSize();
+        try (SapUMEResultSorter sorter = new SapUMEResultSorter(spmlSortKeys,
+                bufferSize == null ? SapUMEResultSorter.DEFAULT_BUFFER_SIZE : bufferSize, getConfiguration().getSortTempDirectory())) {
+            search(fullSearch, searchReq, fullSearchName, attrsToGet, sorter, trace);
+            Integer offset = options.getPagedResultsOffset();
+            Integer pageSize = options.getPageSize();
+            long skip = offset != null && offset > 1 ? offset - 1 : 0;
+            boolean paged = pageSize != null && pageSize > 0;
+            sorter.deliver(resultHandler, skip, paged ? pageSize : Long.MAX_VALUE);
+            if (!paged) {
+                return null;
             }
+            long remaining = Math.max(0, sorter.getCount() - skip - pageSize);
+            return new org.identityconnectors.framework.common.objects.SearchResult(null, (int) Math.min(Integer.MAX_VALUE, remaining), remaining == 0);
         }
-        return objectBuilder.build();
     }
-}
 
+    // only the attributes requested by the caller are searched and mapped, the id, the naming attribute and the sort keys always,
+    // returns attrsToGet itself when all of them are requested and a new list otherwise
+    static List<String> retainRequestedAttributes(SapUMEObjectClass objectClass, List<String> attrsToGet, String namingAttribute,
+                                                  OperationOptions options) {
+        if (options == null || options.getAttributesToGet() == null || Boolean.TRUE.equals(options.getReturnDefaultAttributes())) {
+            return attrsToGet;
+        }
+        Set<String> requested = new HashSet<>();
+        requested.add(SapUMESchema.ATTRIBUTE_ID);
+        requested.add(namingAttribute);
+        for (String attrName : options.getAttributesToGet()) {
+            requested.add(toSpmlAttribute(objectClass, attrName));
+        }
+        if (options.getSortKeys() != null) {
+            for (SortKey sortKey : options.getSortKeys()) {
+                requested.add(toSpmlAttribute(objectClass, sortKey.getField()));
+            }
+        }
+        List<String> retained = new ArrayList<>(attrsToGet);
+        retained.retainAll(requested);
+        return retained;
+    }
+
+    private static String toSpmlAttribute(SapUMEObjectClass objectClass, String attrName) {
+        if (OperationalAttributes.LOCK_OUT_NAME.equals(attrName)) {
+            return SapUMESchema.ATTRIBUTE_ISLOCKED;
+        } else if (OperationalAttributes.ENABLE_DATE_NAME.equals(attrName)) {
+            return SapUMESchema.ATTRIBUTE_VALIDFROM;
+        } else if (OperationalAttributes.DISABLE_DATE_NAME.equals(attrName)) {
+            return SapUMESchema.ATTRIBUTE_VALIDTO;
+        }
+        return objectClass.assignAttribute(attrName);
+    }
+}
@@ -0,0 +1,281 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMESearchResultHandler;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+import org.identityconnectors.framework.common.objects.SortKey;
+import org.openspml.message.Attribute;
+import org.openspml.message.Identifier;
+import org.openspml.message.SearchResult;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static org.identityconnectors.common.StringUtil.isBlank;
+
+// Sorts the search result entries by the sort keys of the caller, SPML 1.0 has no sorting on the server. Up to bufferSize
+// entries are sorted in memory, a larger result is written in sorted runs of bufferSize entries to temporary files, which
+// are merged when the entries are passed on, so only one entry of every run is held in memory then. The values are
+// compared as strings ignoring case (the UME dates sort as strings too), an entry without the value is the last one in
+// both orders and entries with equal values keep the order of the response. The temporary files are readable by the owner
+// only (on file systems with POSIX permissions) and deleted by close().
+
+public class SapUMEResultSorter implements SapUMESearchResultHandler, AutoCloseable {
+
+    private static final Log LOG = Log.getLog(SapUMEResultSorter.class);
+    // used when the sortBufferSize is not configured
+    static final int DEFAULT_BUFFER_SIZE = 10000;
+    private static final Comparator<String> VALUE_ORDER = String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
+    private final Comparator<SearchResult> comparator;
+    private final int bufferSize;
+    private final Path directory;
+    private final List<SearchResult> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private final List<DataInputStream> readers = new ArrayList<>();
+    private long count;
+
+    // the fields of the sort keys are SPML attribute names, an empty directory means the default temporary directory
+    public SapUMEResultSorter(List<SortKey> sortKeys, int bufferSize, String directory) {
+        Comparator<SearchResult> comparator = null;
+        for (SortKey sortKey : sortKeys) {
+            String attributeName = sortKey.getField();
+            Comparator<SearchResult> keyComparator = Comparator.comparing(entry -> getValue(entry, attributeName),
+                    Comparator.nullsLast(sortKey.isAscendingOrder() ? VALUE_ORDER : VALUE_ORDER.reversed()));
+            comparator = comparator == null ? keyComparator : comparator.thenComparing(keyComparator);
+        }
+        this.comparator = comparator;
+        this.bufferSize = Math.max(1, bufferSize);
+        this.directory = isBlank(directory) ? null : Paths.get(directory);
+    }
+
+    @Override
+    public boolean handle(SearchResult searchResult) {
+        buffer.add(searchResult);
+        count++;
+        if (buffer.size() >= bufferSize) {
+            spill();
+        }
+        return true;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // passes the sorted entries to the handler, the first skip entries are left out and at most limit entries are passed
+    public void deliver(SapUMESearchResultHandler handler, long skip, long limit) {
+        buffer.sort(comparator);
+        LOG.ok("Sorted {0} entries, {1} runs spilled to disk", count, runs.size());
+        // runs in the order of the response, so the earlier one wins among equal entries
+        PriorityQueue<Run> queue = new PriorityQueue<>((run1, run2) -> {
+            int result = comparator.compare(run1.head, run2.head);
+            return result != 0 ? result : Integer.compare(run1.index, run2.index);
+        });
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runs.get(i))));
+                readers.add(in);
+                addRun(queue, new Run(i, () -> read(in)));
+            }
+            Iterator<SearchResult> iterator = buffer.iterator();
+            addRun(queue, new Run(runs.size(), () -> iterator.hasNext() ? iterator.next() : null));
+
+            long delivered = 0;
+            while (!queue.isEmpty() && delivered < limit) {
+                Run run = queue.poll();
+                SearchResult entry = run.head;
+                addRun(queue, run);
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    delivered++;
+                    if (!handler.handle(entry)) {
+                        return;
+                    }
+                }
+            }
+        } catch (IOException exception) {
+            throw new ConnectorIOException("Reading of sorted search results failed: " + exception.getMessage(), exception);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (DataInputStream reader : readers) {
+            try {
+                reader.close();
+            } catch (IOException exception) {
+                LOG.ok("Sort run not closed: {0}", exception.getMessage());
+            }
+        }
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException exception) {
+                LOG.warn("Sort run {0} not deleted: {1}", run, exception.getMessage());
+            }
+        }
+        readers.clear();
+        runs.clear();
+        buffer.clear();
+    }
+
+    private void addRun(PriorityQueue<Run> queue, Run run) throws IOException {
+        run.head = run.source.next();
+        if (run.head != null) {
+            queue.add(run);
+        }
+    }
+
+    private void spill() {
+        buffer.sort(comparator);
+        try {
+            Path file = createTempFile();
+            runs.add(file);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                for (SearchResult entry : buffer) {
+                    write(out, entry);
+                }
+            }
+            LOG.ok("Sort run {0} with {1} entries written to {2}", runs.size(), buffer.size(), file);
+        } catch (IOException exception) {
+            throw new ConnectorIOException("Sorting of search results failed: " + exception.getMessage(), exception);
+        }
+        buffer.clear();
+    }
+
+    private Path createTempFile() throws IOException {
+        boolean posix = (directory != null ? directory.getFileSystem() : FileSystems.getDefault())
+                .supportedFileAttributeViews().contains("posix");
+        FileAttribute<?>[] attributes = posix
+                ? new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))}
+                : new FileAttribute<?>[0];
+        return directory != null ? Files.createTempFile(directory, "sap-ume-sort-", ".tmp", attributes)
+                : Files.createTempFile("sap-ume-sort-", ".tmp", attributes);
+    }
+
+    // first value of the attribute
+    private static String getValue(SearchResult entry, String attributeName) {
+        Object value = entry.getAttributeValue(attributeName);
+        if (value instanceof List) {
+            value = ((List<?>) value).isEmpty() ? null : ((List<?>) value).get(0);
+        }
+        return value == null ? null : value.toString();
+    }
+
+    private static void write(DataOutputStream out, SearchResult entry) throws IOException {
+        Identifier identifier = entry.getIdentifier();
+        writeString(out, identifier != null ? identifier.getType() : null);
+        writeString(out, identifier != null ? identifier.getId() : null);
+        out.writeBoolean(identifier != null);
+        List<Attribute> attributes = entry.getAttributes();
+        out.writeInt(attributes == null ? 0 : attributes.size());
+        if (attributes == null) {
+            return;
+        }
+        for (Attribute attribute : attributes) {
+            writeString(out, attribute.getName());
+            Object value = attribute.getValue();
+            if (value instanceof List) {
+                List<?> values = (List<?>) value;
+                out.writeInt(values.size());
+                for (Object item : values) {
+                    writeString(out, item == null ? null : item.toString());
+                }
+            } else {
+                out.writeInt(-1);
+                writeString(out, value == null ? null : value.toString());
+            }
+        }
+    }
+
+    // null at the end of the run
+    private static SearchResult read(DataInputStream in) throws IOException {
+        String type;
+        try {
+            type = readString(in);
+        } catch (EOFException exception) {
+            return null;
+        }
+        String id = readString(in);
+        SearchResult entry = new SearchResult();
+        if (in.readBoolean()) {
+            Identifier identifier = new Identifier();
+            if (type != null) {
+                identifier.setType(type);
+            }
+            identifier.setId(id);
+            entry.setIdentifier(identifier);
+        }
+        int attributes = in.readInt();
+        for (int i = 0; i < attributes; i++) {
+            String name = readString(in);
+            int size = in.readInt();
+            if (size < 0) {
+                entry.setAttribute(name, readString(in));
+            } else {
+                List<String> values = new ArrayList<>(size);
+                for (int j = 0; j < size; j++) {
+                    values.add(readString(in));
+                }
+                entry.setAttribute(name, values);
+            }
+        }
+        return entry;
+    }
+
+    // the length is written as int, writeUTF is limited to 64 KB (e.g. certificates)
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private interface Source {
+
+        SearchResult next() throws IOException;
+    }
+
+    private static class Run {
+
+        private final int index;
+        private final Source source;
+        private SearchResult head;
+
+        Run(int index, Source source) {
+            this.index = index;
+            this.source = source;
+        }
+    }
+}
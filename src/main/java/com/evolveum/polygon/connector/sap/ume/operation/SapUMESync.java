@@ -0,0 +1,209 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
+import com.evolveum.polygon.connector.sap.ume.SapUMEConnection;
+import com.evolveum.polygon.connector.sap.ume.SapUMEDateHelper;
+import com.evolveum.polygon.connector.sap.ume.SapUMEObjectClass;
+import com.evolveum.polygon.connector.sap.ume.SapUMEOperationTrace;
+import com.evolveum.polygon.connector.sap.ume.SapUMESchema;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.SortKey;
+import org.identityconnectors.framework.common.objects.SyncDeltaBuilder;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.identityconnectors.framework.common.objects.SyncTokenResultsHandler;
+import org.openspml.message.Filter;
+import org.openspml.message.FilterTerm;
+import org.openspml.message.SearchRequest;
+import org.openspml.message.SearchResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Live synchronization by the lastmodifydate attribute. The token holds the last modification time passed to the handler
+// (in the UME format, which sorts as a string) and the identifiers of the objects passed with that time. A sync searches
+// the objects modified at or after that time (greaterOrEqual filter), sorts them by the time and the identifier
+// (SapUMEResultSorter, so large results are spilled to disk) and passes every object not passed yet as CREATE_OR_UPDATE
+// delta with the token after it. Without token all objects are passed (full search). UME does not keep deleted objects,
+// so deletes can't be synchronized, a reconciliation finds them. The latest token is the last modification time on the
+// server with the objects modified then, searched among the objects modified since the current time of the connector host
+// minus syncClockSkew. Without such objects it is that time, so the changes within the margin may be passed again.
+
+public class SapUMESync extends SapUMEAbstractOperation {
+
+    private static final Log LOG = Log.getLog(SapUMESync.class);
+    private static final char TOKEN_SEPARATOR = '\n';
+
+    public SapUMESync(SapUMEConfiguration configuration, SapUMEConnection connection) {
+        super(configuration, connection);
+    }
+
+    public void sync(SapUMEObjectClass objectClass, SyncToken token, SyncResultsHandler handler, OperationOptions options) {
+        LOG.ok("Sync start : {0}, token {1}", objectClass.toString(), token);
+        String namingAttribute = SapUMEQuery.getNamingAttribute(objectClass);
+        List<String> attrsToGet = SapUMEQuery.retainRequestedAttributes(objectClass,
+                SapUMEQuery.getDefaultAttributes(objectClass, getConfiguration()), namingAttribute, options);
+        if (!attrsToGet.contains(SapUMESchema.ATTRIBUTE_LASTMODIFYDATE)) {
+            attrsToGet = new ArrayList<>(attrsToGet);
+            attrsToGet.add(SapUMESchema.ATTRIBUTE_LASTMODIFYDATE);
+        }
+        TokenState state = token == null || token.getValue() == null ? new TokenState(null, new LinkedHashSet<>())
+                : decodeToken(token.getValue().toString());
+
+        boolean fullSearch = state.timestamp == null;
+        SearchRequest searchReq = new SearchRequest();
+        searchReq.setSearchBase(objectClass.getBase());
+        searchReq.setFilter(fullSearch ? SapUMEQuery.createFullSearchFilter(getConfiguration(), namingAttribute)
+                : createModifiedSinceFilter(state.timestamp));
+        for (String sAttribute : attrsToGet) {
+            searchReq.addAttribute(sAttribute);
+        }
+
+        SapUMEMappingPlan mappingPlan = SapUMEMappingPlan.forAttributes(objectClass, attrsToGet);
+        SapUMEOperationTrace trace = new SapUMEOperationTrace(LOG_OPERATION_QUERY);
+        List<SortKey> sortKeys = Arrays.asList(new SortKey(SapUMESchema.ATTRIBUTE_LASTMODIFYDATE, true),
+                new SortKey(SapUMESchema.ATTRIBUTE_ID, true));
+        Integer bufferSize = getConfiguration().getSortBufferSize();
+        long[] passed = new long[1];
+        try (SapUMEResultSorter sorter = new SapUMEResultSorter(sortKeys,
+                bufferSize == null ? SapUMEResultSorter.DEFAULT_BUFFER_SIZE : bufferSize, getConfiguration().getSortTempDirectory())) {
+            SapUMEQuery query = new SapUMEQuery(getConfiguration(), super.getConnection());
+            try {
+                query.search(fullSearch, searchReq, namingAttribute, attrsToGet, sorter, trace);
+            } finally {
+                query.dispose();
+            }
+            sorter.deliver(entry -> {
+                String modified = getString(entry.getAttributeValue(SapUMESchema.ATTRIBUTE_LASTMODIFYDATE));
+                String id = getId(entry);
+                if (modified != null && !state.pass(modified, id)) {
+                    // passed by an earlier sync
+                    return true;
+                }
+                passed[0]++;
+                return handler.handle(new SyncDeltaBuilder()
+                        .setToken(encodeToken(state))
+                        .setDeltaType(SyncDeltaType.CREATE_OR_UPDATE)
+                        .setObject(mappingPlan.map(entry, getConfiguration()))
+                        .build());
+            }, 0, Long.MAX_VALUE);
+            LOG.ok("Sync of {0} passed {1} of {2} objects", objectClass.toString(), passed[0], sorter.getCount());
+        }
+        if (handler instanceof SyncTokenResultsHandler) {
+            ((SyncTokenResultsHandler) handler).handleResult(state.timestamp != null ? encodeToken(state) : getLatestSyncToken(objectClass));
+        }
+        LOG.ok("Sync finished : {0}", objectClass.toString());
+    }
+
+    public SyncToken getLatestSyncToken(SapUMEObjectClass objectClass) {
+        Integer skew = getConfiguration().getSyncClockSkew();
+        Date since = new Date(SapUMEDateHelper.getCurrentTime().getTime() - (skew == null ? 0 : skew));
+        TokenState latest = new TokenState(SapUMEDateHelper.convertDateToUmeString(since, getConfiguration()), Collections.emptySet());
+        SearchRequest searchReq = new SearchRequest();
+        searchReq.setSearchBase(objectClass.getBase());
+        searchReq.setFilter(createModifiedSinceFilter(latest.timestamp));
+        searchReq.addAttribute(SapUMESchema.ATTRIBUTE_ID);
+        searchReq.addAttribute(SapUMESchema.ATTRIBUTE_LASTMODIFYDATE);
+        super.getConnection().search(searchReq, LOG_OPERATION_QUERY, entry -> {
+            String modified = getString(entry.getAttributeValue(SapUMESchema.ATTRIBUTE_LASTMODIFYDATE));
+            if (modified != null) {
+                latest.pass(modified, getId(entry));
+            }
+            return true;
+        }, new SapUMEOperationTrace(LOG_OPERATION_QUERY));
+        LOG.ok("Latest sync token of {0} at {1}", objectClass.toString(), latest.timestamp);
+        return encodeToken(latest);
+    }
+
+    private static Filter createModifiedSinceFilter(String timestamp) {
+        FilterTerm term = new FilterTerm();
+        term.setOperation(FilterTerm.OP_GTE);
+        term.setName(SapUMESchema.ATTRIBUTE_LASTMODIFYDATE);
+        term.setValue(timestamp);
+        Filter filter = new Filter();
+        filter.addTerm(term);
+        return filter;
+    }
+
+    // the identifier attribute is missing in some group entries
+    private static String getId(SearchResult entry) {
+        String id = getString(entry.getAttributeValue(SapUMESchema.ATTRIBUTE_ID));
+        if (id == null && entry.getIdentifier() != null) {
+            id = entry.getIdentifier().getId();
+        }
+        return id;
+    }
+
+    private static String getString(Object value) {
+        if (value instanceof List) {
+            value = ((List<?>) value).isEmpty() ? null : ((List<?>) value).get(0);
+        }
+        return value == null || value.toString().isEmpty() ? null : value.toString();
+    }
+
+    static SyncToken encodeToken(TokenState state) {
+        StringBuilder token = new StringBuilder(state.timestamp);
+        for (String id : state.ids) {
+            token.append(TOKEN_SEPARATOR).append(id);
+        }
+        return new SyncToken(Base64.getUrlEncoder().withoutPadding().encodeToString(token.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static TokenState decodeToken(String token) {
+        String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException exception) {
+            throw new InvalidAttributeValueException("Invalid sync token " + token, exception);
+        }
+        List<String> parts = Arrays.asList(decoded.split(String.valueOf(TOKEN_SEPARATOR), -1));
+        if (parts.get(0).isEmpty()) {
+            throw new InvalidAttributeValueException("Invalid sync token " + token);
+        }
+        return new TokenState(parts.get(0), new LinkedHashSet<>(parts.subList(1, parts.size())));
+    }
+
+    // last passed modification time and the identifiers passed with it
+    static class TokenState {
+
+        private String timestamp;
+        private final Set<String> ids;
+
+        TokenState(String timestamp, Set<String> ids) {
+            this.timestamp = timestamp;
+            this.ids = new LinkedHashSet<>(ids);
+        }
+
+        String getTimestamp() {
+            return timestamp;
+        }
+
+        Set<String> getIds() {
+            return ids;
+        }
+
+        // false when the object was passed before the state, a later modification time replaces the identifiers
+        boolean pass(String modified, String id) {
+            int order = timestamp == null ? 1 : modified.compareTo(timestamp);
+            if (order < 0 || (order == 0 && ids.contains(id))) {
+                return false;
+            }
+            if (order > 0) {
+                timestamp = modified;
+                ids.clear();
+            }
+            ids.add(id);
+            return true;
+        }
+    }
+}
@@ -4,12 +4,14 @@ import com.evolveum.polygon.connector.sap.ume.*;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.common.security.SecurityUtil;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.identityconnectors.framework.common.objects.*;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.openspml.message.*;
 import org.openspml.message.SearchResult;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class SapUMEUpdate extends SapUMEAbstractOperation {
 
@@ -32,13 +34,15 @@ public class SapUMEUpdate extends SapUMEAbstractOperation {
         Object validToDateName = null;
         Object validFromName = null;
         Object validToName = null;
+        // current values of all multi-valued attributes are read in parallel
+        Map<Attribute, CompletableFuture<ArrayList<String>>> assignedLists = new LinkedHashMap<>();
         while (attrsIter.hasNext()) {
             Attribute attr = attrsIter.next();
             String attrName = objectClass.assignAttribute(attr.getName());
             if (isRoleAttribute(attrName)) {
-                getListElement(modifyRequest, attr, uidValue, updateBase);
+                assignedLists.put(attr, getAssignedList(uidValue, attr.getName(), updateBase));
             } else if (isGroupAttribute(attrName) || attrName.equals(SapUMESchema.ATTRIBUTE_MEMBER) || attrName.equals(SapUMESchema.ATTRIBUTE_CERTIFICATE)) {
-                getListElement(modifyRequest, attr, uidValue, updateBase);
+                assignedLists.put(attr, getAssignedList(uidValue, attr.getName(), updateBase));
             } else {
                 if ((attrName.equals(SapUMESchema.ATTRIBUTE_PASSWORD) || (attrName.equals(OperationalAttributes.PASSWORD_NAME)))) {
                     if (getConfiguration().getInitialPasswordAfterUpdate()) {
@@ -87,6 +91,10 @@ public class SapUMEUpdate extends SapUMEAbstractOperation {
             }
         }
 
+        for (Map.Entry<Attribute, CompletableFuture<ArrayList<String>>> assignedList : assignedLists.entrySet()) {
+            getListElement(modifyRequest, assignedList.getKey(), join(assignedList.getValue()));
+        }
+
         if(validFromDateName!=null) {
             modifyRequest.addModification(SapUMESchema.ATTRIBUTE_VALIDFROM, validFromDateName);
         } else if(validFromName!=null) {
@@ -102,10 +110,23 @@ public class SapUMEUpdate extends SapUMEAbstractOperation {
             LOG.error("Modify Request attributes can't be empty : ", uid.toString());
             backUid = uidValue;
         } else {
-            super.getConnection().connect(modifyRequest, LOG_OPERATION_UPDATE);
-            backUid = uidValue;
-            if (passwordAttrAbleToChange != null) {
-                updatePassword(uidValue, passwordAttrAbleToChange);   //if I don't call this, then the password will be init password
+            try {
+                if (passwordAttrAbleToChange != null && Boolean.TRUE.equals(getConfiguration().getUseBatchRequests())) {
+                    // modification with the dummy password and the password change in one round trip
+                    super.getConnection().batch(Arrays.asList(modifyRequest, createPasswordRequest(uidValue, passwordAttrAbleToChange)), LOG_OPERATION_UPDATE);
+                    backUid = uidValue;
+                } else {
+                    super.getConnection().connect(modifyRequest, LOG_OPERATION_UPDATE);
+                    backUid = uidValue;
+                    if (passwordAttrAbleToChange != null) {
+                        updatePassword(uidValue, passwordAttrAbleToChange);   //if I don't call this, then the password will be init password
+                    }
+                }
+            } catch (UnknownUidException e) {
+                cacheMissing(objectClass, uidValue);
+                throw e;
+            } finally {
+                invalidateCached(objectClass, uidValue, replaceAttributes);
             }
         }
         modifyRequest = null;
@@ -113,14 +134,13 @@ public class SapUMEUpdate extends SapUMEAbstractOperation {
         return new Uid(backUid);
     }
 
-    private void getListElement(ModifyRequest modifyRequest, Attribute multiValueAttr, String uidValue, String base) {
+    private void getListElement(ModifyRequest modifyRequest, Attribute multiValueAttr, List existlst) {
         List<String> lstAddRecords = new ArrayList();
         List<String> lstRmRecords = new ArrayList();
 
         String attrName = multiValueAttr.getName();
         List Newlst = multiValueAttr.getValue();
 
-        List existlst = getAssignedList(uidValue, attrName, base);
         HashMap hmMultiValueAttrs = compare(existlst, Newlst);
 
         lstAddRecords = (List) hmMultiValueAttrs.get(Modification.OP_ADD);
@@ -143,6 +163,10 @@ public class SapUMEUpdate extends SapUMEAbstractOperation {
     }
 
     protected void updatePassword(String uidValue, Attribute passwordAttr) {
+        super.getConnection().connect(createPasswordRequest(uidValue, passwordAttr), LOG_OPERATION_UPDATE);
+    }
+
+    private ModifyRequest createPasswordRequest(String uidValue, Attribute passwordAttr) {
         ModifyRequest req = new ModifyRequest();
         String dummyPassword = SecurityUtil.decrypt(super.getConfiguration().getDummyPassword());
         Object attrVal = passwordAttr.getValue().get(0);
@@ -151,11 +175,10 @@ public class SapUMEUpdate extends SapUMEAbstractOperation {
         req.addModification(SapUMESchema.ATTRIBUTE_OLDPASSWORD, dummyPassword);
         req.addModification(SapUMESchema.ATTRIBUTE_PASSWORD, newPassword);
         req.setIdentifier(uidValue);
-        super.getConnection().connect(req, LOG_OPERATION_UPDATE);
+        return req;
     }
 
-    private ArrayList<String> getAssignedList(String uidValue, String attrName, String base) {
-        ArrayList<String> assignedList = new ArrayList();
+    private CompletableFuture<ArrayList<String>> getAssignedList(String uidValue, String attrName, String base) {
         SearchRequest searchReq = new SearchRequest();
         Filter filter = new Filter();
         FilterTerm oSub2FilterTerm = new FilterTerm();
@@ -169,7 +192,11 @@ public class SapUMEUpdate extends SapUMEAbstractOperation {
             searchReq.setFilter(filter);
         }
         searchReq.addAttribute(attrName);
-        SpmlResponse spmlResponse = super.getConnection().connect(searchReq, LOG_OPERATION_UPDATE);
+        return super.getConnection().connectAsync(searchReq, LOG_OPERATION_UPDATE).thenApply(spmlResponse -> getAssignedList(spmlResponse, attrName));
+    }
+
+    private ArrayList<String> getAssignedList(SpmlResponse spmlResponse, String attrName) {
+        ArrayList<String> assignedList = new ArrayList();
         SearchResponse resp = (SearchResponse) spmlResponse;
         List results = resp.getResults();
         SearchResult searchResult = (SearchResult) results.get(0);
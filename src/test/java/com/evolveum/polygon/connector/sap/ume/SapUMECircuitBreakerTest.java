@@ -0,0 +1,84 @@
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SapUMECircuitBreakerTest {
+
+    @Test
+    public void testDisabledByDefault() {
+        SapUMEConfiguration configuration = createConfiguration("http://disabled:50000/spml/spmlservice", "admin");
+        Assert.assertEquals(configuration.getCircuitBreakerThreshold(), Integer.valueOf(0));
+        SapUMECircuitBreaker breaker = SapUMECircuitBreaker.forConfiguration(configuration);
+        for (int i = 0; i < 100; i++) {
+            breaker.onFailure();
+        }
+        Assert.assertFalse(breaker.isOpen());
+        breaker.beforeRequest();
+        Assert.assertNotSame(SapUMECircuitBreaker.forConfiguration(configuration), breaker);
+    }
+
+    @Test
+    public void testOpensAfterThreshold() {
+        SapUMECircuitBreaker breaker = new SapUMECircuitBreaker("http://ume", 3, 60000);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.beforeRequest();
+        breaker.onFailure();
+        Assert.assertTrue(breaker.isOpen());
+        Assert.assertThrows(ConnectorIOException.class, breaker::beforeRequest);
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        SapUMECircuitBreaker breaker = new SapUMECircuitBreaker("http://ume", 2, 60000);
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        Assert.assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void testHalfOpenTrialRequest() throws Exception {
+        SapUMECircuitBreaker breaker = new SapUMECircuitBreaker("http://ume", 1, 50);
+        breaker.onFailure();
+        Assert.assertTrue(breaker.isOpen());
+        Thread.sleep(80);
+        // the trial request is let through, its failure opens the circuit again
+        breaker.beforeRequest();
+        Assert.assertFalse(breaker.isOpen());
+        breaker.onFailure();
+        Assert.assertTrue(breaker.isOpen());
+        Thread.sleep(80);
+        breaker.beforeRequest();
+        breaker.onSuccess();
+        Assert.assertFalse(breaker.isOpen());
+        breaker.beforeRequest();
+    }
+
+    @Test
+    public void testSharedByConfiguration() {
+        String url = "http://shared:50000/spml/spmlservice";
+        SapUMEConfiguration configuration = createConfiguration(url, "admin");
+        configuration.setCircuitBreakerThreshold(5);
+        SapUMEConfiguration same = createConfiguration(url, "admin");
+        same.setCircuitBreakerThreshold(5);
+        SapUMEConfiguration otherUser = createConfiguration(url, "other");
+        otherUser.setCircuitBreakerThreshold(5);
+        SapUMEConfiguration otherThreshold = createConfiguration(url, "admin");
+        otherThreshold.setCircuitBreakerThreshold(2);
+
+        SapUMECircuitBreaker breaker = SapUMECircuitBreaker.forConfiguration(configuration);
+        Assert.assertSame(SapUMECircuitBreaker.forConfiguration(same), breaker);
+        Assert.assertNotSame(SapUMECircuitBreaker.forConfiguration(otherUser), breaker);
+        Assert.assertNotSame(SapUMECircuitBreaker.forConfiguration(otherThreshold), breaker);
+    }
+
+    private static SapUMEConfiguration createConfiguration(String url, String user) {
+        SapUMEConfiguration configuration = new SapUMEConfiguration();
+        configuration.setURL(url);
+        configuration.setUser(user);
+        return configuration;
+    }
+}
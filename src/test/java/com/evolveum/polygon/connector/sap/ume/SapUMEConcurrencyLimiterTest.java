@@ -0,0 +1,172 @@
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SapUMEConcurrencyLimiterTest {
+
+    @Test
+    public void testInitialLimit() {
+        Assert.assertEquals(SapUMEConcurrencyLimiter.forEndpoint("http://initial", 32, 0, 0, 0).getLimit(), 4);
+        Assert.assertEquals(SapUMEConcurrencyLimiter.forEndpoint("http://initial-small", 2, 0, 0, 0).getLimit(), 2);
+    }
+
+    @Test
+    public void testRejectedWithoutQueue() throws Exception {
+        SapUMEConcurrencyLimiter limiter = SapUMEConcurrencyLimiter.forEndpoint("http://rejected", 4, 0, 0, 0);
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+        }
+        Assert.assertEquals(limiter.getInFlight(), 4);
+        Assert.assertThrows(ConnectorIOException.class, limiter::acquire);
+    }
+
+    @Test
+    public void testQueueTimeout() throws Exception {
+        SapUMEConcurrencyLimiter limiter = SapUMEConcurrencyLimiter.forEndpoint("http://timeout", 1, 0, 10, 50);
+        limiter.acquire();
+        long start = System.nanoTime();
+        Assert.assertThrows(OperationTimeoutException.class, limiter::acquire);
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 40);
+        Assert.assertEquals(limiter.getQueueDepth(), 0);
+    }
+
+    @Test
+    public void testQueuedRequestRunsAfterRelease() throws Exception {
+        SapUMEConcurrencyLimiter limiter = SapUMEConcurrencyLimiter.forEndpoint("http://queued", 1, 0, 10, 0);
+        long start = limiter.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+        AtomicLong queuedStart = new AtomicLong();
+        Thread waiting = new Thread(() -> {
+            try {
+                queuedStart.set(limiter.acquire());
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.start();
+        Assert.assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(limiter.getQueueDepth(), 1);
+        limiter.release(start, false);
+        Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        limiter.release(queuedStart.get(), false);
+        Assert.assertEquals(limiter.getInFlight(), 0);
+    }
+
+    @Test
+    public void testAsyncAcquireInQueueOrder() throws Exception {
+        SapUMEConcurrencyLimiter limiter = SapUMEConcurrencyLimiter.forEndpoint("http://async", 1, 0, 2, 0);
+        long start = limiter.acquireAsync().get();
+        CompletableFuture<Long> first = limiter.acquireAsync();
+        CompletableFuture<Long> second = limiter.acquireAsync();
+        Assert.assertFalse(first.isDone());
+        Assert.assertEquals(limiter.getQueueDepth(), 2);
+        // a full queue rejects without blocking
+        Assert.assertThrows(ExecutionException.class, () -> limiter.acquireAsync().get(1, TimeUnit.SECONDS));
+        limiter.release(start, false);
+        Assert.assertTrue(first.isDone());
+        Assert.assertFalse(second.isDone());
+        limiter.release(first.get(), false);
+        limiter.release(second.get(1, TimeUnit.SECONDS), false);
+        Assert.assertEquals(limiter.getInFlight(), 0);
+        Assert.assertEquals(limiter.getQueueDepth(), 0);
+    }
+
+    @Test
+    public void testAsyncQueueTimeout() throws Exception {
+        SapUMEConcurrencyLimiter limiter = SapUMEConcurrencyLimiter.forEndpoint("http://async-timeout", 1, 0, 10, 50);
+        limiter.acquire();
+        ExecutionException exception = Assert.expectThrows(ExecutionException.class,
+                () -> limiter.acquireAsync().get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(exception.getCause() instanceof OperationTimeoutException, String.valueOf(exception.getCause()));
+        Assert.assertEquals(limiter.getQueueDepth(), 0);
+        Assert.assertEquals(limiter.getInFlight(), 1);
+    }
+
+    @Test
+    public void testInterruptedAcquireLeavesQueue() throws Exception {
+        SapUMEConcurrencyLimiter limiter = SapUMEConcurrencyLimiter.forEndpoint("http://interrupted", 1, 0, 10, 0);
+        long start = limiter.acquire();
+        Thread waiting = new Thread(() -> {
+            try {
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.start();
+        while (limiter.getQueueDepth() == 0) {
+            Thread.sleep(10);
+        }
+        waiting.interrupt();
+        waiting.join(5000);
+        Assert.assertEquals(limiter.getQueueDepth(), 0);
+        limiter.release(start, false);
+        Assert.assertEquals(limiter.getInFlight(), 0);
+    }
+
+    @Test
+    public void testMultiplicativeDecreaseOncePerOverload() throws Exception {
+        SapUMEConcurrencyLimiter limiter = SapUMEConcurrencyLimiter.forEndpoint("http://decrease", 32, 0, 0, 0);
+        long[] starts = new long[4];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = limiter.acquire();
+        }
+        limiter.release(starts[0], true);
+        Assert.assertEquals(limiter.getLimit(), 2);
+        // the other requests were sent before the decrease, the same overload does not halve the limit again
+        limiter.release(starts[1], true);
+        limiter.release(starts[2], true);
+        limiter.release(starts[3], true);
+        Assert.assertEquals(limiter.getLimit(), 2);
+
+        limiter.release(limiter.acquire(), true);
+        Assert.assertEquals(limiter.getLimit(), 1);
+        limiter.release(limiter.acquire(), true);
+        Assert.assertEquals(limiter.getLimit(), 1);
+    }
+
+    @Test
+    public void testSlowResponseDecreases() throws Exception {
+        SapUMEConcurrencyLimiter limiter = SapUMEConcurrencyLimiter.forEndpoint("http://slow", 32, 20, 0, 0);
+        long start = limiter.acquire();
+        Thread.sleep(40);
+        limiter.release(start, false);
+        Assert.assertEquals(limiter.getLimit(), 2);
+    }
+
+    @Test
+    public void testAdditiveIncreaseUpToMaxLimit() throws Exception {
+        SapUMEConcurrencyLimiter limiter = SapUMEConcurrencyLimiter.forEndpoint("http://increase", 6, 0, 0, 0);
+        // the limit grows only when it is used, two requests keep running
+        limiter.acquire();
+        limiter.acquire();
+        // 1 / limit per request, about one limit of requests
+        for (int i = 0; i < 5; i++) {
+            limiter.release(limiter.acquire(), false);
+        }
+        Assert.assertEquals(limiter.getLimit(), 5);
+        for (int i = 0; i < 100; i++) {
+            limiter.release(limiter.acquire(), false);
+        }
+        Assert.assertEquals(limiter.getLimit(), 6);
+    }
+
+    @Test
+    public void testUnusedLimitDoesNotGrow() throws Exception {
+        SapUMEConcurrencyLimiter limiter = SapUMEConcurrencyLimiter.forEndpoint("http://unused", 32, 0, 0, 0);
+        for (int i = 0; i < 100; i++) {
+            limiter.release(limiter.acquire(), false);
+        }
+        Assert.assertEquals(limiter.getLimit(), 4);
+    }
+}
@@ -0,0 +1,99 @@
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SapUMEExecutorsTest {
+
+    @Test
+    public void testSharedByConfiguration() {
+        SapUMEExecutors executors = SapUMEExecutors.acquire(createConfiguration("shared", 2));
+        SapUMEExecutors same = SapUMEExecutors.acquire(createConfiguration("shared", 2));
+        SapUMEExecutors other = SapUMEExecutors.acquire(createConfiguration("other", 2));
+        try {
+            Assert.assertSame(same, executors);
+            Assert.assertNotSame(other, executors);
+            Assert.assertSame(same.getSearchExecutor(), executors.getSearchExecutor());
+        } finally {
+            executors.release();
+            same.release();
+            other.release();
+        }
+    }
+
+    @Test
+    public void testSearchThreadsBounded() throws Exception {
+        SapUMEExecutors executors = SapUMEExecutors.acquire(createConfiguration("bounded", 3));
+        try {
+            Assert.assertEquals(executors.getSearchThreads(), 3);
+            ExecutorService executor = executors.getSearchExecutor();
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch(20);
+            for (int i = 0; i < 20; i++) {
+                executor.execute(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                });
+            }
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(maxRunning.get(), 3);
+        } finally {
+            executors.release();
+        }
+    }
+
+    @Test
+    public void testMappingThreads() {
+        SapUMEConfiguration configuration = createConfiguration("mapping", 2);
+        configuration.setMappingThreads(3);
+        SapUMEExecutors executors = SapUMEExecutors.acquire(configuration);
+        ExecutorService executor = executors.getMappingExecutor();
+        Assert.assertEquals(executors.getMappingThreads(), 3);
+        Assert.assertSame(executors.getMappingExecutor(), executor);
+        Assert.assertNotSame(executors.getSearchExecutor(), executor);
+        executors.release();
+        Assert.assertTrue(executor.isShutdown());
+    }
+
+    @Test
+    public void testShutDownByLastRelease() {
+        SapUMEConfiguration configuration = createConfiguration("released", 2);
+        SapUMEExecutors executors = SapUMEExecutors.acquire(configuration);
+        SapUMEExecutors second = SapUMEExecutors.acquire(configuration);
+        ExecutorService executor = executors.getSearchExecutor();
+        executors.release();
+        Assert.assertFalse(executor.isShutdown());
+        second.release();
+        Assert.assertTrue(executor.isShutdown());
+        Assert.assertThrows(IllegalStateException.class, executors::getSearchExecutor);
+
+        // a new connector instance gets new threads
+        SapUMEExecutors next = SapUMEExecutors.acquire(configuration);
+        try {
+            Assert.assertNotSame(next, executors);
+            Assert.assertFalse(next.getSearchExecutor().isShutdown());
+        } finally {
+            next.release();
+        }
+    }
+
+    private static SapUMEConfiguration createConfiguration(String user, int parallelism) {
+        SapUMEConfiguration configuration = new SapUMEConfiguration();
+        configuration.setURL("http://executors:50000/spml/spmlservice");
+        configuration.setUser(user);
+        configuration.setFullSearchParallelism(parallelism);
+        return configuration;
+    }
+}
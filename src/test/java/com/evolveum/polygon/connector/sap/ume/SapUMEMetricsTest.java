@@ -0,0 +1,123 @@
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public class SapUMEMetricsTest {
+
+    // relative width of a histogram bucket, 2^(1/4)
+    private static final double BUCKET_WIDTH = Math.pow(2, 0.25);
+
+    @Test
+    public void testEmptyHistogram() {
+        SapUMEMetrics metrics = SapUMEMetrics.acquire(createConfiguration("empty"));
+        try {
+            SapUMEMetrics.OperationMetrics operationMetrics = metrics.forOperation("search");
+            Assert.assertEquals(operationMetrics.getRequestCount(), 0);
+            Assert.assertEquals(operationMetrics.getLatencyP50(), 0);
+            Assert.assertEquals(operationMetrics.getLatencyMax(), 0);
+        } finally {
+            metrics.release();
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        SapUMEMetrics metrics = SapUMEMetrics.acquire(createConfiguration("percentiles"));
+        try {
+            SapUMEMetrics.OperationMetrics operationMetrics = metrics.forOperation("search");
+            for (int latency = 1; latency <= 1000; latency++) {
+                operationMetrics.record(latency, 10, 100, 1, null);
+            }
+            Assert.assertEquals(operationMetrics.getRequestCount(), 1000);
+            Assert.assertEquals(operationMetrics.getLatencyMax(), 1000);
+            assertApproximately(operationMetrics.getLatencyP50(), 500);
+            assertApproximately(operationMetrics.getLatencyP95(), 950);
+            assertApproximately(operationMetrics.getLatencyP99(), 990);
+            Assert.assertTrue(operationMetrics.getLatencyP99() <= 1000);
+            Assert.assertEquals(operationMetrics.getRequestBytes(), 10000);
+            Assert.assertEquals(operationMetrics.getResponseBytes(), 100000);
+            Assert.assertEquals(operationMetrics.getResultEntries(), 1000);
+        } finally {
+            metrics.release();
+        }
+    }
+
+    @Test
+    public void testSingleLatency() {
+        SapUMEMetrics metrics = SapUMEMetrics.acquire(createConfiguration("single"));
+        try {
+            SapUMEMetrics.OperationMetrics operationMetrics = metrics.forOperation("get");
+            operationMetrics.record(0, 0, 0, 0, null);
+            Assert.assertEquals(operationMetrics.getLatencyP99(), 0);
+            // a percentile is never above the maximum seen
+            operationMetrics.record(37, 0, 0, 0, null);
+            Assert.assertEquals(operationMetrics.getLatencyP99(), 37);
+            // very long latencies are counted in the last bucket
+            operationMetrics.record(Long.MAX_VALUE / 2, 0, 0, 0, null);
+            Assert.assertEquals(operationMetrics.getRequestCount(), 3);
+        } finally {
+            metrics.release();
+        }
+    }
+
+    @Test
+    public void testErrorsAndReset() {
+        SapUMEMetrics metrics = SapUMEMetrics.acquire(createConfiguration("errors"));
+        try {
+            SapUMEMetrics.OperationMetrics operationMetrics = metrics.forOperation("delete");
+            long start = operationMetrics.begin();
+            Assert.assertEquals(operationMetrics.getInFlight(), 1);
+            operationMetrics.end(start, 0, 0, 0, new UnknownUidException());
+            Assert.assertEquals(operationMetrics.getInFlight(), 0);
+            operationMetrics.record(5, 0, 0, 0, new UnknownUidException());
+            operationMetrics.record(5, 0, 0, 0, new ConnectorIOException());
+            Assert.assertEquals(operationMetrics.getErrorCount(), 3);
+            Assert.assertEquals(operationMetrics.getErrorsByType().get("UnknownUidException"), Long.valueOf(2));
+            Assert.assertEquals(operationMetrics.getErrorsByType().get("ConnectorIOException"), Long.valueOf(1));
+
+            operationMetrics.reset();
+            Assert.assertEquals(operationMetrics.getRequestCount(), 0);
+            Assert.assertEquals(operationMetrics.getErrorCount(), 0);
+            Assert.assertTrue(operationMetrics.getErrorsByType().isEmpty());
+            Assert.assertEquals(operationMetrics.getLatencyP50(), 0);
+        } finally {
+            metrics.release();
+        }
+    }
+
+    @Test
+    public void testMBeanRegisteredWhileAcquired() throws Exception {
+        SapUMEConfiguration configuration = createConfiguration("jmx");
+        SapUMEMetrics metrics = SapUMEMetrics.acquire(configuration);
+        SapUMEMetrics shared = SapUMEMetrics.acquire(configuration);
+        Assert.assertSame(shared, metrics);
+        metrics.forOperation("create");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.evolveum.polygon.connector.sap.ume:type=SapUMEMetrics,url="
+                + ObjectName.quote(configuration.getURL()) + ",user=" + ObjectName.quote("jmx") + ",operation=" + ObjectName.quote("create"));
+        Assert.assertTrue(server.isRegistered(name));
+        shared.release();
+        Assert.assertTrue(server.isRegistered(name));
+        metrics.release();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+
+    private static void assertApproximately(long actual, long expected) {
+        Assert.assertTrue(actual >= expected && actual <= Math.ceil(expected * BUCKET_WIDTH),
+                "expected about " + expected + " but was " + actual);
+    }
+
+    private static SapUMEConfiguration createConfiguration(String user) {
+        SapUMEConfiguration configuration = new SapUMEConfiguration();
+        configuration.setURL("http://metrics:50000/spml/spmlservice");
+        configuration.setUser(user);
+        return configuration;
+    }
+}
@@ -0,0 +1,211 @@
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SapUMEObjectCacheTest {
+
+    private static final SapUMEObjectClass ACCOUNT = new SapUMEObjectClass(ObjectClass.ACCOUNT);
+    private static final SapUMEObjectClass GROUP = new SapUMEObjectClass(ObjectClass.GROUP);
+    private static final String ATTRIBUTES = "id,logonname";
+
+    private final List<SapUMEObjectCache> acquired = new ArrayList<>();
+
+    @AfterMethod
+    public void release() {
+        for (SapUMEObjectCache cache : acquired) {
+            cache.release();
+        }
+        acquired.clear();
+    }
+
+    @Test
+    public void testDisabledWithoutTimeouts() {
+        Assert.assertNull(SapUMEObjectCache.acquire(createConfiguration("disabled")));
+    }
+
+    @Test
+    public void testCachedByUidIgnoringCase() {
+        SapUMEObjectCache cache = acquire(createConfiguration("uid"));
+        Assert.assertTrue(cache.isEnabled(ACCOUNT));
+        Assert.assertFalse(cache.isEnabled(GROUP));
+        cache.put(ACCOUNT, ATTRIBUTES, createUser("joe"), cache.getWriteCount());
+        Assert.assertEquals(cache.get(ACCOUNT, ATTRIBUTES, "user.private_datasource.un:JOE").getName().getNameValue(), "joe");
+        // other attributes are a different object
+        Assert.assertNull(cache.get(ACCOUNT, "id", "USER.PRIVATE_DATASOURCE.un:joe"));
+        Assert.assertEquals(cache.getHitCount(), 1);
+        Assert.assertEquals(cache.getMissCount(), 1);
+
+        // objects of a class without timeout are not cached
+        cache.put(GROUP, ATTRIBUTES, createUser("admins"), cache.getWriteCount());
+        Assert.assertNull(cache.get(GROUP, ATTRIBUTES, "USER.PRIVATE_DATASOURCE.un:admins"));
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        SapUMEConfiguration configuration = createConfiguration("expired");
+        configuration.setAccountCacheTimeout(30);
+        SapUMEObjectCache cache = acquire(configuration);
+        cache.put(ACCOUNT, ATTRIBUTES, createUser("joe"), cache.getWriteCount());
+        Thread.sleep(60);
+        Assert.assertNull(cache.get(ACCOUNT, ATTRIBUTES, "USER.PRIVATE_DATASOURCE.un:joe"));
+        Assert.assertEquals(cache.getObjectCount(), 0);
+        Assert.assertEquals(cache.getEstimatedBytes(), 0);
+    }
+
+    @Test
+    public void testBoundedByObjects() {
+        SapUMEConfiguration configuration = createConfiguration("objects");
+        configuration.setObjectCacheSize(3);
+        SapUMEObjectCache cache = acquire(configuration);
+        for (String name : new String[]{"a", "b", "c"}) {
+            cache.put(ACCOUNT, ATTRIBUTES, createUser(name), cache.getWriteCount());
+        }
+        // the least recently used object is removed
+        cache.get(ACCOUNT, ATTRIBUTES, "USER.PRIVATE_DATASOURCE.un:a");
+        cache.put(ACCOUNT, ATTRIBUTES, createUser("d"), cache.getWriteCount());
+        Assert.assertEquals(cache.getObjectCount(), 3);
+        Assert.assertEquals(cache.getEvictionCount(), 1);
+        Assert.assertNotNull(cache.get(ACCOUNT, ATTRIBUTES, "USER.PRIVATE_DATASOURCE.un:a"));
+        Assert.assertNull(cache.get(ACCOUNT, ATTRIBUTES, "USER.PRIVATE_DATASOURCE.un:b"));
+    }
+
+    @Test
+    public void testBoundedByBytes() {
+        SapUMEConfiguration configuration = createConfiguration("bytes");
+        configuration.setObjectCacheMaxBytes(2000);
+        SapUMEObjectCache cache = acquire(configuration);
+        for (int i = 0; i < 20; i++) {
+            cache.put(ACCOUNT, ATTRIBUTES, createUser("user" + i), cache.getWriteCount());
+        }
+        Assert.assertTrue(cache.getEstimatedBytes() <= 2000, String.valueOf(cache.getEstimatedBytes()));
+        Assert.assertTrue(cache.getObjectCount() > 0 && cache.getObjectCount() < 20);
+        Assert.assertNotNull(cache.get(ACCOUNT, ATTRIBUTES, "USER.PRIVATE_DATASOURCE.un:user19"));
+
+        // an object larger than the limit is not cached at all
+        ConnectorObjectBuilder builder = new ConnectorObjectBuilder().setUid("USER.PRIVATE_DATASOURCE.un:large").setName("large");
+        builder.addAttribute("certificate", new String(new char[5000]));
+        cache.put(ACCOUNT, ATTRIBUTES, builder.build(), cache.getWriteCount());
+        Assert.assertNull(cache.get(ACCOUNT, ATTRIBUTES, "USER.PRIVATE_DATASOURCE.un:large"));
+        Assert.assertNotNull(cache.get(ACCOUNT, ATTRIBUTES, "USER.PRIVATE_DATASOURCE.un:user19"));
+    }
+
+    @Test
+    public void testInvalidatedByWrites() {
+        SapUMEConfiguration configuration = createConfiguration("writes");
+        configuration.setGroupCacheTimeout(60000);
+        SapUMEObjectCache cache = acquire(configuration);
+        long writeCount = cache.getWriteCount();
+        cache.put(ACCOUNT, ATTRIBUTES, createUser("joe"), writeCount);
+        cache.put(ACCOUNT, ATTRIBUTES, createUser("ann"), writeCount);
+        cache.put(GROUP, ATTRIBUTES, createUser("admins"), writeCount);
+
+        cache.invalidate(ACCOUNT, "USER.PRIVATE_DATASOURCE.un:JOE", false, false);
+        Assert.assertNull(cache.get(ACCOUNT, ATTRIBUTES, "USER.PRIVATE_DATASOURCE.un:joe"));
+        Assert.assertNotNull(cache.get(ACCOUNT, ATTRIBUTES, "USER.PRIVATE_DATASOURCE.un:ann"));
+        Assert.assertNotNull(cache.get(GROUP, ATTRIBUTES, "USER.PRIVATE_DATASOURCE.un:admins"));
+
+        // a search running during the write may have read the old values
+        cache.put(ACCOUNT, ATTRIBUTES, createUser("joe"), writeCount);
+        Assert.assertNull(cache.get(ACCOUNT, ATTRIBUTES, "USER.PRIVATE_DATASOURCE.un:joe"));
+
+        // changed memberships drop the objects of the other classes
+        cache.invalidate(ACCOUNT, "USER.PRIVATE_DATASOURCE.un:ann", true, false);
+        Assert.assertNull(cache.get(GROUP, ATTRIBUTES, "USER.PRIVATE_DATASOURCE.un:admins"));
+        Assert.assertEquals(cache.getObjectCount(), 0);
+        Assert.assertEquals(cache.getEstimatedBytes(), 0);
+        Assert.assertEquals(cache.getInvalidationCount(), 2);
+    }
+
+    @Test
+    public void testMissingValues() throws Exception {
+        SapUMEConfiguration configuration = createConfiguration("missing");
+        configuration.setAccountCacheTimeout(0);
+        configuration.setNegativeCacheTimeout(50);
+        SapUMEObjectCache cache = acquire(configuration);
+        Assert.assertFalse(cache.isEnabled(ACCOUNT));
+        Assert.assertTrue(cache.isNegativeEnabled());
+        cache.putMissing(ACCOUNT, SapUMESchema.ATTRIBUTE_LOGONNAME, "nobody", cache.getWriteCount());
+        Assert.assertTrue(cache.isMissing(ACCOUNT, SapUMESchema.ATTRIBUTE_LOGONNAME, "nobody"));
+        Assert.assertFalse(cache.isMissing(ACCOUNT, SapUMESchema.ATTRIBUTE_ID, "nobody"));
+        Assert.assertFalse(cache.isMissing(GROUP, SapUMESchema.ATTRIBUTE_LOGONNAME, "nobody"));
+        Assert.assertEquals(cache.getMissingHitCount(), 1);
+
+        // the expiration is not extended by the lookups
+        Thread.sleep(80);
+        Assert.assertFalse(cache.isMissing(ACCOUNT, SapUMESchema.ATTRIBUTE_LOGONNAME, "nobody"));
+        Assert.assertEquals(cache.getMissingCount(), 0);
+    }
+
+    @Test
+    public void testMissingValuesForgotten() {
+        SapUMEConfiguration configuration = createConfiguration("forgotten");
+        configuration.setNegativeCacheTimeout(60000);
+        configuration.setObjectCacheSize(2);
+        SapUMEObjectCache cache = acquire(configuration);
+        long writeCount = cache.getWriteCount();
+        cache.putMissing(ACCOUNT, SapUMESchema.ATTRIBUTE_LOGONNAME, "a", writeCount);
+        cache.putMissing(GROUP, SapUMESchema.ATTRIBUTE_UNIQUENAME, "b", writeCount);
+
+        // an update does not forget them, a create or rename of the class does
+        cache.invalidate(ACCOUNT, "USER.PRIVATE_DATASOURCE.un:joe", false, false);
+        Assert.assertTrue(cache.isMissing(ACCOUNT, SapUMESchema.ATTRIBUTE_LOGONNAME, "a"));
+        cache.invalidate(ACCOUNT, "USER.PRIVATE_DATASOURCE.un:a", false, true);
+        Assert.assertFalse(cache.isMissing(ACCOUNT, SapUMESchema.ATTRIBUTE_LOGONNAME, "a"));
+        Assert.assertTrue(cache.isMissing(GROUP, SapUMESchema.ATTRIBUTE_UNIQUENAME, "b"));
+
+        // a lookup running during a write is not remembered
+        cache.putMissing(ACCOUNT, SapUMESchema.ATTRIBUTE_LOGONNAME, "c", writeCount);
+        Assert.assertFalse(cache.isMissing(ACCOUNT, SapUMESchema.ATTRIBUTE_LOGONNAME, "c"));
+
+        // at most objectCacheSize values, least recently used first
+        cache.putMissing(ACCOUNT, SapUMESchema.ATTRIBUTE_ID, "x");
+        cache.putMissing(ACCOUNT, SapUMESchema.ATTRIBUTE_ID, "y");
+        Assert.assertEquals(cache.getMissingCount(), 2);
+        Assert.assertFalse(cache.isMissing(GROUP, SapUMESchema.ATTRIBUTE_UNIQUENAME, "b"));
+        Assert.assertTrue(cache.isMissing(ACCOUNT, SapUMESchema.ATTRIBUTE_ID, "y"));
+    }
+
+    @Test
+    public void testSharedAndClearedOnRelease() {
+        SapUMEConfiguration configuration = createConfiguration("shared");
+        SapUMEObjectCache cache = SapUMEObjectCache.acquire(configuration);
+        SapUMEObjectCache shared = SapUMEObjectCache.acquire(configuration);
+        Assert.assertSame(shared, cache);
+        cache.put(ACCOUNT, ATTRIBUTES, createUser("joe"), cache.getWriteCount());
+        shared.release();
+        Assert.assertEquals(cache.getObjectCount(), 1);
+        cache.release();
+        Assert.assertEquals(cache.getObjectCount(), 0);
+        SapUMEObjectCache next = acquire(configuration);
+        Assert.assertNotSame(next, cache);
+    }
+
+    private SapUMEObjectCache acquire(SapUMEConfiguration configuration) {
+        SapUMEObjectCache cache = SapUMEObjectCache.acquire(configuration);
+        acquired.add(cache);
+        return cache;
+    }
+
+    private static SapUMEConfiguration createConfiguration(String user) {
+        SapUMEConfiguration configuration = new SapUMEConfiguration();
+        configuration.setURL("http://cache:50000/spml/spmlservice");
+        configuration.setUser(user);
+        if (!"disabled".equals(user)) {
+            configuration.setAccountCacheTimeout(60000);
+        }
+        return configuration;
+    }
+
+    private static ConnectorObject createUser(String name) {
+        return new ConnectorObjectBuilder().setUid("USER.PRIVATE_DATASOURCE.un:" + name).setName(name)
+                .addAttribute("firstname", name.toUpperCase()).build();
+    }
+}
@@ -0,0 +1,114 @@
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.openspml.message.SearchResult;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class SapUMEPageCacheTest {
+
+    private static final long TIMEOUT = 60000;
+
+    @Test
+    public void testBoundedByPartitions() {
+        SapUMEPageCache cache = new SapUMEPageCache("test", Long.MAX_VALUE, TIMEOUT);
+        for (int i = 0; i < 20; i++) {
+            cache.put("partition" + i, CompletableFuture.completedFuture(createEntries(1)));
+        }
+        Assert.assertEquals(cache.getPartitionCount(), 16);
+        Assert.assertNull(cache.get("partition3"));
+        Assert.assertNotNull(cache.get("partition4"));
+    }
+
+    @Test
+    public void testBoundedByBytes() {
+        long partitionBytes = SapUMEPageCache.estimateBytes(createEntries(10));
+        SapUMEPageCache cache = new SapUMEPageCache("test", partitionBytes * 2, TIMEOUT);
+        cache.put("a", CompletableFuture.completedFuture(createEntries(10)));
+        cache.put("b", CompletableFuture.completedFuture(createEntries(10)));
+        Assert.assertEquals(cache.getBytes(), partitionBytes * 2);
+        // the least recently used partition is removed
+        cache.get("a");
+        cache.put("c", CompletableFuture.completedFuture(createEntries(10)));
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(cache.getBytes(), partitionBytes * 2);
+
+        // a partition larger than the limit is not kept
+        cache.put("large", CompletableFuture.completedFuture(createEntries(30)));
+        Assert.assertNull(cache.get("large"));
+        Assert.assertNotNull(cache.get("c"));
+        cache.remove("a");
+        cache.remove("c");
+        Assert.assertEquals(cache.getBytes(), 0);
+    }
+
+    @Test
+    public void testPrefetchCountedWhenCompleted() {
+        SapUMEPageCache cache = new SapUMEPageCache("test", Long.MAX_VALUE, TIMEOUT);
+        CompletableFuture<List<SearchResult>> prefetch = new CompletableFuture<>();
+        cache.putIfAbsent("a", prefetch);
+        cache.putIfAbsent("a", CompletableFuture.completedFuture(createEntries(1)));
+        Assert.assertSame(cache.get("a"), prefetch);
+        Assert.assertEquals(cache.getBytes(), 0);
+        prefetch.complete(createEntries(2));
+        Assert.assertEquals(cache.getBytes(), SapUMEPageCache.estimateBytes(createEntries(2)));
+
+        // a replaced prefetch completing later is not counted
+        CompletableFuture<List<SearchResult>> replaced = new CompletableFuture<>();
+        cache.put("b", replaced);
+        cache.put("b", CompletableFuture.completedFuture(createEntries(1)));
+        replaced.complete(createEntries(5));
+        Assert.assertEquals(cache.getBytes(), SapUMEPageCache.estimateBytes(createEntries(2)) + SapUMEPageCache.estimateBytes(createEntries(1)));
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        SapUMEPageCache cache = new SapUMEPageCache("test", Long.MAX_VALUE, 20);
+        cache.put("a", CompletableFuture.completedFuture(createEntries(1)));
+        Thread.sleep(50);
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(cache.getBytes(), 0);
+    }
+
+    @Test
+    public void testDisabled() {
+        SapUMEPageCache cache = new SapUMEPageCache("test", 0, TIMEOUT);
+        cache.put("a", CompletableFuture.completedFuture(createEntries(1)));
+        Assert.assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testSharedAndClearedOnRelease() {
+        SapUMEConfiguration configuration = new SapUMEConfiguration();
+        configuration.setURL("http://pages:50000/spml/spmlservice");
+        configuration.setUser("admin");
+        SapUMEPageCache cache = SapUMEPageCache.acquire(configuration);
+        SapUMEPageCache shared = SapUMEPageCache.acquire(configuration);
+        Assert.assertSame(shared, cache);
+        cache.put("a", CompletableFuture.completedFuture(createEntries(1)));
+        shared.release();
+        Assert.assertNotNull(cache.get("a"));
+        cache.release();
+        Assert.assertEquals(cache.getPartitionCount(), 0);
+        SapUMEPageCache next = SapUMEPageCache.acquire(configuration);
+        Assert.assertNotSame(next, cache);
+        next.release();
+    }
+
+    private static List<SearchResult> createEntries(int count) {
+        List<SearchResult> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            SearchResult entry = new SearchResult();
+            entry.setIdentifier("USER.PRIVATE_DATASOURCE.un:user" + i);
+            entry.setAttribute("logonname", "user" + i);
+            entry.setAttribute("email", Arrays.asList("user" + i + "@example.com"));
+            entries.add(entry);
+        }
+        return entries;
+    }
+}
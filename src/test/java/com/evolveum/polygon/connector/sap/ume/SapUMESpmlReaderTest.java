@@ -0,0 +1,158 @@
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.openspml.message.*;
+import org.openspml.util.SpmlException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The responses read by SapUMESpmlReader are compared with SpmlResponse.parseResponse of openspml.
+
+public class SapUMESpmlReaderTest {
+
+    private static final String ENVELOPE_START = "<?xml version='1.0' encoding='UTF-8'?>"
+            + "<SOAP-ENV:Envelope xmlns:SOAP-ENV='http://schemas.xmlsoap.org/soap/envelope/'><SOAP-ENV:Body>";
+    private static final String ENVELOPE_END = "</SOAP-ENV:Body></SOAP-ENV:Envelope>";
+    private static final String SEARCH_RESPONSE_START = "<spml:searchResponse xmlns:spml='urn:oasis:names:tc:SPML:1:0'"
+            + " xmlns:dsml='urn:oasis:names:tc:DSML:2:0:core' result='urn:oasis:names:tc:SPML:1:0#success'>";
+    private static final String SEARCH_RESPONSE_END = "</spml:searchResponse>";
+
+    @Test
+    public void testAddResponse() throws Exception {
+        AddResponse addResponse = new AddResponse();
+        addResponse.setResult(SpmlResponse.RESULT_SUCCESS);
+        addResponse.setIdentifier("USER.PRIVATE_DATASOURCE.un:joe");
+        addResponse.setAttribute("logonname", "joe");
+        assertSameAsOpenspml(addResponse);
+    }
+
+    @Test
+    public void testModifyFailure() throws Exception {
+        ModifyResponse modifyResponse = createModifyFailure();
+        SpmlResponse read = assertSameAsOpenspml(modifyResponse);
+        Assert.assertEquals(read.getErrorMessage(), "USER.X doesn't exist");
+    }
+
+    @Test
+    public void testBatchResponse() throws Exception {
+        DeleteResponse deleteResponse = new DeleteResponse();
+        deleteResponse.setResult(SpmlResponse.RESULT_SUCCESS);
+        BatchResponse batchResponse = new BatchResponse();
+        batchResponse.setResult(SpmlResponse.RESULT_SUCCESS);
+        batchResponse.addResponse(createModifyFailure());
+        batchResponse.addResponse(deleteResponse);
+        BatchResponse read = (BatchResponse) assertSameAsOpenspml(batchResponse);
+        Assert.assertEquals(read.getResponses().size(), 2);
+    }
+
+    @Test
+    public void testEmptySearchResponse() throws Exception {
+        SearchResponse searchResponse = new SearchResponse();
+        searchResponse.setResult(SpmlResponse.RESULT_SUCCESS);
+        SearchResponse read = (SearchResponse) assertSameAsOpenspml(searchResponse);
+        Assert.assertTrue(read.getResults() == null || read.getResults().isEmpty());
+    }
+
+    @Test
+    public void testMultiValuedSearchResponse() throws Exception {
+        SearchResponse searchResponse = new SearchResponse();
+        searchResponse.setResult(SpmlResponse.RESULT_SUCCESS);
+        SearchResult searchResult = new SearchResult();
+        searchResult.setIdentifier("USER.PRIVATE_DATASOURCE.un:joe");
+        searchResult.setAttribute("logonname", "joe");
+        searchResult.setAttribute("assignedroles", new ArrayList<>(Arrays.asList("ROLE.1", "ROLE.2", "ROLE.3")));
+        searchResponse.addResult(searchResult);
+        SearchResponse read = (SearchResponse) assertSameAsOpenspml(searchResponse);
+
+        SearchResult readResult = (SearchResult) read.getResults().get(0);
+        Assert.assertEquals(readResult.getAttributeValue("logonname"), "joe");
+        Assert.assertEquals(readResult.getAttributeValue("assignedroles"), Arrays.asList("ROLE.1", "ROLE.2", "ROLE.3"));
+    }
+
+    @Test
+    public void testBase64Value() throws Exception {
+        String certificate = "TUlJQ2R6Q0NBZUNnQXdJQkFnSUJBREFO\nQmdrcWhraUc5dzBCQVFRRkFE";
+        String xml = ENVELOPE_START + SEARCH_RESPONSE_START + "<spml:searchResultEntry>"
+                + "<spml:identifier type='urn:oasis:names:tc:SPML:1:0#GUID'><spml:id>U1</spml:id></spml:identifier>"
+                + "<spml:attributes><dsml:attr name='certificate'><dsml:value type='xsd:base64Binary'>" + certificate
+                + "</dsml:value></dsml:attr></spml:attributes></spml:searchResultEntry>" + SEARCH_RESPONSE_END + ENVELOPE_END;
+        SearchResult read = (SearchResult) ((SearchResponse) read(xml, null)).getResults().get(0);
+        SearchResult parsed = (SearchResult) ((SearchResponse) SpmlResponse.parseResponse(xml)).getResults().get(0);
+        Assert.assertEquals(read.getAttributeValue("certificate"), certificate);
+        Assert.assertEquals(read.getAttributeValue("certificate"), parsed.getAttributeValue("certificate"));
+    }
+
+    @Test
+    public void testEmptyValues() throws Exception {
+        String xml = ENVELOPE_START + SEARCH_RESPONSE_START + "<spml:searchResultEntry>"
+                + "<spml:identifier type='urn:oasis:names:tc:SPML:1:0#GUID'><spml:id>U1</spml:id></spml:identifier>"
+                + "<spml:attributes>"
+                + "<dsml:attr name='description'><dsml:value></dsml:value></dsml:attr>"
+                + "<dsml:attr name='assignedroles'><dsml:value/><dsml:value>ROLE.1</dsml:value></dsml:attr>"
+                + "<dsml:attr name='firstname'></dsml:attr>"
+                + "</spml:attributes></spml:searchResultEntry>" + SEARCH_RESPONSE_END + ENVELOPE_END;
+        SearchResult read = (SearchResult) ((SearchResponse) read(xml, null)).getResults().get(0);
+        SearchResult parsed = (SearchResult) ((SearchResponse) SpmlResponse.parseResponse(xml)).getResults().get(0);
+        for (String attrName : Arrays.asList("description", "assignedroles", "firstname")) {
+            Assert.assertEquals(read.getAttributeValue(attrName), parsed.getAttributeValue(attrName), attrName);
+        }
+        Assert.assertEquals(read.getAttributeValue("assignedroles"), "ROLE.1");
+    }
+
+    @Test
+    public void testStreamedEntries() throws Exception {
+        SearchResponse searchResponse = new SearchResponse();
+        searchResponse.setResult(SpmlResponse.RESULT_SUCCESS);
+        for (int i = 0; i < 5; i++) {
+            SearchResult searchResult = new SearchResult();
+            searchResult.setIdentifier("U" + i);
+            searchResult.setAttribute("logonname", "user" + i);
+            searchResponse.addResult(searchResult);
+        }
+        List<String> handled = new ArrayList<>();
+        SearchResponse read = (SearchResponse) read(wrap(searchResponse), searchResult -> {
+            handled.add(searchResult.getIdentifierString());
+            return handled.size() < 3;
+        });
+        Assert.assertEquals(handled, Arrays.asList("U0", "U1", "U2"));
+        Assert.assertTrue(read.getResults() == null || read.getResults().isEmpty());
+    }
+
+    @Test(expectedExceptions = SpmlException.class)
+    public void testSoapFault() throws Exception {
+        read(ENVELOPE_START + "<SOAP-ENV:Fault><faultcode>SOAP-ENV:Server</faultcode><faultstring>failed</faultstring>"
+                + "</SOAP-ENV:Fault>" + ENVELOPE_END, null);
+    }
+
+    private static ModifyResponse createModifyFailure() {
+        ModifyResponse modifyResponse = new ModifyResponse();
+        modifyResponse.setResult(SpmlResponse.RESULT_FAILURE);
+        modifyResponse.setError("noSuchIdentifier");
+        modifyResponse.setErrorMessage("USER.X doesn't exist");
+        return modifyResponse;
+    }
+
+    private static SpmlResponse assertSameAsOpenspml(SpmlResponse response) throws Exception {
+        String xml = wrap(response);
+        SpmlResponse read = read(xml, null);
+        Assert.assertEquals(normalize(read.toXml()), normalize(SpmlResponse.parseResponse(xml).toXml()));
+        return read;
+    }
+
+    private static SpmlResponse read(String xml, SapUMESearchResultHandler handler) throws Exception {
+        return SapUMESpmlReader.read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), handler);
+    }
+
+    private static String wrap(SpmlResponse response) {
+        return ENVELOPE_START + response.toXml() + ENVELOPE_END;
+    }
+
+    private static String normalize(String xml) {
+        return xml.replace('"', '\'').replaceAll(">\\s+<", "><").replaceAll("\\s+", " ").trim();
+    }
+}
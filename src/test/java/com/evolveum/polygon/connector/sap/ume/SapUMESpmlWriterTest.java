@@ -0,0 +1,161 @@
+package com.evolveum.polygon.connector.sap.ume;
+
+import org.openspml.message.*;
+import org.openspml.util.XmlParser;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// The requests written by SapUMESpmlWriter are compared with the XML of the openspml toXml() methods,
+// the quotes and the whitespace between elements may differ.
+
+public class SapUMESpmlWriterTest {
+
+    @Test
+    public void testAddRequest() throws Exception {
+        AddRequest addRequest = new AddRequest();
+        addRequest.setObjectClass("sapuser");
+        addRequest.setAttribute("logonname", "j<o&e");
+        addRequest.setAttribute("firstname", "J\u00f6e");
+        addRequest.setAttribute("description", null);
+        addRequest.setAttribute("assignedroles", new ArrayList<>(Arrays.asList("ROLE.1", "ROLE.2")));
+        assertSameAsOpenspml(addRequest);
+    }
+
+    @Test
+    public void testModifyRequest() throws Exception {
+        assertSameAsOpenspml(createModifyRequest());
+    }
+
+    @Test
+    public void testDeleteRequest() throws Exception {
+        DeleteRequest deleteRequest = new DeleteRequest();
+        deleteRequest.setIdentifier("USER.PRIVATE_DATASOURCE.un:joe");
+        assertSameAsOpenspml(deleteRequest);
+    }
+
+    @Test
+    public void testSearchRequest() throws Exception {
+        SearchRequest searchRequest = new SearchRequest();
+        searchRequest.setSearchBase("sapuser");
+        FilterTerm substring = new FilterTerm();
+        substring.setOperation(FilterTerm.OP_SUBSTRINGS);
+        substring.setName("logonname");
+        substring.setInitialSubstring("a");
+        searchRequest.addFilterTerm(substring);
+        searchRequest.addAttribute("logonname");
+        searchRequest.addAttribute("firstname");
+        assertSameAsOpenspml(searchRequest);
+    }
+
+    @Test
+    public void testSearchRequestWithOr() throws Exception {
+        SearchRequest searchRequest = new SearchRequest();
+        searchRequest.setSearchBase("sapuser");
+        FilterTerm or = new FilterTerm();
+        or.setOperation(FilterTerm.OP_OR);
+        or.addOperand(createEqualTerm("id", "A"));
+        or.addOperand(createEqualTerm("id", "B"));
+        searchRequest.addFilterTerm(or);
+        assertSameAsOpenspml(searchRequest);
+    }
+
+    @Test
+    public void testSearchKey() {
+        SearchRequest searchRequest = new SearchRequest();
+        searchRequest.setSearchBase("sapuser");
+        searchRequest.addFilterTerm(createEqualTerm("logonname", "joe"));
+        searchRequest.addAttribute("logonname");
+        SearchRequest same = new SearchRequest();
+        same.setRequestId("other");
+        same.setSearchBase("sapuser");
+        same.addFilterTerm(createEqualTerm("logonname", "joe"));
+        same.addAttribute("logonname");
+        SearchRequest otherFilter = new SearchRequest();
+        otherFilter.setSearchBase("sapuser");
+        otherFilter.addFilterTerm(createEqualTerm("logonname", "jane"));
+        otherFilter.addAttribute("logonname");
+
+        Assert.assertEquals(SapUMESpmlWriter.getSearchKey(same), SapUMESpmlWriter.getSearchKey(searchRequest));
+        Assert.assertNotEquals(SapUMESpmlWriter.getSearchKey(otherFilter), SapUMESpmlWriter.getSearchKey(searchRequest));
+    }
+
+    @Test
+    public void testBatchRequest() throws Exception {
+        DeleteRequest deleteRequest = new DeleteRequest();
+        deleteRequest.setIdentifier("USER.PRIVATE_DATASOURCE.un:joe");
+        BatchRequest batchRequest = new BatchRequest();
+        batchRequest.addRequest(createModifyRequest());
+        batchRequest.addRequest(deleteRequest);
+        assertSameAsOpenspml(batchRequest);
+    }
+
+    @Test
+    public void testPasswordRequest() throws Exception {
+        ModifyRequest modifyRequest = new ModifyRequest();
+        modifyRequest.setIdentifier("USER.PRIVATE_DATASOURCE.un:joe");
+        modifyRequest.addModification(SapUMESchema.ATTRIBUTE_PASSWORD, "Secret1");
+        modifyRequest.addModification(SapUMESchema.ATTRIBUTE_OLDPASSWORD, "Secret0");
+        assertSameAsOpenspml(modifyRequest);
+
+        StringWriter redacted = new StringWriter();
+        SapUMESpmlWriter.writeRedactedRequest(modifyRequest, redacted);
+        Assert.assertFalse(redacted.toString().contains("Secret"), redacted.toString());
+        Assert.assertTrue(redacted.toString().contains("********"), redacted.toString());
+    }
+
+    @Test
+    public void testPooledBufferIsReset() throws Exception {
+        SapUMESpmlWriter.RequestBuffer buffer = SapUMESpmlWriter.borrowBuffer();
+        buffer.write(new byte[]{1, 2, 3});
+        SapUMESpmlWriter.returnBuffer(buffer);
+        SapUMESpmlWriter.RequestBuffer next = SapUMESpmlWriter.borrowBuffer();
+        Assert.assertEquals(next.size(), 0);
+        SapUMESpmlWriter.returnBuffer(next);
+    }
+
+    private static ModifyRequest createModifyRequest() {
+        ModifyRequest modifyRequest = new ModifyRequest();
+        modifyRequest.setIdentifier("USER.PRIVATE_DATASOURCE.un:joe");
+        modifyRequest.addModification("firstname", "Joe");
+        Modification roles = new Modification("assignedroles", new ArrayList<>(Arrays.asList("ROLE.1", "ROLE.2")));
+        roles.setOperation("add");
+        modifyRequest.addModification(roles);
+        modifyRequest.addModification("lastname", null);
+        return modifyRequest;
+    }
+
+    private static FilterTerm createEqualTerm(String name, String value) {
+        FilterTerm term = new FilterTerm();
+        term.setOperation(FilterTerm.OP_EQUAL);
+        term.setName(name);
+        term.setValue(value);
+        return term;
+    }
+
+    private static void assertSameAsOpenspml(SpmlRequest request) throws Exception {
+        String expected = normalize(request.toXml());
+        String written = writeBody(request);
+        Assert.assertEquals(normalize(written), expected);
+
+        // openspml reads the written request back to the same request
+        SpmlRequest parsed = SpmlRequest.parseRequest(XmlParser.parse(written, false).getDocumentElement());
+        Assert.assertEquals(normalize(parsed.toXml()), expected);
+    }
+
+    private static String writeBody(SpmlRequest request) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SapUMESpmlWriter.writeSoapRequest(request, out);
+        String envelope = out.toString(StandardCharsets.UTF_8.name());
+        return envelope.substring(envelope.indexOf("Body>") + 5, envelope.lastIndexOf("</SOAP-ENV:Body"));
+    }
+
+    private static String normalize(String xml) {
+        return xml.replace('"', '\'').replaceAll(">\\s+<", "><").replaceAll("\\s+", " ").trim();
+    }
+}
@@ -0,0 +1,176 @@
+package com.evolveum.polygon.connector.sap.ume;
+
+import com.sun.net.httpserver.HttpServer;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
+import org.openspml.message.DeleteRequest;
+import org.openspml.message.ModifyRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+public class SapUMEWireCaptureTest {
+
+    private static final String ENVELOPE_START = "<?xml version='1.0' encoding='UTF-8'?>"
+            + "<SOAP-ENV:Envelope xmlns:SOAP-ENV='http://schemas.xmlsoap.org/soap/envelope/'><SOAP-ENV:Body>";
+    private static final String ENVELOPE_END = "</SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
+    private static final String SEARCH_RESPONSE = "<spml:searchResponse result='urn:oasis:names:tc:SPML:1:0#success'>"
+            + "<spml:searchResultEntry><spml:attributes>"
+            + "<dsml:attr name='logonname'><dsml:value>joe</dsml:value></dsml:attr>"
+            + "<dsml:attr name=\"password\"><dsml:value>Secret1</dsml:value></dsml:attr>"
+            + "<dsml:attr name='oldpassword'><dsml:value type='string'>Secret0</dsml:value><dsml:value/></dsml:attr>"
+            + "</spml:attributes></spml:searchResultEntry></spml:searchResponse>";
+
+    @Test
+    public void testRequestRedacted() {
+        SapUMEWireCapture wireCapture = new SapUMEWireCapture(10, 100000);
+        ModifyRequest modifyRequest = new ModifyRequest();
+        modifyRequest.setIdentifier("USER.PRIVATE_DATASOURCE.un:joe");
+        modifyRequest.addModification(SapUMESchema.ATTRIBUTE_PASSWORD, "Secret1");
+        wireCapture.end(wireCapture.begin(modifyRequest, "update"));
+        String dump = wireCapture.dump();
+        Assert.assertTrue(dump.contains("operation=update"), dump);
+        Assert.assertFalse(dump.contains("Secret1"), dump);
+    }
+
+    @Test
+    public void testResponseRedacted() {
+        SapUMEWireCapture wireCapture = new SapUMEWireCapture(10, 100000);
+        SapUMEWireCapture.Exchange exchange = wireCapture.begin(createDeleteRequest(), "search");
+        exchange.response(SEARCH_RESPONSE.getBytes(StandardCharsets.UTF_8));
+        wireCapture.end(exchange);
+        String dump = wireCapture.dump();
+        Assert.assertTrue(dump.contains("<dsml:value>joe</dsml:value>"), dump);
+        Assert.assertFalse(dump.contains("Secret"), dump);
+        Assert.assertTrue(dump.contains("<dsml:value type='string'>********</dsml:value>"), dump);
+    }
+
+    @Test
+    public void testTruncatedResponseRedacted() {
+        String truncated = SEARCH_RESPONSE.substring(0, SEARCH_RESPONSE.indexOf("Secret1") + 3);
+        String redacted = SapUMEWireCapture.redactResponse(truncated);
+        Assert.assertFalse(redacted.contains("Sec"), redacted);
+        Assert.assertEquals(SapUMEWireCapture.redactResponse("<x>no attributes</x>"), "<x>no attributes</x>");
+    }
+
+    @Test
+    public void testBoundedByExchangesAndBytes() {
+        SapUMEWireCapture wireCapture = new SapUMEWireCapture(2, 100000);
+        for (int i = 0; i < 5; i++) {
+            wireCapture.end(wireCapture.begin(createDeleteRequest(), "delete" + i));
+        }
+        String dump = wireCapture.dump();
+        Assert.assertTrue(dump.startsWith("SPML wire capture, 2 exchanges"), dump);
+        Assert.assertTrue(dump.contains("operation=delete3") && dump.contains("operation=delete4"), dump);
+        Assert.assertTrue(wireCapture.dump().startsWith("SPML wire capture, 0 exchanges"));
+
+        SapUMEWireCapture small = new SapUMEWireCapture(10, 500);
+        SapUMEWireCapture.Exchange exchange = small.begin(createDeleteRequest(), "search");
+        exchange.response(new byte[1000]);
+        small.end(exchange);
+        Assert.assertTrue(small.dump().endsWith("...(truncated)"));
+    }
+
+    @Test
+    public void testExpectedFailuresNotDumped() {
+        SapUMEWireCapture wireCapture = new SapUMEWireCapture(10, 100000);
+        wireCapture.end(wireCapture.begin(createDeleteRequest(), "delete"), new UnknownUidException("missing"));
+        wireCapture.end(wireCapture.begin(createDeleteRequest(), "create"), new AlreadyExistsException("exists"));
+        String dump = wireCapture.dump();
+        Assert.assertTrue(dump.startsWith("SPML wire capture, 2 exchanges"), dump);
+        Assert.assertTrue(dump.contains("error=" + UnknownUidException.class.getName()), dump);
+
+        // an unexpected failure dumps the buffer to the log, which empties it
+        wireCapture.end(wireCapture.begin(createDeleteRequest(), "delete"), new ConnectorIOException("down"));
+        Assert.assertTrue(wireCapture.dump().startsWith("SPML wire capture, 0 exchanges"));
+    }
+
+    @Test
+    public void testSharedAndDumpedByMBean() throws Exception {
+        SapUMEConfiguration configuration = createConfiguration("http://capture:50000/spml/spmlservice");
+        configuration.setJmxMetrics(true);
+        SapUMEWireCapture wireCapture = SapUMEWireCapture.acquire(configuration);
+        SapUMEWireCapture shared = SapUMEWireCapture.acquire(configuration);
+        Assert.assertSame(shared, wireCapture);
+        wireCapture.end(wireCapture.begin(createDeleteRequest(), "delete"));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.evolveum.polygon.connector.sap.ume:type=SapUMEWireCapture,url="
+                + ObjectName.quote(configuration.getURL()) + ",user=" + ObjectName.quote("admin"));
+        Assert.assertEquals(server.getAttribute(name, "ExchangeCount"), 1);
+        String dump = (String) server.invoke(name, "dump", null, null);
+        Assert.assertTrue(dump.contains("operation=delete"), dump);
+        shared.release();
+        Assert.assertTrue(server.isRegistered(name));
+        wireCapture.release();
+        Assert.assertFalse(server.isRegistered(name));
+
+        configuration.setWireCaptureSize(0);
+        Assert.assertNull(SapUMEWireCapture.acquire(configuration));
+    }
+
+    @Test
+    public void testAsyncResponseCapturedDecompressed() throws Exception {
+        byte[] body = (ENVELOPE_START + "<spml:deleteResponse xmlns:spml='urn:oasis:names:tc:SPML:1:0'"
+                + " result='urn:oasis:names:tc:SPML:1:0#success'/>" + ENVELOPE_END).getBytes(StandardCharsets.UTF_8);
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        httpServer.createContext("/spml/spmlservice", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(body);
+            }
+            exchange.getResponseHeaders().add("Content-Type", "text/xml");
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, compressed.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                compressed.writeTo(out);
+            }
+        });
+        httpServer.start();
+        SapUMEConfiguration configuration = createConfiguration("http://127.0.0.1:" + httpServer.getAddress().getPort()
+                + "/spml/spmlservice");
+        configuration.setCompressResponses(true);
+        SapUMEConnection connection = new SapUMEConnection(configuration);
+        try {
+            connection.connectAsync(createDeleteRequest(), "delete").get(10, TimeUnit.SECONDS);
+            SapUMEWireCapture wireCapture = SapUMEWireCapture.acquire(configuration);
+            try {
+                String dump = wireCapture.dump();
+                Assert.assertTrue(dump.contains("RESPONSE: " + new String(body, StandardCharsets.UTF_8)), dump);
+            } finally {
+                wireCapture.release();
+            }
+        } finally {
+            connection.dispose();
+            httpServer.stop(0);
+        }
+    }
+
+    private static SapUMEConfiguration createConfiguration(String url) {
+        SapUMEConfiguration configuration = new SapUMEConfiguration();
+        configuration.setURL(url);
+        configuration.setUser("admin");
+        configuration.setPassword(new GuardedString("secret".toCharArray()));
+        configuration.setWireCaptureSize(10);
+        return configuration;
+    }
+
+    private static DeleteRequest createDeleteRequest() {
+        DeleteRequest deleteRequest = new DeleteRequest();
+        deleteRequest.setIdentifier("USER.PRIVATE_DATASOURCE.un:joe");
+        return deleteRequest;
+    }
+}
@@ -0,0 +1,152 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
+import com.evolveum.polygon.connector.sap.ume.SapUMEConnection;
+import com.evolveum.polygon.connector.sap.ume.SapUMEOperationTrace;
+import com.evolveum.polygon.connector.sap.ume.SapUMESchema;
+import com.evolveum.polygon.connector.sap.ume.SapUMESearchResultHandler;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.openspml.message.FilterTerm;
+import org.openspml.message.SearchRequest;
+import org.openspml.message.SearchResponse;
+import org.openspml.message.SearchResult;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SapUMELookupCoalescerTest {
+
+    private static final List<String> ATTRIBUTES = Collections.singletonList(SapUMESchema.ATTRIBUTE_LOGONNAME);
+
+    @Test
+    public void testLoneLookupSentAtOnce() {
+        SapUMEConfiguration configuration = createConfiguration("lone", 5000);
+        FakeConnection connection = new FakeConnection(configuration, 0, null);
+        try {
+            long start = System.nanoTime();
+            List<SearchResult> entries = lookup(configuration, connection, "Joe");
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+            Assert.assertEquals(entries.size(), 1);
+            Assert.assertEquals(entries.get(0).getAttributeValue(SapUMESchema.ATTRIBUTE_LOGONNAME), "joe");
+            Assert.assertEquals(SapUMELookupCoalescer.getRegisteredCount(), 0);
+        } finally {
+            connection.dispose();
+        }
+    }
+
+    @Test
+    public void testConcurrentLookupsCoalesced() throws Exception {
+        SapUMEConfiguration configuration = createConfiguration("concurrent", 500);
+        FakeConnection connection = new FakeConnection(configuration, 100, null);
+        ExecutorService executor = Executors.newFixedThreadPool(20);
+        try {
+            List<Future<List<SearchResult>>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                String value = i == 19 ? "nobody" : "user" + i;
+                results.add(executor.submit(() -> lookup(configuration, connection, value)));
+            }
+            for (int i = 0; i < 20; i++) {
+                List<SearchResult> entries = results.get(i).get(10, TimeUnit.SECONDS);
+                if (i == 19) {
+                    Assert.assertTrue(entries.isEmpty());
+                } else {
+                    Assert.assertEquals(entries.size(), 1);
+                    Assert.assertEquals(entries.get(0).getAttributeValue(SapUMESchema.ATTRIBUTE_LOGONNAME), "user" + i);
+                }
+            }
+            Assert.assertTrue(connection.searches.get() < 20, "searches: " + connection.searches.get());
+            Assert.assertEquals(SapUMELookupCoalescer.getRegisteredCount(), 0);
+        } finally {
+            executor.shutdownNow();
+            connection.dispose();
+        }
+    }
+
+    @Test
+    public void testErrorCompletesWaitingLookups() throws Exception {
+        SapUMEConfiguration configuration = createConfiguration("error", 500);
+        FakeConnection connection = new FakeConnection(configuration, 100, new OutOfMemoryError("test"));
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<List<SearchResult>>> results = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                String value = "user" + i;
+                results.add(executor.submit(() -> lookup(configuration, connection, value)));
+            }
+            for (Future<List<SearchResult>> result : results) {
+                // every lookup fails with the error of its search, none waits forever
+                Throwable cause = Assert.expectThrows(ExecutionException.class,
+                        () -> result.get(10, TimeUnit.SECONDS)).getCause();
+                Throwable error = cause instanceof ConnectorException ? cause.getCause() : cause;
+                Assert.assertTrue(error instanceof OutOfMemoryError, String.valueOf(cause));
+            }
+            Assert.assertEquals(SapUMELookupCoalescer.getRegisteredCount(), 0);
+        } finally {
+            executor.shutdownNow();
+            connection.dispose();
+        }
+    }
+
+    private static List<SearchResult> lookup(SapUMEConfiguration configuration, SapUMEConnection connection, String value) {
+        return SapUMELookupCoalescer.lookup(configuration, SapUMESchema.OBJECT_SUPUSER, SapUMESchema.ATTRIBUTE_LOGONNAME, ATTRIBUTES,
+                value, connection, "test", new SapUMEOperationTrace("test"));
+    }
+
+    private static SapUMEConfiguration createConfiguration(String user, int window) {
+        SapUMEConfiguration configuration = new SapUMEConfiguration();
+        configuration.setURL("http://coalescer:50000/spml/spmlservice");
+        configuration.setUser(user);
+        configuration.setLookupBatchWindow(window);
+        configuration.setLookupBatchSize(50);
+        return configuration;
+    }
+
+    // returns an entry with the lower case value for every value of the filter except "nobody"
+    private static class FakeConnection extends SapUMEConnection {
+
+        private final long millis;
+        private final Error error;
+        private final AtomicInteger searches = new AtomicInteger();
+
+        FakeConnection(SapUMEConfiguration configuration, long millis, Error error) {
+            super(configuration);
+            this.millis = millis;
+            this.error = error;
+        }
+
+        @Override
+        public SearchResponse search(SearchRequest searchRequest, String logOperation, SapUMESearchResultHandler handler,
+                                     SapUMEOperationTrace trace) {
+            searches.incrementAndGet();
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (error != null) {
+                throw error;
+            }
+            FilterTerm term = searchRequest.getFilter().getTerms().get(0);
+            List<FilterTerm> terms = FilterTerm.OP_OR.equals(term.getOperation()) ? term.getOperands() : Collections.singletonList(term);
+            for (FilterTerm equal : terms) {
+                String value = (String) equal.getValue();
+                if (!"nobody".equals(value)) {
+                    SearchResult entry = new SearchResult();
+                    entry.setIdentifier("USER.PRIVATE_DATASOURCE.un:" + value.toLowerCase());
+                    entry.setAttribute(SapUMESchema.ATTRIBUTE_LOGONNAME, value.toLowerCase());
+                    handler.handle(entry);
+                }
+            }
+            return new SearchResponse();
+        }
+    }
+}
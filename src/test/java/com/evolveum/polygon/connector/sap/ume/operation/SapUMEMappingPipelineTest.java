@@ -0,0 +1,104 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.openspml.message.SearchResult;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+public class SapUMEMappingPipelineTest {
+
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void createExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterMethod
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOriginalOrder() {
+        Random random = new Random(1);
+        Function<SearchResult, ConnectorObject> mapper = searchResult -> {
+            try {
+                // the mappings finish in a different order
+                Thread.sleep(random.nextInt(3));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return createObject(searchResult.getIdentifierString());
+        };
+        List<String> handled = new ArrayList<>();
+        SapUMEMappingPipeline pipeline = new SapUMEMappingPipeline(executor, 2, mapper, object -> handled.add(object.getUid().getUidValue()));
+        try {
+            for (int i = 0; i < 500; i++) {
+                Assert.assertTrue(pipeline.handle(createEntry(i)));
+            }
+            pipeline.finish();
+        } finally {
+            pipeline.close();
+        }
+        Assert.assertEquals(handled.size(), 500);
+        for (int i = 0; i < 500; i++) {
+            Assert.assertEquals(handled.get(i), "user" + i);
+        }
+    }
+
+    @Test
+    public void testStoppedByHandler() {
+        List<String> handled = new ArrayList<>();
+        SapUMEMappingPipeline pipeline = new SapUMEMappingPipeline(executor, 1, searchResult -> createObject(searchResult.getIdentifierString()),
+                object -> handled.add(object.getUid().getUidValue()) && handled.size() < 3);
+        boolean proceed = true;
+        for (int i = 0; i < 200 && proceed; i++) {
+            proceed = pipeline.handle(createEntry(i));
+        }
+        pipeline.finish();
+        pipeline.close();
+        Assert.assertFalse(proceed);
+        Assert.assertEquals(handled.size(), 3);
+        // the shared executor keeps running
+        Assert.assertFalse(executor.isShutdown());
+    }
+
+    @Test
+    public void testMappingFailure() {
+        SapUMEMappingPipeline pipeline = new SapUMEMappingPipeline(executor, 1, searchResult -> {
+            throw new ConnectorException("mapping failed");
+        }, object -> true);
+        try {
+            // the failure is thrown by handle when the mapping failed before it returned, by finish otherwise
+            Assert.assertThrows(ConnectorException.class, () -> {
+                pipeline.handle(createEntry(0));
+                pipeline.finish();
+            });
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    private static SearchResult createEntry(int index) {
+        SearchResult entry = new SearchResult();
+        entry.setIdentifier("user" + index);
+        return entry;
+    }
+
+    private static ConnectorObject createObject(String uid) {
+        return new ConnectorObjectBuilder().setObjectClass(ObjectClass.ACCOUNT).setUid(uid).setName(uid).build();
+    }
+}
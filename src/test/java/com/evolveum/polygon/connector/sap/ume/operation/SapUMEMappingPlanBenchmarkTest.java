@@ -0,0 +1,97 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
+import com.evolveum.polygon.connector.sap.ume.SapUMEObjectClass;
+import com.evolveum.polygon.connector.sap.ume.SapUMESchema;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.openspml.message.SearchResult;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Mapping of a full search result with all default attributes, the mapping used before the plans (SapUMEMappingPlanTest)
+// against SapUMEMappingPlan. The times of the best round are printed, the results must be the same.
+public class SapUMEMappingPlanBenchmarkTest {
+
+    private static final int ENTRIES = 20000;
+    private static final int ROUNDS = 10;
+
+    private final SapUMEConfiguration configuration = new SapUMEConfiguration();
+    private final SapUMEMappingPlanTest legacy = new SapUMEMappingPlanTest();
+
+    @Test
+    public void testUsers() {
+        SapUMEObjectClass objectClass = new SapUMEObjectClass(ObjectClass.ACCOUNT);
+        List<String> attributes = SapUMEQuery.getDefaultAttributes(objectClass, configuration);
+        List<SearchResult> entries = createEntries("USER.PRIVATE_DATASOURCE.un:user", attributes);
+        benchmark("users", entries, entry -> legacy.createConnectorObjectUser(entry, attributes),
+                SapUMEMappingPlan.forAttributes(objectClass, attributes));
+    }
+
+    @Test
+    public void testGroups() {
+        SapUMEObjectClass objectClass = new SapUMEObjectClass(ObjectClass.GROUP);
+        List<String> attributes = SapUMEQuery.getDefaultAttributes(objectClass, configuration);
+        List<SearchResult> entries = createEntries("GRUP.PRIVATE_DATASOURCE.un:group", attributes);
+        benchmark("groups", entries, entry -> legacy.createConnectorObjectRoleAndGroup(entry, attributes),
+                SapUMEMappingPlan.forAttributes(objectClass, attributes));
+    }
+
+    private void benchmark(String name, List<SearchResult> entries, Function<SearchResult, ConnectorObject> legacyMapping,
+                           SapUMEMappingPlan plan) {
+        long legacyNanos = Long.MAX_VALUE;
+        long planNanos = Long.MAX_VALUE;
+        // the rounds alternate, so both mappings run in a warmed up JVM
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (SearchResult entry : entries) {
+                legacyMapping.apply(entry);
+            }
+            legacyNanos = Math.min(legacyNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (SearchResult entry : entries) {
+                plan.map(entry, configuration);
+            }
+            planNanos = Math.min(planNanos, System.nanoTime() - start);
+        }
+        System.out.printf("Mapping of %d %s: legacy %d ms, plan %d ms (%.2fx)%n", entries.size(), name,
+                TimeUnit.NANOSECONDS.toMillis(legacyNanos), TimeUnit.NANOSECONDS.toMillis(planNanos), (double) legacyNanos / planNanos);
+        for (SearchResult entry : entries.subList(0, 100)) {
+            Assert.assertEquals(plan.map(entry, configuration), legacyMapping.apply(entry));
+        }
+    }
+
+    // every attribute has a value, two values for the multi-valued ones
+    private static List<SearchResult> createEntries(String idPrefix, List<String> attributes) {
+        List<SearchResult> entries = new ArrayList<>(ENTRIES);
+        for (int i = 0; i < ENTRIES; i++) {
+            SearchResult entry = new SearchResult();
+            entry.setIdentifier(idPrefix + i);
+            for (String attributeName : attributes) {
+                entry.setAttribute(attributeName, createValue(attributeName, idPrefix, i));
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private static Object createValue(String attributeName, String idPrefix, int i) {
+        if (attributeName.equals(SapUMESchema.ATTRIBUTE_ID)) {
+            return idPrefix + i;
+        } else if (SapUMEAbstractOperation.isRoleAttribute(attributeName) || SapUMEAbstractOperation.isGroupAttribute(attributeName)
+                || attributeName.equals(SapUMESchema.ATTRIBUTE_MEMBER)) {
+            return new ArrayList<>(Arrays.asList("ROLE.UME_ROLE_PERSISTENCE.un:a" + (i % 50), "ROLE.UME_ROLE_PERSISTENCE.un:b" + (i % 7)));
+        } else if (SapUMEAbstractOperation.isDateAttribute(attributeName)) {
+            return "202610180830" + String.format("%02d", i % 60) + "Z";
+        } else if (attributeName.equals(SapUMESchema.ATTRIBUTE_ISLOCKED)) {
+            return String.valueOf(i % 10 == 0);
+        }
+        return attributeName + " " + i;
+    }
+}
@@ -0,0 +1,253 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
+import com.evolveum.polygon.connector.sap.ume.SapUMEDateHelper;
+import com.evolveum.polygon.connector.sap.ume.SapUMEObjectClass;
+import com.evolveum.polygon.connector.sap.ume.SapUMESchema;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.openspml.message.SearchResult;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.identityconnectors.common.StringUtil.isBlank;
+
+// the objects mapped by the plans must be the same as those of the mapping used before the plans, kept here as reference
+public class SapUMEMappingPlanTest {
+
+    private static final List<String> USER_ATTRIBUTES = Arrays.asList(SapUMESchema.ATTRIBUTE_ID, SapUMESchema.ATTRIBUTE_LOGONNAME, Name.NAME,
+            SapUMESchema.ATTRIBUTE_FIRSTNAME, SapUMESchema.ATTRIBUTE_EMAIL, SapUMESchema.ATTRIBUTE_ASSIGNEDROLES,
+            SapUMESchema.ATTRIBUTE_ALLASSIGNEDGROUPS, SapUMESchema.ATTRIBUTE_CERTIFICATE, SapUMESchema.ATTRIBUTE_VALIDFROM,
+            SapUMESchema.ATTRIBUTE_VALIDTO, SapUMESchema.ATTRIBUTE_LASTMODIFYDATE, SapUMESchema.ATTRIBUTE_ISLOCKED);
+    private static final List<String> GROUP_ATTRIBUTES = Arrays.asList(SapUMESchema.ATTRIBUTE_ID, SapUMESchema.ATTRIBUTE_UNIQUENAME, Name.NAME,
+            SapUMESchema.ATTRIBUTE_DESCRIPTION, SapUMESchema.ATTRIBUTE_ASSIGNEDROLES, SapUMESchema.ATTRIBUTE_MEMBER,
+            SapUMESchema.ATTRIBUTE_LASTMODIFYDATE);
+
+    private final SapUMEConfiguration configuration = new SapUMEConfiguration();
+
+    @Test
+    public void testUserSameAsLegacy() {
+        SapUMEMappingPlan plan = SapUMEMappingPlan.forAttributes(new SapUMEObjectClass(ObjectClass.ACCOUNT), USER_ATTRIBUTES);
+        for (SearchResult searchResult : createUsers()) {
+            Assert.assertEquals(plan.map(searchResult, configuration), createConnectorObjectUser(searchResult, USER_ATTRIBUTES));
+        }
+    }
+
+    @Test
+    public void testGroupSameAsLegacy() {
+        SapUMEMappingPlan plan = SapUMEMappingPlan.forAttributes(new SapUMEObjectClass(ObjectClass.GROUP), GROUP_ATTRIBUTES);
+        for (SearchResult searchResult : createGroups()) {
+            Assert.assertEquals(plan.map(searchResult, configuration), createConnectorObjectRoleAndGroup(searchResult, GROUP_ATTRIBUTES));
+        }
+    }
+
+    @Test
+    public void testPlanCachedByAttributes() {
+        SapUMEMappingPlan plan = SapUMEMappingPlan.forAttributes(new SapUMEObjectClass(ObjectClass.ACCOUNT), USER_ATTRIBUTES);
+        Assert.assertSame(SapUMEMappingPlan.forAttributes(new SapUMEObjectClass(ObjectClass.ACCOUNT), new ArrayList<>(USER_ATTRIBUTES)), plan);
+        Assert.assertNotSame(SapUMEMappingPlan.forAttributes(new SapUMEObjectClass(ObjectClass.GROUP), USER_ATTRIBUTES), plan);
+    }
+
+    private static List<SearchResult> createUsers() {
+        List<SearchResult> users = new ArrayList<>();
+        SearchResult full = createEntry("USER.PRIVATE_DATASOURCE.un:joe");
+        full.setAttribute(SapUMESchema.ATTRIBUTE_LOGONNAME, "joe");
+        full.setAttribute(SapUMESchema.ATTRIBUTE_FIRSTNAME, "Joe");
+        full.setAttribute(SapUMESchema.ATTRIBUTE_EMAIL, "joe@example.com");
+        full.setAttribute(SapUMESchema.ATTRIBUTE_ASSIGNEDROLES, new ArrayList<>(Arrays.asList("ROLE.UME_ROLE_PERSISTENCE.un:a", "ROLE.UME_ROLE_PERSISTENCE.un:b")));
+        full.setAttribute(SapUMESchema.ATTRIBUTE_ALLASSIGNEDGROUPS, "GRUP.PRIVATE_DATASOURCE.un:g");
+        full.setAttribute(SapUMESchema.ATTRIBUTE_CERTIFICATE, "MIIB");
+        full.setAttribute(SapUMESchema.ATTRIBUTE_VALIDFROM, "20200101000000Z");
+        full.setAttribute(SapUMESchema.ATTRIBUTE_VALIDTO, "99991231000000Z");
+        full.setAttribute(SapUMESchema.ATTRIBUTE_LASTMODIFYDATE, "20261018083000Z");
+        full.setAttribute(SapUMESchema.ATTRIBUTE_ISLOCKED, "true");
+        users.add(full);
+
+        // missing and empty values, an invalid date
+        SearchResult sparse = createEntry("USER.PRIVATE_DATASOURCE.un:jane");
+        sparse.setAttribute(SapUMESchema.ATTRIBUTE_LOGONNAME, "jane");
+        sparse.setAttribute(SapUMESchema.ATTRIBUTE_EMAIL, "");
+        sparse.setAttribute(SapUMESchema.ATTRIBUTE_VALIDFROM, "");
+        sparse.setAttribute(SapUMESchema.ATTRIBUTE_LASTMODIFYDATE, "invalid");
+        users.add(sparse);
+        return users;
+    }
+
+    private static List<SearchResult> createGroups() {
+        List<SearchResult> groups = new ArrayList<>();
+        SearchResult full = createEntry("GRUP.PRIVATE_DATASOURCE.un:admins");
+        full.setAttribute(SapUMESchema.ATTRIBUTE_UNIQUENAME, "admins");
+        full.setAttribute(SapUMESchema.ATTRIBUTE_DESCRIPTION, "Administrators");
+        full.setAttribute(SapUMESchema.ATTRIBUTE_ASSIGNEDROLES, "ROLE.UME_ROLE_PERSISTENCE.un:a");
+        full.setAttribute(SapUMESchema.ATTRIBUTE_MEMBER, new ArrayList<>(Arrays.asList("USER.PRIVATE_DATASOURCE.un:joe",
+                "USER.PRIVATE_DATASOURCE.un:jane")));
+        full.setAttribute(SapUMESchema.ATTRIBUTE_LASTMODIFYDATE, "20261018083000Z");
+        groups.add(full);
+
+        // the identifier is taken from the entry when the id attribute is missing
+        SearchResult sparse = new SearchResult();
+        sparse.setIdentifier("GRUP.PRIVATE_DATASOURCE.un:empty");
+        sparse.setAttribute(SapUMESchema.ATTRIBUTE_UNIQUENAME, "empty");
+        sparse.setAttribute(SapUMESchema.ATTRIBUTE_LASTMODIFYDATE, "invalid");
+        groups.add(sparse);
+        return groups;
+    }
+
+    private static SearchResult createEntry(String id) {
+        SearchResult entry = new SearchResult();
+        entry.setIdentifier(id);
+        entry.setAttribute(SapUMESchema.ATTRIBUTE_ID, id);
+        return entry;
+    }
+
+    // the mapping of SapUMEQuery before the mapping plans
+
+    ConnectorObject createConnectorObjectUser(SearchResult searchResult, Collection<String> attrsToGet) {
+        ConnectorObjectBuilder objectBuilder = new ConnectorObjectBuilder();
+        Iterator<String> itr = attrsToGet.iterator();
+
+        while (itr.hasNext()) {
+            String attributeName = itr.next();
+
+            if (SapUMEAbstractOperation.isRoleAttribute(attributeName) || SapUMEAbstractOperation.isGroupAttribute(attributeName)
+                    || attributeName.equals(SapUMESchema.ATTRIBUTE_CERTIFICATE)) {
+                AttributeBuilder abuilder = new AttributeBuilder();
+                abuilder.setName(attributeName);
+                if (searchResult.getAttributeValue(attributeName) != null) {
+                    Object value = searchResult.getAttributeValue(attributeName);
+
+                    if ((value instanceof ArrayList)) {
+                        ArrayList<?> multiList = (ArrayList<?>) value;
+                        for (Object values : multiList) {
+                            String attrValue = (String) values;
+                            abuilder.addValue(new Object[]{attrValue});
+                        }
+                    } else {
+                        String attrValue = (String) value;
+                        abuilder.addValue(new Object[]{attrValue});
+                    }
+                } else {
+                    ArrayList<Object> alMultiValues = new ArrayList<>();
+                    abuilder.addValue(alMultiValues);
+                }
+                Attribute multiAttrs = abuilder.build();
+                objectBuilder.addAttribute(new Attribute[]{multiAttrs});
+            } else if (SapUMEAbstractOperation.isDateAttribute(attributeName)) {
+                AttributeBuilder abuilder = new AttributeBuilder();
+                String value = (String) searchResult.getAttributeValue(attributeName);
+                if (attributeName.equals(SapUMESchema.ATTRIBUTE_VALIDFROM)) {
+                    abuilder.setName(OperationalAttributes.ENABLE_DATE_NAME);
+                } else if (attributeName.equals(SapUMESchema.ATTRIBUTE_VALIDTO)) {
+                    abuilder.setName(OperationalAttributes.DISABLE_DATE_NAME);
+                } else {
+                    abuilder.setName(attributeName);
+                }
+                if (!isBlank(value)) {
+                    try {
+                        abuilder.addValue(SapUMEDateHelper.convertDateToLong(SapUMEDateHelper.convertUmeStringToDate(value, configuration)));
+                    } catch (Exception e) {
+                        // logged by the connector
+                    }
+                }
+                objectBuilder.addAttribute(abuilder.build());
+            } else if (attributeName.equals(SapUMESchema.ATTRIBUTE_ISLOCKED)) {
+                Object value = searchResult.getAttributeValue(attributeName);
+                AttributeBuilder abuilder1 = new AttributeBuilder();
+                abuilder1.setName(OperationalAttributes.LOCK_OUT_NAME);
+                Boolean locked = Boolean.parseBoolean((String) value);
+                abuilder1.addValue(locked);
+                objectBuilder.addAttribute(abuilder1.build());
+            } else {
+                AttributeBuilder abuilder = new AttributeBuilder();
+                abuilder.setName(attributeName);
+                Object value = searchResult.getAttributeValue(attributeName);
+                abuilder.addValue(value);
+
+                if (attributeName.equals(SapUMESchema.ATTRIBUTE_ID)) {
+                    objectBuilder.setUid((String) value);
+                } else if (attributeName.equals(SapUMESchema.ATTRIBUTE_LOGONNAME)) {
+                    objectBuilder.setName((String) value);
+                }
+                if (!attributeName.equals(Name.NAME) && !attributeName.equals(SapUMESchema.ATTRIBUTE_LOGONNAME)) {
+                    objectBuilder.addAttribute(abuilder.build());
+                }
+            }
+        }
+        return objectBuilder.build();
+    }
+
+    ConnectorObject createConnectorObjectRoleAndGroup(SearchResult searchResult, Collection<String> attrsToGet) {
+        ConnectorObjectBuilder objectBuilder = new ConnectorObjectBuilder();
+        Iterator<String> itr = attrsToGet.iterator();
+
+        while (itr.hasNext()) {
+            String attributeName = itr.next();
+
+            if (SapUMEAbstractOperation.isRoleAttribute(attributeName) || (attributeName.equals(SapUMESchema.ATTRIBUTE_MEMBER))) {
+                AttributeBuilder abuilder = new AttributeBuilder();
+                abuilder.setName(attributeName);
+                Object value = searchResult.getAttributeValue(attributeName);
+
+                if (value != null) {
+                    if ((value instanceof ArrayList)) {
+                        ArrayList<?> multiList = (ArrayList<?>) value;
+                        for (Object values : multiList) {
+                            String attrValue = (String) values;
+                            abuilder.addValue(new Object[]{attrValue});
+                        }
+                    } else {
+                        String attrValue = (String) value;
+                        abuilder.addValue(new Object[]{attrValue});
+                    }
+                } else {
+                    abuilder.addValue(new Object[]{value});
+                }
+                Attribute multiAttrs = abuilder.build();
+                objectBuilder.addAttribute(new Attribute[]{multiAttrs});
+            } else if (SapUMEAbstractOperation.isDateAttribute(attributeName)) {
+                AttributeBuilder abuilder = new AttributeBuilder();
+                abuilder.setName(attributeName);
+                String value = (String) searchResult.getAttributeValue(attributeName);
+                if (!isBlank(value)) {
+                    try {
+                        abuilder.addValue(SapUMEDateHelper.convertDateToLong(SapUMEDateHelper.convertUmeStringToDate(value, configuration)));
+                        objectBuilder.addAttribute(abuilder.build());
+                    } catch (Exception e) {
+                        // logged by the connector
+                    }
+                }
+            } else {
+                AttributeBuilder abuilder = new AttributeBuilder();
+                abuilder.setName(attributeName);
+                Object value = searchResult.getAttributeValue(attributeName);
+
+                abuilder.addValue(value);
+
+                if (attributeName.equals(SapUMESchema.ATTRIBUTE_ID)) {
+                    if (value == null) {
+                        value = searchResult.getIdentifier().getId();
+                    }
+                    objectBuilder.setUid((String) value);
+                } else if (attributeName.equals(SapUMESchema.ATTRIBUTE_UNIQUENAME)) {
+                    objectBuilder.setName((String) value);
+                }
+
+                if (!attributeName.equals(Name.NAME)) {
+                    objectBuilder.addAttribute(abuilder.build());
+                }
+            }
+        }
+        return objectBuilder.build();
+    }
+}
@@ -0,0 +1,133 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
+import com.evolveum.polygon.connector.sap.ume.SapUMEConnection;
+import com.evolveum.polygon.connector.sap.ume.SapUMEOperationTrace;
+import com.evolveum.polygon.connector.sap.ume.SapUMESearchResultHandler;
+import org.openspml.message.SearchRequest;
+import org.openspml.message.SearchResponse;
+import org.openspml.message.SearchResult;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+public class SapUMEPagedSearchTest {
+
+    private static final String NAMING_ATTRIBUTE = "logonname";
+    private static final List<String> NAMES = Arrays.asList("g", "c", "j", "a", "e", "i", "b", "h", "d", "f");
+
+    @Test
+    public void testPagesOfCachedPartition() {
+        FakeConnection connection = new FakeConnection(createConfiguration("cached", 1024 * 1024));
+        try {
+            Assert.assertEquals(readPages(connection, 3), Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j"));
+            Assert.assertEquals(connection.searches, 1);
+        } finally {
+            connection.dispose();
+        }
+    }
+
+    @Test
+    public void testPagesOfUncachedPartition() {
+        FakeConnection connection = new FakeConnection(createConfiguration("uncached", 0));
+        try {
+            // the partition is searched for every page, the pages are the same as from the cache
+            Assert.assertEquals(readPages(connection, 3), Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j"));
+            Assert.assertEquals(connection.searches, 4);
+        } finally {
+            connection.dispose();
+        }
+    }
+
+    @Test
+    public void testPartitionLargerThanCache() {
+        // a few entries fit, the rest is streamed without caching
+        FakeConnection connection = new FakeConnection(createConfiguration("larger", 1000));
+        try {
+            Assert.assertEquals(readPages(connection, 4), Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j"));
+            Assert.assertEquals(connection.searches, 3);
+            Assert.assertEquals(connection.getPageCache().getPartitionCount(), 0);
+        } finally {
+            connection.dispose();
+        }
+    }
+
+    @Test
+    public void testOffsetOfUncachedPartition() {
+        FakeConnection connection = new FakeConnection(createConfiguration("offset", 0));
+        try {
+            List<String> names = new ArrayList<>();
+            org.identityconnectors.framework.common.objects.SearchResult result = new SapUMEPagedSearch(connection.configuration,
+                    connection, NAMING_ATTRIBUTE).search(createPartitions(), null, null, 5, 3, "test",
+                    entry -> names.add(entry.getAttributeValue(NAMING_ATTRIBUTE).toString()), new SapUMEOperationTrace("test"));
+            Assert.assertEquals(names, Arrays.asList("e", "f", "g"));
+            Assert.assertEquals(result.getRemainingPagedResults(), 3);
+            Assert.assertNotNull(result.getPagedResultsCookie());
+        } finally {
+            connection.dispose();
+        }
+    }
+
+    private static List<String> readPages(FakeConnection connection, int pageSize) {
+        List<String> names = new ArrayList<>();
+        String cookie = null;
+        do {
+            int before = names.size();
+            org.identityconnectors.framework.common.objects.SearchResult result = new SapUMEPagedSearch(connection.configuration,
+                    connection, NAMING_ATTRIBUTE).search(createPartitions(), null, cookie, null, pageSize, "test",
+                    entry -> names.add(entry.getAttributeValue(NAMING_ATTRIBUTE).toString()), new SapUMEOperationTrace("test"));
+            Assert.assertTrue(names.size() - before <= pageSize);
+            if (!result.isAllResultsReturned()) {
+                Assert.assertEquals(result.getRemainingPagedResults(), NAMES.size() - names.size());
+            }
+            cookie = result.getPagedResultsCookie();
+        } while (cookie != null);
+        return names;
+    }
+
+    private static LinkedHashMap<String, SearchRequest> createPartitions() {
+        SearchRequest request = new SearchRequest();
+        request.setSearchBase("sapuser");
+        request.addAttribute(NAMING_ATTRIBUTE);
+        LinkedHashMap<String, SearchRequest> partitions = new LinkedHashMap<>();
+        partitions.put("", request);
+        return partitions;
+    }
+
+    private static SapUMEConfiguration createConfiguration(String user, int pageCacheMaxBytes) {
+        SapUMEConfiguration configuration = new SapUMEConfiguration();
+        configuration.setURL("http://paged:50000/spml/spmlservice");
+        configuration.setUser(user);
+        configuration.setPageCacheMaxBytes(pageCacheMaxBytes);
+        return configuration;
+    }
+
+    // returns the entries unsorted for every search
+    private static class FakeConnection extends SapUMEConnection {
+
+        private final SapUMEConfiguration configuration;
+        private int searches;
+
+        FakeConnection(SapUMEConfiguration configuration) {
+            super(configuration);
+            this.configuration = configuration;
+        }
+
+        @Override
+        public SearchResponse search(SearchRequest searchRequest, String logOperation, SapUMESearchResultHandler handler,
+                                     SapUMEOperationTrace trace) {
+            searches++;
+            for (String name : NAMES) {
+                SearchResult entry = new SearchResult();
+                entry.setIdentifier("USER.PRIVATE_DATASOURCE.un:" + name);
+                entry.setAttribute(NAMING_ATTRIBUTE, name);
+                handler.handle(entry);
+            }
+            return new SearchResponse();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+import org.openspml.message.FilterTerm;
+import org.openspml.message.SearchRequest;
+import org.openspml.message.SearchResult;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SapUMEPartitionPlannerTest {
+
+    private static final String OBJECT_CLASS = "sapuser";
+    private static final String NAMING_ATTRIBUTE = "logonname";
+
+    @Test
+    public void testInitialPlan() {
+        List<SapUMEPartitionPlanner.Partition> partitions = createPlanner("http://initial", "abc").plan();
+        Assert.assertEquals(keys(partitions), Arrays.asList("a", "b", "c"));
+        SearchRequest searchRequest = partitions.get(0).createRequest();
+        Assert.assertEquals(searchRequest.getSearchBase().getId(), OBJECT_CLASS);
+        FilterTerm term = (FilterTerm) searchRequest.getFilter().getTerms().get(0);
+        Assert.assertTrue(term.isOperation(FilterTerm.OP_SUBSTRINGS));
+        Assert.assertEquals(term.getInitialSubstring(), "a");
+        Assert.assertEquals(term.getName(), NAMING_ATTRIBUTE);
+    }
+
+    @Test
+    public void testLargePrefixSplit() {
+        SapUMEConfiguration configuration = createConfiguration("http://large", "ab");
+        configuration.setPartitionSplitThreshold(100);
+        SapUMEPartitionStatistics.forConfiguration(configuration).put(OBJECT_CLASS, "a", 500, 1000, false);
+        SapUMEPartitionStatistics.forConfiguration(configuration).put(OBJECT_CLASS, "aa", 300, 600, false);
+        SapUMEPartitionPlanner planner = createPlanner(configuration);
+        List<SapUMEPartitionPlanner.Partition> partitions = planner.plan();
+        Assert.assertEquals(keys(partitions), Arrays.asList("aaa", "aab", "aa*", "ab", "a*", "b"));
+
+        // the rest partition has the prefix but none of the longer ones
+        FilterTerm and = (FilterTerm) partitions.get(4).createRequest().getFilter().getTerms().get(0);
+        Assert.assertTrue(and.isOperation(FilterTerm.OP_AND));
+        FilterTerm not = (FilterTerm) and.getOperands().get(1);
+        Assert.assertTrue(not.isOperation(FilterTerm.OP_NOT));
+        Assert.assertEquals(((FilterTerm) not.getOperands().get(0)).getOperands().size(), 2);
+    }
+
+    @Test
+    public void testSlowPrefixSplit() {
+        SapUMEConfiguration configuration = createConfiguration("http://slow", "ab");
+        configuration.setPartitionSplitTime(1000);
+        SapUMEPartitionStatistics.forConfiguration(configuration).put(OBJECT_CLASS, "b", 10, 5000, false);
+        Assert.assertEquals(keys(createPlanner(configuration).plan()), Arrays.asList("a", "ba", "bb", "b*"));
+    }
+
+    @Test
+    public void testMaxPrefixLength() {
+        SapUMEConfiguration configuration = createConfiguration("http://max-length", "a");
+        configuration.setPartitionSplitThreshold(1);
+        SapUMEPartitionStatistics statistics = SapUMEPartitionStatistics.forConfiguration(configuration);
+        statistics.put(OBJECT_CLASS, "a", 10, 10, false);
+        statistics.put(OBJECT_CLASS, "aa", 10, 10, false);
+        statistics.put(OBJECT_CLASS, "aaa", 10, 10, false);
+        Assert.assertEquals(keys(createPlanner(configuration).plan()), Arrays.asList("aaa", "aa*", "a*"));
+    }
+
+    @Test
+    public void testTimeoutSplit() {
+        SapUMEConfiguration configuration = createConfiguration("http://timeout", "ab");
+        SapUMEPartitionPlanner planner = createPlanner(configuration);
+        SapUMEPartitionPlanner.Partition partition = planner.plan().get(0);
+        Assert.assertNull(planner.split(partition, 5, 100, new ConnectorException("failed")));
+        List<SapUMEPartitionPlanner.Partition> parts = planner.split(partition, 5, 100, new OperationTimeoutException("timeout"));
+        Assert.assertEquals(keys(parts), Arrays.asList("aa", "ab", "a*"));
+        Assert.assertTrue(SapUMEPartitionStatistics.forConfiguration(configuration).get(OBJECT_CLASS, "a").isTimeout());
+        // the timed out prefix is split in the next search too
+        Assert.assertEquals(keys(createPlanner(configuration).plan()), Arrays.asList("aa", "ab", "a*", "b"));
+    }
+
+    @Test
+    public void testFinishedSumsParts() {
+        SapUMEConfiguration configuration = createConfiguration("http://sums", "ab");
+        configuration.setPartitionSplitThreshold(100);
+        SapUMEPartitionStatistics statistics = SapUMEPartitionStatistics.forConfiguration(configuration);
+        statistics.put(OBJECT_CLASS, "a", 500, 1000, false);
+        SapUMEPartitionPlanner planner = createPlanner(configuration);
+        for (SapUMEPartitionPlanner.Partition partition : planner.plan()) {
+            planner.completed(partition, 20, 10);
+        }
+        planner.finished();
+        Assert.assertEquals(statistics.get(OBJECT_CLASS, "a").getCount(), 60);
+        Assert.assertEquals(statistics.get(OBJECT_CLASS, "a").getMillis(), 30);
+        Assert.assertEquals(planner.getEstimatedCount("a*"), 20);
+        Assert.assertEquals(planner.getEstimatedCount("c"), -1);
+        // the prefix shrank under the threshold, it is merged again
+        Assert.assertEquals(keys(createPlanner(configuration).plan()), Arrays.asList("a", "b"));
+    }
+
+    @Test
+    public void testPagesNotSplit() {
+        SapUMEConfiguration configuration = createConfiguration("http://pages", "ab");
+        configuration.setPartitionSplitThreshold(1);
+        SapUMEPartitionStatistics.forConfiguration(configuration).put(OBJECT_CLASS, "a", 500, 1000, false);
+        Assert.assertEquals(keys(createPlanner(configuration).planPages()), Arrays.asList("a", "b"));
+    }
+
+    @Test
+    public void testOverlappingPrefixes() {
+        Assert.assertFalse(createPlanner("http://overlap-none", "abc1").hasOverlappingPrefixes());
+        Assert.assertTrue(createPlanner("http://overlap-case", "abcA").hasOverlappingPrefixes());
+    }
+
+    @Test
+    public void testUnsupportedRestReplacedByPrefix() {
+        SapUMEPartitionPlanner planner = createPlanner("http://rest-unsupported", "ab");
+        SapUMEPartitionPlanner.Partition partition = planner.plan().get(0);
+        List<SapUMEPartitionPlanner.Partition> parts = planner.split(partition, 10, 100, new OperationTimeoutException("timeout"));
+        SapUMEPartitionPlanner.Partition rest = parts.get(parts.size() - 1);
+        Assert.assertTrue(rest.isRest());
+        Assert.assertFalse(rest.isSearchedElsewhere(createEntry("a")));
+
+        List<SapUMEPartitionPlanner.Partition> replacement = planner.split(rest, 0, 10, new ConnectorException("not supported"));
+        Assert.assertEquals(replacement.size(), 1);
+        SapUMEPartitionPlanner.Partition prefix = replacement.get(0);
+        Assert.assertFalse(prefix.isRest());
+        // the longer prefixes were searched by the other parts
+        Assert.assertTrue(prefix.isSearchedElsewhere(createEntry("ab")));
+        Assert.assertTrue(prefix.isSearchedElsewhere(createEntry("AB")));
+        Assert.assertFalse(prefix.isSearchedElsewhere(createEntry("a")));
+        Assert.assertFalse(prefix.isSearchedElsewhere(createEntry("a.x")));
+        Assert.assertTrue(prefix.createRequest().getAttributes().contains(NAMING_ATTRIBUTE));
+    }
+
+    static SapUMEPartitionPlanner createPlanner(String url, String pattern) {
+        return createPlanner(createConfiguration(url, pattern));
+    }
+
+    static SapUMEPartitionPlanner createPlanner(SapUMEConfiguration configuration) {
+        return new SapUMEPartitionPlanner(configuration, OBJECT_CLASS, NAMING_ATTRIBUTE, Arrays.asList("id", "firstname"));
+    }
+
+    private static List<String> keys(List<SapUMEPartitionPlanner.Partition> partitions) {
+        List<String> keys = new ArrayList<>();
+        for (SapUMEPartitionPlanner.Partition partition : partitions) {
+            keys.add(partition.getKey());
+        }
+        return keys;
+    }
+
+    static SapUMEConfiguration createConfiguration(String url, String pattern) {
+        SapUMEConfiguration configuration = new SapUMEConfiguration();
+        configuration.setURL(url);
+        configuration.setFullSearchStringPattern(pattern);
+        return configuration;
+    }
+
+    private static SearchResult createEntry(String name) {
+        SearchResult searchResult = new SearchResult();
+        searchResult.setIdentifier("USER.PRIVATE_DATASOURCE.un:" + name);
+        searchResult.setAttribute(NAMING_ATTRIBUTE, name);
+        return searchResult;
+    }
+}
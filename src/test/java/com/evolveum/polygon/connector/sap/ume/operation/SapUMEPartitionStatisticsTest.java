@@ -0,0 +1,115 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class SapUMEPartitionStatisticsTest {
+
+    private Path directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("sap-ume-statistics");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testSharedByUrlWithoutFile() {
+        SapUMEPartitionStatistics statistics = SapUMEPartitionStatistics.forConfiguration(createConfiguration("http://memory", null));
+        statistics.put("sapuser", "a", 10, 20, false);
+        Assert.assertSame(SapUMEPartitionStatistics.forConfiguration(createConfiguration("http://memory", null)), statistics);
+        Assert.assertNotSame(SapUMEPartitionStatistics.forConfiguration(createConfiguration("http://memory-other", null)), statistics);
+        Assert.assertNull(statistics.get("saprole", "a"));
+        statistics.save();
+    }
+
+    @Test
+    public void testSavedAndLoaded() throws IOException {
+        Path file = directory.resolve("nested").resolve("statistics.properties");
+        SapUMEPartitionStatistics statistics = SapUMEPartitionStatistics.forConfiguration(createConfiguration("http://file", file.toString()));
+        statistics.put("sapuser", "a", 10, 20, false);
+        statistics.put("sapuser", "b*", 30, 40, true);
+        statistics.setRestUnsupported();
+        statistics.save();
+        Assert.assertTrue(Files.exists(file));
+
+        SapUMEPartitionStatistics loaded = load(file);
+        Assert.assertEquals(loaded.get("sapuser", "a").getCount(), 10);
+        Assert.assertEquals(loaded.get("sapuser", "a").getMillis(), 20);
+        Assert.assertFalse(loaded.get("sapuser", "a").isTimeout());
+        Assert.assertTrue(loaded.get("sapuser", "b*").isTimeout());
+        Assert.assertTrue(loaded.isRestUnsupported());
+    }
+
+    @Test
+    public void testSavedOnlyWhenChanged() throws IOException {
+        Path file = directory.resolve("changed.properties");
+        SapUMEPartitionStatistics statistics = SapUMEPartitionStatistics.forConfiguration(createConfiguration("http://changed", file.toString()));
+        statistics.put("sapuser", "a", 10, 100, false);
+        statistics.save();
+        Assert.assertTrue(Files.exists(file));
+
+        // the same count and a similar time are not saved again
+        Files.delete(file);
+        statistics.put("sapuser", "a", 10, 140, false);
+        statistics.save();
+        Assert.assertFalse(Files.exists(file));
+
+        statistics.put("sapuser", "a", 10, 400, false);
+        statistics.save();
+        Assert.assertTrue(Files.exists(file));
+        Files.delete(file);
+        statistics.put("sapuser", "a", 11, 400, false);
+        statistics.save();
+        Assert.assertTrue(Files.exists(file));
+        Files.delete(file);
+        statistics.setRestUnsupported();
+        statistics.save();
+        Assert.assertTrue(Files.exists(file));
+        Files.delete(file);
+        statistics.setRestUnsupported();
+        statistics.save();
+        Assert.assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void testInvalidEntriesIgnored() throws IOException {
+        Path file = directory.resolve("invalid.properties");
+        Files.write(file, Arrays.asList("sapuser\\:a=5,6", "sapuser\\:b=x,6", "sapuser\\:c=7"), StandardCharsets.ISO_8859_1);
+        SapUMEPartitionStatistics loaded = load(file);
+        Assert.assertEquals(loaded.get("sapuser", "a").getCount(), 5);
+        Assert.assertNull(loaded.get("sapuser", "b"));
+        Assert.assertNull(loaded.get("sapuser", "c"));
+        Assert.assertFalse(loaded.isRestUnsupported());
+    }
+
+    // a new instance reading the file, as after a restart
+    private static SapUMEPartitionStatistics load(Path file) throws IOException {
+        Path copy = Files.copy(file, file.resolveSibling("copy-" + file.getFileName()));
+        return SapUMEPartitionStatistics.forConfiguration(createConfiguration("http://file", copy.toString()));
+    }
+
+    private static SapUMEConfiguration createConfiguration(String url, String file) {
+        SapUMEConfiguration configuration = new SapUMEConfiguration();
+        configuration.setURL(url);
+        configuration.setPartitionStatisticsFile(file);
+        return configuration;
+    }
+}
@@ -0,0 +1,87 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
+import com.evolveum.polygon.connector.sap.ume.SapUMEConnection;
+import com.evolveum.polygon.connector.sap.ume.SapUMEOperationTrace;
+import com.evolveum.polygon.connector.sap.ume.SapUMESearchResultHandler;
+import org.openspml.message.FilterTerm;
+import org.openspml.message.SearchRequest;
+import org.openspml.message.SearchResponse;
+import org.openspml.message.SearchResult;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class SapUMEPartitionedSearchTest {
+
+    @Test
+    public void testAllPartitions() {
+        SapUMEConfiguration configuration = createConfiguration("all");
+        FakeConnection connection = new FakeConnection(configuration, null);
+        try {
+            List<String> names = new ArrayList<>();
+            new SapUMEPartitionedSearch(connection, 2).search(SapUMEPartitionPlannerTest.createPlanner(configuration), "test",
+                    searchResult -> names.add(searchResult.getIdentifierString()), new SapUMEOperationTrace("test"));
+            Collections.sort(names);
+            Assert.assertEquals(names, Arrays.asList("a", "b", "c"));
+        } finally {
+            connection.dispose();
+        }
+    }
+
+    @Test
+    public void testErrorStopsSearch() throws Exception {
+        SapUMEConfiguration configuration = createConfiguration("error");
+        FakeConnection connection = new FakeConnection(configuration, "b");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // the partition failing with an error reports its end, the search does not wait for it forever
+            Future<?> search = executor.submit(() -> new SapUMEPartitionedSearch(connection, 2).search(
+                    SapUMEPartitionPlannerTest.createPlanner(configuration), "test", searchResult -> true, new SapUMEOperationTrace("test")));
+            ExecutionException exception = Assert.expectThrows(ExecutionException.class, () -> search.get(10, TimeUnit.SECONDS));
+            Assert.assertTrue(exception.getCause() instanceof StackOverflowError, String.valueOf(exception.getCause()));
+        } finally {
+            executor.shutdownNow();
+            connection.dispose();
+        }
+    }
+
+    private static SapUMEConfiguration createConfiguration(String user) {
+        SapUMEConfiguration configuration = SapUMEPartitionPlannerTest.createConfiguration("http://partitioned:50000/spml/spmlservice", "abc");
+        configuration.setUser(user);
+        return configuration;
+    }
+
+    // returns one entry named by the prefix of the partition, the partition with the failing prefix throws an error
+    private static class FakeConnection extends SapUMEConnection {
+
+        private final String failingPrefix;
+
+        FakeConnection(SapUMEConfiguration configuration, String failingPrefix) {
+            super(configuration);
+            this.failingPrefix = failingPrefix;
+        }
+
+        @Override
+        public SearchResponse search(SearchRequest searchRequest, String logOperation, SapUMESearchResultHandler handler,
+                                     SapUMEOperationTrace trace) {
+            String prefix = ((FilterTerm) searchRequest.getFilter().getTerms().get(0)).getInitialSubstring();
+            if (prefix.equals(failingPrefix)) {
+                throw new StackOverflowError();
+            }
+            SearchResult entry = new SearchResult();
+            entry.setIdentifier(prefix);
+            handler.handle(entry);
+            return new SearchResponse();
+        }
+    }
+}
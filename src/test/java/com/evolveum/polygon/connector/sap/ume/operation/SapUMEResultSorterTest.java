@@ -0,0 +1,164 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import org.identityconnectors.framework.common.objects.SortKey;
+import org.openspml.message.SearchResult;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class SapUMEResultSorterTest {
+
+    private Path directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("sap-ume-sort");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : paths.collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testSortedInMemory() {
+        List<String> names = Arrays.asList("bob", "Alice", "carol", "alice");
+        try (SapUMEResultSorter sorter = createSorter(true, 100)) {
+            for (String name : names) {
+                sorter.handle(createEntry(name, "x"));
+            }
+            Assert.assertEquals(deliver(sorter, 0, Long.MAX_VALUE), Arrays.asList("Alice", "alice", "bob", "carol"));
+        }
+        Assert.assertEquals(listFiles().size(), 0);
+    }
+
+    @Test
+    public void testSpilledRunsMerged() {
+        Random random = new Random(7);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            names.add("user" + random.nextInt(100000));
+        }
+        List<String> expected = new ArrayList<>(names);
+        expected.sort(Collections.reverseOrder(String.CASE_INSENSITIVE_ORDER));
+        try (SapUMEResultSorter sorter = createSorter(false, 64)) {
+            for (String name : names) {
+                sorter.handle(createEntry(name, "x"));
+            }
+            Assert.assertEquals(listFiles().size(), 1000 / 64);
+            Assert.assertEquals(sorter.getCount(), 1000);
+            Assert.assertEquals(deliver(sorter, 0, Long.MAX_VALUE), expected);
+        }
+        // deleted by close, not at the exit of the JVM
+        Assert.assertEquals(listFiles().size(), 0);
+    }
+
+    @Test
+    public void testTempFilesOwnerOnly() throws IOException {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return;
+        }
+        try (SapUMEResultSorter sorter = createSorter(true, 1)) {
+            sorter.handle(createEntry("joe", "x"));
+            List<Path> files = listFiles();
+            Assert.assertEquals(files.size(), 1);
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(files.get(0));
+            Assert.assertEquals(permissions, PosixFilePermissions.fromString("rw-------"));
+        }
+    }
+
+    @Test
+    public void testEqualAndMissingValues() {
+        try (SapUMEResultSorter sorter = createSorter(true, 2)) {
+            sorter.handle(createEntry(null, "1"));
+            sorter.handle(createEntry("b", "2"));
+            sorter.handle(createEntry("a", "3"));
+            sorter.handle(createEntry("b", "4"));
+            sorter.handle(createEntry("a", "5"));
+            List<String> order = new ArrayList<>();
+            sorter.deliver(entry -> order.add((String) entry.getAttributeValue("order")), 0, Long.MAX_VALUE);
+            // equal values keep the order of the response, an entry without the value is the last one
+            Assert.assertEquals(order, Arrays.asList("3", "5", "2", "4", "1"));
+        }
+    }
+
+    @Test
+    public void testValuesRestoredFromRuns() {
+        StringBuilder certificate = new StringBuilder();
+        for (int i = 0; i < 70000; i++) {
+            certificate.append((char) ('A' + i % 26));
+        }
+        try (SapUMEResultSorter sorter = createSorter(true, 1)) {
+            SearchResult entry = createEntry("j\u00f6e", "1");
+            entry.setAttribute("certificate", certificate.toString());
+            entry.setAttribute("assignedroles", new ArrayList<>(Arrays.asList("a", "b")));
+            sorter.handle(entry);
+            sorter.handle(createEntry("ann", "2"));
+            List<SearchResult> delivered = new ArrayList<>();
+            sorter.deliver(delivered::add, 0, Long.MAX_VALUE);
+            SearchResult restored = delivered.get(1);
+            Assert.assertEquals(restored.getIdentifierString(), "j\u00f6e");
+            Assert.assertEquals(restored.getAttributeValue("certificate"), certificate.toString());
+            Assert.assertEquals(restored.getAttributeValue("assignedroles"), Arrays.asList("a", "b"));
+        }
+    }
+
+    @Test
+    public void testSkipAndLimit() {
+        try (SapUMEResultSorter sorter = createSorter(true, 3)) {
+            for (String name : Arrays.asList("e", "d", "c", "b", "a")) {
+                sorter.handle(createEntry(name, "x"));
+            }
+            Assert.assertEquals(deliver(sorter, 1, 2), Arrays.asList("b", "c"));
+        }
+    }
+
+    private SapUMEResultSorter createSorter(boolean ascending, int bufferSize) {
+        return new SapUMEResultSorter(Collections.singletonList(new SortKey("logonname", ascending)), bufferSize, directory.toString());
+    }
+
+    private static List<String> deliver(SapUMEResultSorter sorter, long skip, long limit) {
+        List<String> names = new ArrayList<>();
+        sorter.deliver(entry -> names.add((String) entry.getAttributeValue("logonname")), skip, limit);
+        return names;
+    }
+
+    private List<Path> listFiles() {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.collect(Collectors.toList());
+        } catch (IOException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    private static SearchResult createEntry(String name, String order) {
+        SearchResult entry = new SearchResult();
+        entry.setIdentifier(name == null ? "none" : name);
+        if (name != null) {
+            entry.setAttribute("logonname", name);
+        }
+        entry.setAttribute("order", order);
+        return entry;
+    }
+}
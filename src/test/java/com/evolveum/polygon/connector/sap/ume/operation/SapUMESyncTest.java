@@ -0,0 +1,138 @@
+package com.evolveum.polygon.connector.sap.ume.operation;
+
+import com.evolveum.polygon.connector.sap.ume.SapUMEConfiguration;
+import com.evolveum.polygon.connector.sap.ume.SapUMEConnection;
+import com.evolveum.polygon.connector.sap.ume.SapUMEObjectClass;
+import com.evolveum.polygon.connector.sap.ume.SapUMEOperationTrace;
+import com.evolveum.polygon.connector.sap.ume.SapUMESchema;
+import com.evolveum.polygon.connector.sap.ume.SapUMESearchResultHandler;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.openspml.message.FilterTerm;
+import org.openspml.message.SearchRequest;
+import org.openspml.message.SearchResponse;
+import org.openspml.message.SearchResult;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+public class SapUMESyncTest {
+
+    @Test
+    public void testTokenRoundTrip() {
+        SyncToken token = SapUMESync.encodeToken(new SapUMESync.TokenState("20240101120000Z",
+                new LinkedHashSet<>(Arrays.asList("USER.PRIVATE_DATASOURCE.un:joe", "USER.PRIVATE_DATASOURCE.un:j\u00f6rg"))));
+        Assert.assertTrue(token.getValue().toString().matches("[A-Za-z0-9_-]+"), token.getValue().toString());
+        SapUMESync.TokenState state = SapUMESync.decodeToken(token.getValue().toString());
+        Assert.assertEquals(state.getTimestamp(), "20240101120000Z");
+        Assert.assertEquals(state.getIds(), new LinkedHashSet<>(Arrays.asList("USER.PRIVATE_DATASOURCE.un:joe",
+                "USER.PRIVATE_DATASOURCE.un:j\u00f6rg")));
+    }
+
+    @Test
+    public void testTokenWithoutIds() {
+        SyncToken token = SapUMESync.encodeToken(new SapUMESync.TokenState("20240101120000Z", Collections.emptySet()));
+        SapUMESync.TokenState state = SapUMESync.decodeToken(token.getValue().toString());
+        Assert.assertEquals(state.getTimestamp(), "20240101120000Z");
+        Assert.assertTrue(state.getIds().isEmpty());
+    }
+
+    @Test
+    public void testInvalidToken() {
+        Assert.assertThrows(InvalidAttributeValueException.class, () -> SapUMESync.decodeToken("not a token!"));
+        Assert.assertThrows(InvalidAttributeValueException.class, () -> SapUMESync.decodeToken(""));
+        String noTimestamp = Base64.getUrlEncoder().withoutPadding().encodeToString("\nUSER.PRIVATE_DATASOURCE.un:joe"
+                .getBytes(StandardCharsets.UTF_8));
+        Assert.assertThrows(InvalidAttributeValueException.class, () -> SapUMESync.decodeToken(noTimestamp));
+    }
+
+    @Test
+    public void testPass() {
+        SapUMESync.TokenState state = new SapUMESync.TokenState("20240101120000Z",
+                Collections.singleton("USER.PRIVATE_DATASOURCE.un:joe"));
+        Assert.assertFalse(state.pass("20240101115959Z", "USER.PRIVATE_DATASOURCE.un:ann"));
+        Assert.assertFalse(state.pass("20240101120000Z", "USER.PRIVATE_DATASOURCE.un:joe"));
+        Assert.assertTrue(state.pass("20240101120000Z", "USER.PRIVATE_DATASOURCE.un:ann"));
+        Assert.assertEquals(state.getIds().size(), 2);
+        Assert.assertTrue(state.pass("20240101120001Z", "USER.PRIVATE_DATASOURCE.un:bob"));
+        Assert.assertEquals(state.getTimestamp(), "20240101120001Z");
+        Assert.assertEquals(state.getIds(), Collections.singleton("USER.PRIVATE_DATASOURCE.un:bob"));
+    }
+
+    @Test
+    public void testLatestTokenFromServer() {
+        SapUMEConfiguration configuration = createConfiguration("latest");
+        FakeConnection connection = new FakeConnection(configuration, Arrays.asList(
+                createEntry("joe", "29990101120005Z"), createEntry("ann", "29990101120007Z"), createEntry("bob", "29990101120007Z")));
+        try {
+            SyncToken token = new SapUMESync(configuration, connection).getLatestSyncToken(new SapUMEObjectClass(ObjectClass.ACCOUNT));
+            SapUMESync.TokenState state = SapUMESync.decodeToken(token.getValue().toString());
+            Assert.assertEquals(state.getTimestamp(), "29990101120007Z");
+            Assert.assertEquals(state.getIds(), new LinkedHashSet<>(Arrays.asList("USER.PRIVATE_DATASOURCE.un:ann",
+                    "USER.PRIVATE_DATASOURCE.un:bob")));
+            Assert.assertEquals(connection.filterTerm.getOperation(), FilterTerm.OP_GTE);
+            Assert.assertEquals(connection.filterTerm.getName(), SapUMESchema.ATTRIBUTE_LASTMODIFYDATE);
+        } finally {
+            connection.dispose();
+        }
+    }
+
+    @Test
+    public void testLatestTokenWithoutChanges() {
+        SapUMEConfiguration configuration = createConfiguration("unchanged");
+        FakeConnection connection = new FakeConnection(configuration, Collections.emptyList());
+        try {
+            SyncToken token = new SapUMESync(configuration, connection).getLatestSyncToken(new SapUMEObjectClass(ObjectClass.ACCOUNT));
+            SapUMESync.TokenState state = SapUMESync.decodeToken(token.getValue().toString());
+            // the time searched from, the current time minus the clock skew
+            Assert.assertEquals(state.getTimestamp(), connection.filterTerm.getValue());
+            Assert.assertTrue(state.getIds().isEmpty());
+        } finally {
+            connection.dispose();
+        }
+    }
+
+    private static SearchResult createEntry(String logonName, String modified) {
+        SearchResult entry = new SearchResult();
+        entry.setIdentifier("USER.PRIVATE_DATASOURCE.un:" + logonName);
+        entry.setAttribute(SapUMESchema.ATTRIBUTE_ID, "USER.PRIVATE_DATASOURCE.un:" + logonName);
+        entry.setAttribute(SapUMESchema.ATTRIBUTE_LASTMODIFYDATE, modified);
+        return entry;
+    }
+
+    private static SapUMEConfiguration createConfiguration(String user) {
+        SapUMEConfiguration configuration = new SapUMEConfiguration();
+        configuration.setURL("http://sync:50000/spml/spmlservice");
+        configuration.setUser(user);
+        return configuration;
+    }
+
+    // returns the entries for every search and keeps the filter term of the last one
+    private static class FakeConnection extends SapUMEConnection {
+
+        private final List<SearchResult> entries;
+        private FilterTerm filterTerm;
+
+        FakeConnection(SapUMEConfiguration configuration, List<SearchResult> entries) {
+            super(configuration);
+            this.entries = entries;
+        }
+
+        @Override
+        public SearchResponse search(SearchRequest searchRequest, String logOperation, SapUMESearchResultHandler handler,
+                                     SapUMEOperationTrace trace) {
+            filterTerm = searchRequest.getFilter().getTerms().get(0);
+            for (SearchResult entry : entries) {
+                handler.handle(entry);
+            }
+            return new SearchResponse();
+        }
+    }
+}